@@ -4,9 +4,12 @@ module top.fateironist.net_relay {
     requires lombok;
     requires org.slf4j;
     requires ch.qos.logback.classic;
+    requires java.management;
 
 
     opens top.fateironist.net_relay.desktop to javafx.fxml;
     exports top.fateironist.net_relay.desktop to javafx.controls;
+    // 流量统计 MXBean 接口需对 JMX 可见
+    exports top.fateironist.net_relay.core.metrics;
 
 }
\ No newline at end of file
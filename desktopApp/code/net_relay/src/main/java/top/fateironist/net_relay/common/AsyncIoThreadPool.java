@@ -1,9 +1,21 @@
 package top.fateironist.net_relay.common;
 
+import top.fateironist.net_relay.model.common.enums.AsyncIoModeEnum;
+
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
+/**
+ * 阻塞IO任务执行器
+ * VIRTUAL：每个任务一个虚拟线程，阻塞的 connect/receive 不占用平台线程；
+ * PLATFORM：固定大小的线程池，队列满时改由虚拟线程执行，任何情况下都不会在提交线程（如Selector线程）上执行。
+ * 关闭后提交的任务被拒绝并抛出 RejectedExecutionException，由提交方处理。
+ * 超时由 TaskScheduler 统一计时，到期取消任务并回调，不再额外占用一个线程等待 future.get。
+ * 每个 RelayManager 持有自己的实例，模式在创建时确定，随 RelayManager 一起关闭。
+ */
 public class AsyncIoThreadPool {
     private static ThreadFactory threadFactory = new ThreadFactory() {
         private AtomicInteger threadNumber = new AtomicInteger(0);
@@ -11,38 +23,171 @@ public class AsyncIoThreadPool {
         public Thread newThread(Runnable r) {
             Thread thread = new Thread(r);
             thread.setDaemon(true);
-            thread.setName("AsyncIoThreadPool-" + threadNumber);
+            thread.setName("AsyncIoThreadPool-" + threadNumber.getAndIncrement());
             return thread;
         }
     };
 
-    private static ExecutorService executorService = new ThreadPoolExecutor(
-            Runtime.getRuntime().availableProcessors(),
-            Runtime.getRuntime().availableProcessors() * 2,
-            1,
-            TimeUnit.MINUTES,
-            new LinkedBlockingQueue<>(100),
-            threadFactory,
-            new ThreadPoolExecutor.CallerRunsPolicy()
-    );
+    private static final ThreadFactory virtualThreadFactory = Thread.ofVirtual().name("AsyncIoVirtual-", 0).factory();
+
+    // 饱和统计
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger peakActiveCount = new AtomicInteger();
+
+    private final AsyncIoModeEnum mode;
+    private final ExecutorService executorService;
 
-    public static void execute(Runnable runnable) {
-        executorService.execute(runnable);
+    public AsyncIoThreadPool(AsyncIoModeEnum mode) {
+        this.mode = mode;
+        this.executorService = createExecutor(mode, overflowCount);
     }
 
-    public static void executeWithTimeoutIgnoreException(Runnable runnable, long timeout, TimeUnit timeUnit, Consumer<Exception> errorCallback) {
-        Future<?> future = executorService.submit(runnable);
-        executorService.submit(() -> {
+    public AsyncIoModeEnum getMode() {
+        return mode;
+    }
+
+    /**
+     * 不再接受新任务，已提交的任务继续执行完毕
+     */
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    public void execute(Runnable runnable) {
+        Runnable task = instrument(runnable);
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            onRejected();
+            throw e;
+        }
+    }
+
+    /**
+     * 执行任务，超时或抛出异常时回调 errorCallback（至多一次）；超时会中断任务，可中断的通道随之关闭
+     */
+    public void executeWithTimeoutIgnoreException(Runnable runnable, long timeout, TimeUnit timeUnit, Consumer<Exception> errorCallback) {
+        AtomicBoolean finished = new AtomicBoolean();
+        CompletableFuture<ScheduledFuture<?>> timer = new CompletableFuture<>();
+
+        Future<?> future = submit(instrument(() -> {
             try {
-                future.get(timeout, timeUnit);
+                runnable.run();
+                if (finished.compareAndSet(false, true)) {
+                    timer.thenAccept(t -> t.cancel(false));
+                }
             } catch (Exception e) {
-                errorCallback.accept(e);
+                if (finished.compareAndSet(false, true)) {
+                    timer.thenAccept(t -> t.cancel(false));
+                    errorCallback.accept(e);
+                }
             }
-        });
+        }));
+
+        timer.complete(TaskScheduler.schedule(() -> {
+            if (finished.compareAndSet(false, true)) {
+                timeoutCount.increment();
+                future.cancel(true);
+                errorCallback.accept(new TimeoutException("Async io task timeout after " + timeout + " " + timeUnit));
+            }
+        }, timeout, timeUnit));
     }
 
-    public static void executeWithTimeout(Runnable runnable, long timeout, TimeUnit timeUnit) throws Exception {
-        Future<?> future = executorService.submit(runnable);
+    public void executeWithTimeout(Runnable runnable, long timeout, TimeUnit timeUnit) throws Exception {
+        Future<?> future = submit(instrument(runnable));
         future.get(timeout, timeUnit);
     }
+
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    // PLATFORM 模式下队列已满、转由虚拟线程执行的任务数
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    // 执行器关闭后被拒绝的任务数
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public int getPeakActiveCount() {
+        return peakActiveCount.get();
+    }
+
+    public int getQueuedCount() {
+        return executorService instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executorService).getQueue().size() : 0;
+    }
+
+    private Future<?> submit(Runnable task) {
+        try {
+            return executorService.submit(task);
+        } catch (RejectedExecutionException e) {
+            onRejected();
+            throw e;
+        }
+    }
+
+    // 被拒绝的任务不计入已提交
+    private void onRejected() {
+        submittedCount.decrement();
+        rejectedCount.increment();
+    }
+
+    private Runnable instrument(Runnable runnable) {
+        submittedCount.increment();
+        return () -> {
+            int active = activeCount.incrementAndGet();
+            if (active > peakActiveCount.get()) {
+                peakActiveCount.accumulateAndGet(active, Math::max);
+            }
+            try {
+                runnable.run();
+            } finally {
+                activeCount.decrementAndGet();
+                completedCount.increment();
+            }
+        };
+    }
+
+    private static ExecutorService createExecutor(AsyncIoModeEnum mode, LongAdder overflowCount) {
+        if (mode == AsyncIoModeEnum.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(virtualThreadFactory);
+        }
+        return new ThreadPoolExecutor(
+                Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().availableProcessors() * 2,
+                1,
+                TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(100),
+                threadFactory,
+                (r, executor) -> {
+                    // 已关闭：拒绝，不再另起线程执行
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Async io thread pool is shut down");
+                    }
+                    // 队列已满：交给虚拟线程，避免在提交线程上执行阻塞IO
+                    overflowCount.increment();
+                    virtualThreadFactory.newThread(r).start();
+                }
+        );
+    }
 }
@@ -0,0 +1,75 @@
+package top.fateironist.net_relay.common.buffer;
+
+/**
+ * 自适应缓冲区尺寸
+ * 参考自适应接收缓冲分配器的思路：按BufferPool的尺寸等级维护一张尺寸表，
+ * 缓冲区被读满说明是批量传输，直接跨级增长；连续两轮写出的数据量都不足当前尺寸的一半，则降一级。
+ * 批量流量可以增长到最大尺寸（默认256KB），交互式流量保持在最小尺寸；某方向空闲后由事件循环 reset 回最小尺寸。
+ * 非线程安全，只能由所属事件循环线程访问。
+ */
+public class AdaptiveBufferSizer {
+    private static final int INDEX_INCREMENT = 2;
+    private static final int INDEX_DECREMENT = 1;
+
+    private final int[] sizeTable;
+    private int index;
+    private boolean decreaseNow;
+
+    public AdaptiveBufferSizer(int minSize, int maxSize) {
+        int min = BufferPool.chunkSizeFor(Math.max(1, minSize));
+        int max = BufferPool.chunkSizeFor(Math.min(Math.max(minSize, maxSize), BufferPool.MAX_CHUNK_SIZE));
+
+        int count = 1;
+        for (int size = min; size < max; size <<= 1) {
+            count++;
+        }
+        this.sizeTable = new int[count];
+        for (int i = 0, size = min; i < count; i++, size <<= 1) {
+            sizeTable[i] = size;
+        }
+        this.index = 0;
+    }
+
+    public int size() {
+        return sizeTable[index];
+    }
+
+    public int minSize() {
+        return sizeTable[0];
+    }
+
+    /**
+     * 缓冲区被一次读满
+     */
+    public void recordFull() {
+        index = Math.min(index + INDEX_INCREMENT, sizeTable.length - 1);
+        decreaseNow = false;
+    }
+
+    /**
+     * 缓冲区中的数据全部写出
+     */
+    public void recordFlushed(int bytes) {
+        if (index == 0) {
+            return;
+        }
+        if (bytes <= sizeTable[index - INDEX_DECREMENT]) {
+            if (decreaseNow) {
+                index = Math.max(index - INDEX_DECREMENT, 0);
+                decreaseNow = false;
+            } else {
+                decreaseNow = true;
+            }
+        } else {
+            decreaseNow = false;
+        }
+    }
+
+    /**
+     * 回到最小尺寸，用于空闲连接
+     */
+    public void reset() {
+        index = 0;
+        decreaseNow = false;
+    }
+}
@@ -0,0 +1,267 @@
+package top.fateironist.net_relay.common.buffer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接内存缓冲池
+ * 按2的幂划分尺寸等级（2KB ~ 256KB），每个等级从预先分配的大块slab中切分出固定大小的缓冲区，
+ * 归还后复用，避免连接频繁建立/关闭时反复allocateDirect带来的直接内存抖动与Cleaner压力。
+ * 事件循环线程可通过 bindThreadCache 绑定线程本地缓存，热路径上的申请/归还不经过全局队列。
+ * 注意：release 只能归还由 allocate 申请得到的缓冲区，且同一缓冲区只能归还一次。
+ */
+public class BufferPool {
+    public static final int MIN_CHUNK_SIZE = 2 * 1024;
+    public static final int MAX_CHUNK_SIZE = 256 * 1024;
+    private static final int SLAB_SIZE = 1024 * 1024;
+    // 每个尺寸等级在单个线程缓存中最多保留的字节数
+    private static final int THREAD_CACHE_BYTES = 512 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+    private static final SizeClass[] sizeClasses;
+
+    private static final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<>();
+
+    // 超出最大尺寸等级的申请直接分配，不进入池
+    private static final AtomicLong unpooledAllocations = new AtomicLong();
+
+    static {
+        int count = Integer.numberOfTrailingZeros(MAX_CHUNK_SIZE) - MIN_SHIFT + 1;
+        sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(MIN_CHUNK_SIZE << i);
+        }
+    }
+
+    /**
+     * 申请一个容量不小于 size 的直接缓冲区，position=0，limit=capacity
+     */
+    public static ByteBuffer allocate(int size) {
+        int index = sizeClassIndex(size);
+        if (index < 0) {
+            unpooledAllocations.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        SizeClass sizeClass = sizeClasses[index];
+        ByteBuffer buffer = null;
+        ThreadCache cache = threadCache.get();
+        if (cache != null) {
+            buffer = cache.queues[index].poll();
+        }
+        if (buffer == null) {
+            buffer = sizeClass.poll();
+        }
+        sizeClass.onLease();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，null安全
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int index = exactSizeClassIndex(buffer.capacity());
+        if (index < 0) {
+            return;
+        }
+
+        buffer.clear();
+        SizeClass sizeClass = sizeClasses[index];
+        sizeClass.onRelease();
+
+        ThreadCache cache = threadCache.get();
+        if (cache == null || !cache.queues[index].offer(buffer)) {
+            sizeClass.freeList.offer(buffer);
+        }
+    }
+
+    /**
+     * 为当前线程绑定本地缓存，一般由事件循环线程在启动时调用
+     */
+    public static void bindThreadCache() {
+        if (threadCache.get() == null) {
+            threadCache.set(new ThreadCache());
+        }
+    }
+
+    /**
+     * 解绑当前线程的本地缓存，缓存中的缓冲区归还全局空闲队列
+     */
+    public static void unbindThreadCache() {
+        ThreadCache cache = threadCache.get();
+        if (cache == null) {
+            return;
+        }
+        threadCache.remove();
+        for (int i = 0; i < sizeClasses.length; i++) {
+            ByteBuffer buffer;
+            while ((buffer = cache.queues[i].drain()) != null) {
+                sizeClasses[i].freeList.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * 返回能容纳 size 的尺寸等级的缓冲区容量，超出最大等级时原样返回
+     */
+    public static int chunkSizeFor(int size) {
+        int index = sizeClassIndex(size);
+        return index < 0 ? size : sizeClasses[index].chunkSize;
+    }
+
+    public static List<SizeClassStats> stats() {
+        List<SizeClassStats> stats = new ArrayList<>(sizeClasses.length);
+        for (SizeClass sizeClass : sizeClasses) {
+            long capacity = sizeClass.capacity.get();
+            long leased = sizeClass.leased.get();
+            stats.add(new SizeClassStats(sizeClass.chunkSize, capacity, leased, capacity - leased, sizeClass.highWater.get()));
+        }
+        return stats;
+    }
+
+    public static long getLeasedBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            bytes += sizeClass.leased.get() * sizeClass.chunkSize;
+        }
+        return bytes;
+    }
+
+    public static long getReservedBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            bytes += sizeClass.capacity.get() * sizeClass.chunkSize;
+        }
+        return bytes;
+    }
+
+    public static long getUnpooledAllocations() {
+        return unpooledAllocations.get();
+    }
+
+    private static int sizeClassIndex(int size) {
+        if (size > MAX_CHUNK_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_CHUNK_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static int exactSizeClassIndex(int capacity) {
+        if (capacity < MIN_CHUNK_SIZE || capacity > MAX_CHUNK_SIZE || Integer.bitCount(capacity) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+    }
+
+    private static final class SizeClass {
+        private final int chunkSize;
+        private final int chunksPerSlab;
+        private final ConcurrentLinkedQueue<ByteBuffer> freeList = new ConcurrentLinkedQueue<>();
+
+        private final AtomicLong capacity = new AtomicLong();
+        private final AtomicLong leased = new AtomicLong();
+        private final AtomicLong highWater = new AtomicLong();
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = Math.max(4, SLAB_SIZE / chunkSize);
+        }
+
+        private ByteBuffer poll() {
+            ByteBuffer buffer = freeList.poll();
+            while (buffer == null) {
+                synchronized (this) {
+                    buffer = freeList.poll();
+                    if (buffer == null) {
+                        buffer = carveSlab();
+                    }
+                }
+            }
+            return buffer;
+        }
+
+        // 分配一块新的slab并切分，第一块直接返回给调用方
+        private ByteBuffer carveSlab() {
+            ByteBuffer slab = ByteBuffer.allocateDirect(chunkSize * chunksPerSlab);
+            for (int i = 1; i < chunksPerSlab; i++) {
+                freeList.offer(slab.slice(i * chunkSize, chunkSize));
+            }
+            capacity.addAndGet(chunksPerSlab);
+            return slab.slice(0, chunkSize);
+        }
+
+        private void onLease() {
+            long current = leased.incrementAndGet();
+            if (current > highWater.get()) {
+                highWater.accumulateAndGet(current, Math::max);
+            }
+        }
+
+        private void onRelease() {
+            leased.decrementAndGet();
+        }
+    }
+
+    private static final class ThreadCache {
+        private final CacheQueue[] queues;
+
+        private ThreadCache() {
+            queues = new CacheQueue[sizeClasses.length];
+            for (int i = 0; i < sizeClasses.length; i++) {
+                queues[i] = new CacheQueue(Math.max(2, THREAD_CACHE_BYTES / sizeClasses[i].chunkSize));
+            }
+        }
+    }
+
+    // 单个尺寸等级的线程缓存，具体类型的数组避免泛型数组的未检查转换；持有而非继承 ArrayDeque，不引入可序列化类型
+    private static final class CacheQueue {
+        private final ArrayDeque<ByteBuffer> buffers;
+        private final int limit;
+
+        private CacheQueue(int limit) {
+            this.buffers = new ArrayDeque<>(limit);
+            this.limit = limit;
+        }
+
+        // 后进先出，取最近归还、最可能仍在CPU缓存中的缓冲区
+        private ByteBuffer poll() {
+            return buffers.pollLast();
+        }
+
+        // 已满时返回false，由调用方归还全局空闲队列
+        private boolean offer(ByteBuffer buffer) {
+            if (buffers.size() >= limit) {
+                return false;
+            }
+            buffers.addLast(buffer);
+            return true;
+        }
+
+        private ByteBuffer drain() {
+            return buffers.pollFirst();
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class SizeClassStats {
+        private int chunkSize;
+        private long capacity;
+        private long leased;
+        private long free;
+        private long highWater;
+    }
+}
@@ -0,0 +1,95 @@
+package top.fateironist.net_relay.common.buffer;
+
+import top.fateironist.net_relay.model.relay.enums.DatagramDropPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 发送失败的数据报队列，每个数据报单独保存在从缓冲池申请的缓冲区中，保持数据报边界
+ * 同时受数据报个数与总字节数限制，超出时按丢弃策略丢弃。只能在所属事件循环线程中使用。
+ */
+public class DatagramQueue {
+    private final ArrayDeque<ByteBuffer> datagrams = new ArrayDeque<>();
+    private final int maxPackets;
+    private final int maxBytes;
+    private final DatagramDropPolicy dropPolicy;
+
+    private int queuedBytes;
+    private long droppedPackets;
+
+    public DatagramQueue(int maxPackets, int maxBytes, DatagramDropPolicy dropPolicy) {
+        this.maxPackets = Math.max(1, maxPackets);
+        this.maxBytes = maxBytes;
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * 复制 datagram 的剩余内容入队，返回因此被丢弃的数据报个数（可能是新数据报本身）
+     */
+    public int offer(ByteBuffer datagram) {
+        int size = datagram.remaining();
+        if (size > maxBytes) {
+            droppedPackets++;
+            return 1;
+        }
+
+        int dropped = 0;
+        while (datagrams.size() >= maxPackets || queuedBytes + size > maxBytes) {
+            if (dropPolicy == DatagramDropPolicy.DROP_NEWEST) {
+                droppedPackets++;
+                return 1;
+            }
+            release(datagrams.pollFirst());
+            dropped++;
+        }
+
+        ByteBuffer copy = BufferPool.allocate(size);
+        copy.put(datagram.duplicate());
+        copy.flip();
+        datagrams.addLast(copy);
+        queuedBytes += size;
+        droppedPackets += dropped;
+        return dropped;
+    }
+
+    /**
+     * 队首数据报，发送后调用 remove
+     */
+    public ByteBuffer peek() {
+        return datagrams.peekFirst();
+    }
+
+    public void remove() {
+        release(datagrams.pollFirst());
+    }
+
+    public boolean isEmpty() {
+        return datagrams.isEmpty();
+    }
+
+    public int size() {
+        return datagrams.size();
+    }
+
+    public int getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    public void clear() {
+        while (!datagrams.isEmpty()) {
+            release(datagrams.pollFirst());
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            queuedBytes -= buffer.limit();
+            BufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package top.fateironist.net_relay.common.buffer;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 数据报接收环
+ * 一次唤醒中连续接收的数据报依次放入各个槽位，收完后再统一转发；槽位缓冲区从缓冲池按需申请，循环复用。
+ * 只能在所属事件循环线程中使用。
+ */
+public class DatagramRing {
+    private final int slotSize;
+    private final ByteBuffer[] buffers;
+    private final SocketAddress[] addresses;
+
+    public DatagramRing(int capacity, int slotSize) {
+        this.slotSize = slotSize;
+        this.buffers = new ByteBuffer[capacity];
+        this.addresses = new SocketAddress[capacity];
+    }
+
+    public int capacity() {
+        return buffers.length;
+    }
+
+    /**
+     * 取得第 index 个槽位用于接收，返回已清空的缓冲区
+     */
+    public ByteBuffer slot(int index) {
+        ByteBuffer buffer = buffers[index];
+        if (buffer == null) {
+            buffer = BufferPool.allocate(slotSize);
+            buffers[index] = buffer;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void setAddress(int index, SocketAddress address) {
+        addresses[index] = address;
+    }
+
+    public SocketAddress address(int index) {
+        return addresses[index];
+    }
+
+    public ByteBuffer buffer(int index) {
+        return buffers[index];
+    }
+
+    public void release() {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] != null) {
+                BufferPool.release(buffers[i]);
+                buffers[i] = null;
+            }
+            addresses[i] = null;
+        }
+    }
+}
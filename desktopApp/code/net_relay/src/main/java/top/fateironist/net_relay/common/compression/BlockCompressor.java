@@ -0,0 +1,104 @@
+package top.fateironist.net_relay.common.compression;
+
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 中转压缩的分块帧：flag(1B) | wireLength(2B) | rawLength(2B) | payload
+ * flag 为 0 时 payload 为原始数据（wireLength == rawLength），为 1 时为压缩数据。
+ * 每块最多 MAX_BLOCK_SIZE 字节原始数据，独立压缩；压缩后没有明显变小的块原样发送。
+ * 持有编解码器与临时数组，每个线程（事件循环）一个实例。
+ */
+public class BlockCompressor {
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_BLOCK_SIZE = 16 * 1024;
+    public static final int MAX_FRAME_SIZE = HEADER_SIZE + MAX_BLOCK_SIZE;
+    // 小于该长度的块不尝试压缩
+    public static final int MIN_COMPRESS_SIZE = 256;
+
+    private static final byte FLAG_RAW = 0;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private final byte[] raw = new byte[MAX_BLOCK_SIZE];
+    private final byte[] packed = new byte[MAX_BLOCK_SIZE];
+    private final LzCompressionCodec lz = new LzCompressionCodec();
+    private DeflateCompressionCodec deflate;
+
+    /**
+     * 从 src 读取 length（不超过 MAX_BLOCK_SIZE）字节编码为一帧写入 dst，dst 至少需要 HEADER_SIZE + length 的空间
+     * @param compress 为 false 时直接原样写入
+     * @return 帧负载长度，小于 length 表示已压缩
+     */
+    public int encode(ByteBuffer src, int length, RelayCompressionEnum type, boolean compress, ByteBuffer dst) {
+        src.get(raw, 0, length);
+        if (compress && length >= MIN_COMPRESS_SIZE) {
+            // 至少节省1/8才值得对端解压
+            int packedLength = codec(type).compress(raw, 0, length, packed, 0, length - (length >>> 3));
+            if (packedLength > 0) {
+                putHeader(dst, FLAG_COMPRESSED, packedLength, length);
+                dst.put(packed, 0, packedLength);
+                return packedLength;
+            }
+        }
+        putHeader(dst, FLAG_RAW, length, length);
+        dst.put(raw, 0, length);
+        return length;
+    }
+
+    /**
+     * src 中有完整一帧时解码写入 dst（dst 需至少 MAX_BLOCK_SIZE 的剩余空间），返回原始长度；帧不完整时返回 -1 且不移动 position
+     * 帧头非法或数据损坏时抛出 IllegalArgumentException
+     */
+    public int decode(ByteBuffer src, RelayCompressionEnum type, ByteBuffer dst) {
+        if (src.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int position = src.position();
+        byte flag = src.get(position);
+        int wireLength = src.getShort(position + 1) & 0xFFFF;
+        int rawLength = src.getShort(position + 3) & 0xFFFF;
+        if (rawLength > MAX_BLOCK_SIZE || wireLength > MAX_BLOCK_SIZE
+                || (flag != FLAG_RAW && flag != FLAG_COMPRESSED) || (flag == FLAG_RAW && wireLength != rawLength)) {
+            throw new IllegalArgumentException("Invalid compressed frame header; flag:" + flag + ", wire:" + wireLength + ", raw:" + rawLength);
+        }
+        if (src.remaining() < HEADER_SIZE + wireLength) {
+            return -1;
+        }
+
+        src.position(position + HEADER_SIZE);
+        if (flag == FLAG_RAW) {
+            dst.put(dst.position(), src, src.position(), wireLength);
+            dst.position(dst.position() + wireLength);
+            src.position(src.position() + wireLength);
+        } else {
+            src.get(packed, 0, wireLength);
+            codec(type).decompress(packed, 0, wireLength, raw, 0, rawLength);
+            dst.put(raw, 0, rawLength);
+        }
+        return rawLength;
+    }
+
+    public void close() {
+        if (deflate != null) {
+            deflate.close();
+            deflate = null;
+        }
+    }
+
+    private CompressionCodec codec(RelayCompressionEnum type) {
+        if (type == RelayCompressionEnum.DEFLATE) {
+            if (deflate == null) {
+                deflate = new DeflateCompressionCodec();
+            }
+            return deflate;
+        }
+        return lz;
+    }
+
+    private static void putHeader(ByteBuffer dst, byte flag, int wireLength, int rawLength) {
+        dst.put(flag);
+        dst.putShort((short) wireLength);
+        dst.putShort((short) rawLength);
+    }
+}
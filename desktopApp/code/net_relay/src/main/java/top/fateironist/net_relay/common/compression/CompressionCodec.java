@@ -0,0 +1,21 @@
+package top.fateironist.net_relay.common.compression;
+
+/**
+ * 中转块压缩编解码，每个块独立压缩，不依赖之前的块
+ * 实现不是线程安全的，由事件循环线程独占使用。
+ */
+public interface CompressionCodec {
+    /**
+     * 压缩 src 中的数据，输出不超过 dstLength 字节
+     * @return 压缩后的长度，放不下时返回 -1
+     */
+    int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength);
+
+    /**
+     * 解压出恰好 rawLength 字节，数据损坏时抛出 IllegalArgumentException
+     */
+    void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength);
+
+    default void close() {
+    }
+}
@@ -0,0 +1,52 @@
+package top.fateironist.net_relay.common.compression;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate压缩（无zlib头），每个块 reset 后独立压缩；持有本地内存，不再使用时必须 close
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+    private final Deflater deflater;
+    private final Inflater inflater;
+
+    public DeflateCompressionCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCompressionCodec(int level) {
+        this.deflater = new Deflater(level, true);
+        this.inflater = new Inflater(true);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) {
+        deflater.reset();
+        deflater.setInput(src, srcOffset, srcLength);
+        deflater.finish();
+        int length = deflater.deflate(dst, dstOffset, dstLength);
+        return deflater.finished() ? length : -1;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength) {
+        inflater.reset();
+        inflater.setInput(src, srcOffset, srcLength);
+        int length;
+        try {
+            length = inflater.inflate(dst, dstOffset, rawLength);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        if (length != rawLength) {
+            throw new IllegalArgumentException("Length mismatch: " + length + "/" + rawLength);
+        }
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,149 @@
+package top.fateironist.net_relay.common.compression;
+
+import java.util.Arrays;
+
+/**
+ * 快速LZ压缩，序列格式与LZ4块格式相同：
+ * token(高4位字面量长度，低4位匹配长度-4) | 字面量长度扩展 | 字面量 | offset(2B，小端) | 匹配长度扩展
+ * 长度达到15时以若干个255加一个余数扩展；最后一个序列只有字面量。
+ * 单次哈希查找、不回溯，追求速度而非压缩率。
+ */
+public class LzCompressionCodec implements CompressionCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // 末尾至少保留的字面量字节数，保证匹配扩展时不越界
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_BITS = 12;
+
+    private final int[] hashTable = new int[1 << HASH_BITS];
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) {
+        int srcEnd = srcOffset + srcLength;
+        int dstEnd = dstOffset + dstLength;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int anchor = srcOffset;
+        int ip = srcOffset;
+        int op = dstOffset;
+
+        Arrays.fill(hashTable, -1);
+        while (ip + MIN_MATCH <= matchLimit) {
+            int sequence = readInt(src, ip);
+            int hash = hash(sequence);
+            int ref = hashTable[hash];
+            hashTable[hash] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+
+            int literalLength = ip - anchor;
+            // token + 长度扩展 + 字面量 + offset
+            if (op + 1 + literalLength / 255 + 1 + literalLength + 2 + matchLength / 255 + 1 > dstEnd) {
+                return -1;
+            }
+            int token = op++;
+            op = putLength(dst, op, literalLength);
+            System.arraycopy(src, anchor, dst, op, literalLength);
+            op += literalLength;
+            int offset = ip - ref;
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            op = putLength(dst, op, matchLength - MIN_MATCH);
+            dst[token] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchLength - MIN_MATCH, 15));
+
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        int literalLength = srcEnd - anchor;
+        if (op + 1 + literalLength / 255 + 1 + literalLength > dstEnd) {
+            return -1;
+        }
+        int token = op++;
+        op = putLength(dst, op, literalLength);
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        op += literalLength;
+        dst[token] = (byte) (Math.min(literalLength, 15) << 4);
+        return op - dstOffset;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength) {
+        int srcEnd = srcOffset + srcLength;
+        int dstEnd = dstOffset + rawLength;
+        int ip = srcOffset;
+        int op = dstOffset;
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (ip + literalLength > srcEnd || op + literalLength > dstEnd) {
+                    throw new IllegalArgumentException("Literal out of range");
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == srcEnd) {
+                    break;
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || op - offset < dstOffset || op + matchLength > dstEnd) {
+                    throw new IllegalArgumentException("Match out of range");
+                }
+                // 匹配可能与输出重叠，逐字节复制
+                for (int ref = op - offset, end = op + matchLength; op < end; ) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated block", e);
+        }
+        if (op != dstEnd) {
+            throw new IllegalArgumentException("Length mismatch: " + (op - dstOffset) + "/" + rawLength);
+        }
+    }
+
+    private static int putLength(byte[] dst, int op, int length) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[op++] = (byte) 255;
+                length -= 255;
+            }
+            dst[op++] = (byte) length;
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] bytes, int i) {
+        return (bytes[i] & 0xFF) | ((bytes[i + 1] & 0xFF) << 8) | ((bytes[i + 2] & 0xFF) << 16) | ((bytes[i + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
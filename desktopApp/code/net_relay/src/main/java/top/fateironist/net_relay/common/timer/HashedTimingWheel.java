@@ -0,0 +1,165 @@
+package top.fateironist.net_relay.common.timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮
+ * 由单个事件循环线程独占：调度、取消、到期执行都在该线程内完成，无锁、无跨线程唤醒。
+ * 事件循环通过 nextTimeoutMillis 决定 select(timeout) 的等待时间，select 返回后调用 expire 执行到期任务。
+ * 时间基于 System.nanoTime，系统时间跳变不会让定时任务集中触发或停滞；传入的当前时间同样取自 System.nanoTime。
+ * 每个槽位是 TimerNode 组成的双向链表，节点可复用，因此单次调度不产生对象分配。
+ */
+public class HashedTimingWheel {
+    private final long tickNanos;
+    private final int mask;
+    private final TimerNode[] buckets;
+    private final long startTime;
+
+    // 已处理到的tick
+    private long currentTick;
+    // 最早可能到期的tick（下界），小于等于currentTick时表示需要重新计算
+    private long nextTickHint;
+    private int pending;
+
+    public HashedTimingWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1) << 1);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new TimerNode[size];
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.currentTick = 0;
+        this.nextTickHint = 0;
+    }
+
+    /**
+     * 调度节点，已调度的节点会被重新调度
+     */
+    public void schedule(TimerNode node, long delayMillis) {
+        if (node.state == TimerNode.SCHEDULED) {
+            unlink(node);
+        }
+
+        long elapsed = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        long deadlineTick = (elapsed + tickNanos - 1) / tickNanos;
+        if (deadlineTick <= currentTick) {
+            deadlineTick = currentTick + 1;
+        }
+
+        node.deadlineTick = deadlineTick;
+        node.state = TimerNode.SCHEDULED;
+        int index = (int) (deadlineTick & mask);
+        node.prev = null;
+        node.next = buckets[index];
+        if (buckets[index] != null) {
+            buckets[index].prev = node;
+        }
+        buckets[index] = node;
+        pending++;
+
+        if (nextTickHint > currentTick && deadlineTick < nextTickHint) {
+            nextTickHint = deadlineTick;
+        }
+    }
+
+    /**
+     * 如果节点尚未调度则调度，已调度时保持原到期时间
+     */
+    public void scheduleIfAbsent(TimerNode node, long delayMillis) {
+        if (node.state != TimerNode.SCHEDULED) {
+            schedule(node, delayMillis);
+        }
+    }
+
+    public void cancel(TimerNode node) {
+        if (node.state == TimerNode.SCHEDULED) {
+            unlink(node);
+            node.state = TimerNode.IDLE;
+        } else if (node.state == TimerNode.EXPIRING) {
+            node.state = TimerNode.IDLE;
+        }
+    }
+
+    /**
+     * 执行所有已到期的节点，返回执行数量；nowNanos 取自 System.nanoTime
+     */
+    public int expire(long nowNanos) {
+        long nowTick = (nowNanos - startTime) / tickNanos;
+        if (nowTick <= currentTick) {
+            return 0;
+        }
+
+        // 先摘下所有到期节点，再统一执行，避免回调中重新调度时破坏正在遍历的链表
+        TimerNode expiredHead = null;
+        long ticks = Math.min(nowTick - currentTick, buckets.length);
+        for (long tick = currentTick + 1; tick <= currentTick + ticks; tick++) {
+            TimerNode node = buckets[(int) (tick & mask)];
+            while (node != null) {
+                TimerNode next = node.next;
+                if (node.deadlineTick <= nowTick) {
+                    unlink(node);
+                    node.state = TimerNode.EXPIRING;
+                    node.nextExpired = expiredHead;
+                    expiredHead = node;
+                }
+                node = next;
+            }
+        }
+        currentTick = nowTick;
+
+        int count = 0;
+        while (expiredHead != null) {
+            TimerNode node = expiredHead;
+            expiredHead = node.nextExpired;
+            node.nextExpired = null;
+            // 回调执行前可能已被取消或重新调度
+            if (node.state == TimerNode.EXPIRING) {
+                node.state = TimerNode.IDLE;
+                count++;
+                node.task.run();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 距离下一个可能到期的tick的毫秒数（向上取整，避免select提前返回），没有待执行节点时返回-1
+     */
+    public long nextTimeoutMillis(long nowNanos) {
+        if (pending == 0) {
+            return -1;
+        }
+        if (nextTickHint <= currentTick) {
+            nextTickHint = currentTick + buckets.length;
+            for (long tick = currentTick + 1; tick <= currentTick + buckets.length; tick++) {
+                if (buckets[(int) (tick & mask)] != null) {
+                    nextTickHint = tick;
+                    break;
+                }
+            }
+        }
+        long remaining = startTime + nextTickHint * tickNanos - nowNanos;
+        return remaining <= 0 ? 0 : (remaining + 999_999) / 1_000_000;
+    }
+
+    public int pending() {
+        return pending;
+    }
+
+    private void unlink(TimerNode node) {
+        int index = (int) (node.deadlineTick & mask);
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            buckets[index] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        pending--;
+    }
+}
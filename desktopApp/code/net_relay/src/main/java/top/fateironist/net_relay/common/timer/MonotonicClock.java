@@ -0,0 +1,15 @@
+package top.fateironist.net_relay.common.timer;
+
+/**
+ * 单调时钟（ms），基于 System.nanoTime，不受系统时间调整影响
+ * 只能用于计算时间差，不能当作日期使用。
+ */
+public final class MonotonicClock {
+
+    private MonotonicClock() {
+    }
+
+    public static long millis() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,29 @@
+package top.fateironist.net_relay.common.timer;
+
+/**
+ * 时间轮中的定时节点
+ * 节点本身即链表元素，可被同一个时间轮反复调度，调度/取消时不产生任何对象分配。
+ * 非线程安全，只能由时间轮所属线程访问。
+ */
+public class TimerNode {
+    static final int IDLE = 0;
+    static final int SCHEDULED = 1;
+    static final int EXPIRING = 2;
+
+    final Runnable task;
+
+    int state = IDLE;
+    long deadlineTick;
+    TimerNode prev;
+    TimerNode next;
+    // 到期后等待执行时使用的链表指针
+    TimerNode nextExpired;
+
+    public TimerNode(Runnable task) {
+        this.task = task;
+    }
+
+    public boolean isScheduled() {
+        return state == SCHEDULED;
+    }
+}
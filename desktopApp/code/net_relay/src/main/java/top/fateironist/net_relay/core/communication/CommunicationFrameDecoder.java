@@ -0,0 +1,127 @@
+package top.fateironist.net_relay.core.communication;
+
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+import top.fateironist.net_relay.model.communication.codec.BinaryCommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.CommunicationCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * 控制通道累积帧解码器
+ * 一次 read 可能包含多条消息，也可能只有半条：每次读取追加到缓冲区尾部，
+ * 逐条取出其中完整的帧，不完整的部分留到下一次读取之后继续拼接。
+ * 缓冲区从 MAX_MSG_SIZE 起按需扩容，单帧上限为 MAX_FRAME_SIZE。
+ */
+public class CommunicationFrameDecoder {
+    public static final int MAX_FRAME_SIZE = BinaryCommunicationCodec.MAX_FRAME_SIZE;
+    // 标记一条格式不合法、已被跳过的帧
+    public static final CommunicationMsg INVALID = new CommunicationMsg();
+
+    private CommunicationCodec codec;
+
+    private byte[] buffer;
+    // 包装buffer供通道读取，buffer扩容时重新包装，每次读取只调整position/limit
+    private ByteBuffer channelView;
+    // 未解码数据位于 [readIndex, writeIndex)
+    private int readIndex;
+    private int writeIndex;
+
+    public CommunicationFrameDecoder(CommunicationCodec codec) {
+        this.codec = codec;
+        this.buffer = new byte[CommunicationProtocol.MAX_MSG_SIZE];
+        this.channelView = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * 切换编解码器，已缓冲但未解码的数据按新的编解码器解析
+     */
+    public void setCodec(CommunicationCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 从输入流读取一次并追加到缓冲区，返回读取的字节数，流结束时返回-1
+     */
+    public int readFrom(InputStream in) throws IOException {
+        ensureWritable();
+        int length = in.read(buffer, writeIndex, buffer.length - writeIndex);
+        if (length > 0) {
+            writeIndex += length;
+        }
+        return length;
+    }
+
+    /**
+     * 取出下一条完整的消息，数据不足一帧时返回null；帧格式不合法时跳过该帧并返回 {@link #INVALID}
+     */
+    public CommunicationMsg next() {
+        int readable = writeIndex - readIndex;
+        if (readable == 0) {
+            return null;
+        }
+        int frameLength = codec.frameLength(buffer, readIndex, readable);
+        if (frameLength < 0) {
+            return null;
+        }
+        CommunicationMsg msg = codec.decode(buffer, readIndex, frameLength);
+        readIndex += frameLength;
+        if (readIndex == writeIndex) {
+            readIndex = writeIndex = 0;
+        }
+        return msg == null ? INVALID : msg;
+    }
+
+    /**
+     * 从非阻塞通道读取一次并追加到缓冲区，返回读取的字节数（无数据时为0），流结束时返回-1
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        ensureWritable();
+        channelView.limit(buffer.length).position(writeIndex);
+        int length = channel.read(channelView);
+        if (length > 0) {
+            writeIndex += length;
+        }
+        return length;
+    }
+
+    /**
+     * 阻塞读取直到得到一条完整的消息，用于注册阶段的请求/应答
+     */
+    public CommunicationMsg readFrame(InputStream in) throws IOException {
+        CommunicationMsg msg;
+        while ((msg = next()) == null) {
+            if (readFrom(in) < 0) {
+                throw new EOFException("Communication channel closed");
+            }
+        }
+        return msg == INVALID ? null : msg;
+    }
+
+    public String readableAsString() {
+        return new String(buffer, readIndex, writeIndex - readIndex, CommunicationProtocol.CHARSET);
+    }
+
+    // 先把未解码数据移到缓冲区头部，仍然放不下时扩容
+    private void ensureWritable() throws IOException {
+        if (writeIndex < buffer.length) {
+            return;
+        }
+        if (readIndex > 0) {
+            System.arraycopy(buffer, readIndex, buffer, 0, writeIndex - readIndex);
+            writeIndex -= readIndex;
+            readIndex = 0;
+            return;
+        }
+        if (buffer.length >= MAX_FRAME_SIZE) {
+            throw new IOException("Communication frame exceeds " + MAX_FRAME_SIZE + " bytes");
+        }
+        buffer = Arrays.copyOf(buffer, Math.min(buffer.length << 1, MAX_FRAME_SIZE));
+        channelView = ByteBuffer.wrap(buffer);
+    }
+}
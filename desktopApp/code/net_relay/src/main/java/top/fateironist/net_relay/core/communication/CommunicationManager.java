@@ -6,28 +6,45 @@ import javafx.scene.control.DialogPane;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import top.fateironist.net_relay.common.TaskScheduler;
+import top.fateironist.net_relay.core.metrics.CommunicationWriteMetrics;
 import top.fateironist.net_relay.core.relay.RelayManager;
 import top.fateironist.net_relay.model.common.enums.WorkingStatusEnum;
 import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
 import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
 import top.fateironist.net_relay.model.communication.CommunicationMsg;
 import top.fateironist.net_relay.model.communication.CommunicationProtocol;
 import top.fateironist.net_relay.model.communication.CommunicationTask;
+import top.fateironist.net_relay.model.communication.codec.CommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.TextCommunicationCodec;
 import top.fateironist.net_relay.model.communication.exception.CommunicationChannelRegisterFailedException;
 import top.fateironist.net_relay.model.communication.exception.ProxyRegisterFailedException;
 import top.fateironist.net_relay.model.relay.RelayTask;
 import top.fateironist.net_relay.model.relay.TcpRelayChannelPairAttachment;
 import top.fateironist.net_relay.model.relay.UdpRelayChannelAttachment;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
 import top.fateironist.net_relay.model.relay.enums.RelayTaskType;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -39,8 +56,13 @@ public class CommunicationManager{
     private String agentId;
     private WorkingStatusEnum workingStatus;
 
-    private final LinkedBlockingQueue<CommunicationTask> taskQueue;
-    private Socket communicationSocket;
+    private final ConcurrentLinkedQueue<CommunicationTask> taskQueue;
+    private final AtomicInteger pendingCount;
+    private final AtomicBoolean wakeupPending;
+    private SocketChannel communicationChannel;
+    private Selector selector;
+    private SelectionKey selectionKey;
+    private Thread eventLoopThread;
 
     @Getter
     private final Map<Integer, Integer> tcpProxy;
@@ -57,14 +79,46 @@ public class CommunicationManager{
 
     private final AgentProperties agentProperties;
 
+    private final CommunicationProperties communicationProperties;
+
+    // 注册时协商得到的编解码器，注册应答之前固定为 F-RELAY/1
+    @Getter
+    private volatile CommunicationCodec codec;
+
+    // 注册时服务端接受的中转压缩方式，未接受的方式不会在008中声明
+    @Getter
+    private volatile Set<RelayCompressionEnum> acceptedCompressions = EnumSet.noneOf(RelayCompressionEnum.class);
+
+    private final CommunicationFrameDecoder frameDecoder;
+
+    // 事件循环线程独占，合并一批消息后一次写出
+    private ByteBuffer writeBuffer;
+    private long lingerDeadline;
+    // 上一批尚未写完，等待OP_WRITE
+    private boolean writing;
+    private boolean shutdownPending;
+    @Getter
+    private final CommunicationWriteMetrics writeMetrics;
+
     private final RelayManager relayManager;
 
     public CommunicationManager(ProxyServerProperties proxyServerProperties, AgentProperties agentProperties, RelayManager relayManager) {
+        this(proxyServerProperties, agentProperties, new CommunicationProperties(), relayManager);
+    }
+
+    public CommunicationManager(ProxyServerProperties proxyServerProperties, AgentProperties agentProperties, CommunicationProperties communicationProperties, RelayManager relayManager) {
         this.proxyServerProperties = proxyServerProperties;
         this.agentProperties = agentProperties;
+        this.communicationProperties = communicationProperties;
         this.relayManager = relayManager;
-
-        this.taskQueue = new LinkedBlockingQueue<>();
+        this.codec = TextCommunicationCodec.INSTANCE;
+        this.frameDecoder = new CommunicationFrameDecoder(codec);
+        this.writeBuffer = ByteBuffer.allocateDirect(CommunicationProtocol.MAX_MSG_SIZE * Math.max(1, communicationProperties.getWriteMaxBatchSize()));
+        this.writeMetrics = relayManager.getMetricsRegistry().getCommunicationWriteMetrics();
+
+        this.taskQueue = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+        this.wakeupPending = new AtomicBoolean();
         this.tcpProxy = new HashMap<>();
         this.udpProxy = new HashMap<>();
 
@@ -86,24 +140,32 @@ public class CommunicationManager{
         }
 
         try {
-            // 创建通信Socket并发送注册消息
-            Socket socket = new Socket();
-            communicationSocket = socket;
+            // 创建通信通道并发送注册消息，注册阶段为阻塞模式
+            communicationChannel = SocketChannel.open();
+            Socket socket = communicationChannel.socket();
+            socket.setTcpNoDelay(true);
             socket.connect(new InetSocketAddress(proxyServerProperties.getHost(), proxyServerProperties.getPort()));
+            // 在注册消息中携带支持的最高协议版本与可用的压缩方式，由服务端在应答中选定
+            Set<RelayCompressionEnum> offeredCompressions = EnumSet.noneOf(RelayCompressionEnum.class);
+            offeredCompressions.addAll(relayManager.getRelayProperties().getTcpCompression().values());
+            String[] registerRequestArgs = null;
+            if (!offeredCompressions.isEmpty()) {
+                registerRequestArgs = new String[]{String.valueOf(communicationProperties.getProtocolVersion()), RelayCompressionEnum.joinCodes(offeredCompressions)};
+            } else if (communicationProperties.getProtocolVersion() > TextCommunicationCodec.VERSION) {
+                registerRequestArgs = new String[]{String.valueOf(communicationProperties.getProtocolVersion())};
+            }
             CommunicationMsg registerCommunicationChannelMsg = new CommunicationMsg();
             registerCommunicationChannelMsg.setRequest(
-                    new CommunicationMsg.Method(CommunicationProtocol.BODY_REGISTER_COMMUNICATION_CHANNEL_MSG, null)
+                    new CommunicationMsg.Method(CommunicationProtocol.BODY_REGISTER_COMMUNICATION_CHANNEL_MSG, registerRequestArgs)
             );
 
-            socket.getOutputStream().write(registerCommunicationChannelMsg.buildBytesRequestMessage());
+            socket.getOutputStream().write(codec.encode(registerCommunicationChannelMsg));
             socket.getOutputStream().flush();
 
-            byte[] bytes = new byte[CommunicationProtocol.MAX_MSG_SIZE];
-            int len = socket.getInputStream().read(bytes);
-            if (len <= 0) {
+            CommunicationMsg registerCommunicationChannelResponseMsg = readFrame(socket);
+            if (registerCommunicationChannelResponseMsg == null) {
                 throw new CommunicationChannelRegisterFailedException("Communication channel register failed with connection closed");
             }
-            CommunicationMsg registerCommunicationChannelResponseMsg = CommunicationMsg.parse(Arrays.copyOfRange(bytes, 0, len));
 
             if (registerCommunicationChannelResponseMsg.getOrder().getArgs()[0].equals("0")) {
                 throw new CommunicationChannelRegisterFailedException("Communication channel register failed with response 0");
@@ -111,8 +173,24 @@ public class CommunicationManager{
 
             this.agentId = registerCommunicationChannelResponseMsg.getOrder().getArgs()[1];
 
+            String[] registerArgs = registerCommunicationChannelResponseMsg.getOrder().getArgs();
+            if (registerArgs.length > 2) {
+                int version = Math.min(Integer.parseInt(registerArgs[2]), communicationProperties.getProtocolVersion());
+                this.codec = CommunicationCodec.of(version);
+                frameDecoder.setCodec(codec);
+            }
+            // 不认识压缩参数的服务端不会应答第四个参数，此时所有中转都不压缩
+            if (registerArgs.length > 3) {
+                Set<RelayCompressionEnum> accepted = RelayCompressionEnum.parseCodes(registerArgs[3]);
+                accepted.retainAll(offeredCompressions);
+                this.acceptedCompressions = accepted;
+            }
+            if (!acceptedCompressions.containsAll(offeredCompressions)) {
+                log.warn("CommunicationManager relay compression not accepted by server(offered:{}, accepted:{}); relay without compression", offeredCompressions, acceptedCompressions);
+            }
+
             if (log.isDebugEnabled()) {
-                log.debug("CommunicationManager register Communication channel success");
+                log.debug("CommunicationManager register Communication channel success; protocol:F-RELAY/{}, compression:{}", codec.version(), acceptedCompressions);
             }
 
             // 注册tcp代理
@@ -123,13 +201,12 @@ public class CommunicationManager{
                         new CommunicationMsg.Method(CommunicationProtocol.BODY_REGISTER_TCP_PROXY_MSG, agentProperties.getProxied().getTcp())
                 );
 
-                socket.getOutputStream().write(registerTcpProxyMsg.buildBytesRequestMessage());
+                socket.getOutputStream().write(codec.encode(registerTcpProxyMsg));
 
-                len = socket.getInputStream().read(bytes);
-                if (len <= 0) {
+                CommunicationMsg registerTcpChannelResponseMsg = readFrame(socket);
+                if (registerTcpChannelResponseMsg == null) {
                     throw new ProxyRegisterFailedException("Proxy register failed with connection closed");
                 }
-                CommunicationMsg registerTcpChannelResponseMsg = CommunicationMsg.parse(Arrays.copyOfRange(bytes, 0, len));
 
                 for (int i = 0; i < registerTcpChannelResponseMsg.getOrder().getArgs().length; i++) {
                     if (registerTcpChannelResponseMsg.getOrder().getArgs()[i].equals("0")) {
@@ -152,13 +229,12 @@ public class CommunicationManager{
                         new CommunicationMsg.Method(CommunicationProtocol.BODY_REGISTER_UDP_PROXY_MSG, agentProperties.getProxied().getUdp())
                 );
 
-                socket.getOutputStream().write(registerUdpProxyMsg.buildBytesRequestMessage());
+                socket.getOutputStream().write(codec.encode(registerUdpProxyMsg));
 
-                len = socket.getInputStream().read(bytes);
-                if (len <= 0) {
+                CommunicationMsg registerUdpChannelResponseMsg = readFrame(socket);
+                if (registerUdpChannelResponseMsg == null) {
                     throw new ProxyRegisterFailedException("Proxy register failed with connection closed");
                 }
-                CommunicationMsg registerUdpChannelResponseMsg = CommunicationMsg.parse(Arrays.copyOfRange(bytes, 0, len));
 
                 for (int i = 0; i < registerUdpChannelResponseMsg.getOrder().getArgs().length; i++) {
                     if (registerUdpChannelResponseMsg.getOrder().getArgs()[i].equals("0")) {
@@ -177,122 +253,243 @@ public class CommunicationManager{
             throw e;
         }
 
-        // 通信读线程
-        new Thread(() -> {
-            int length = 0;
-            byte[] buffer = new byte[CommunicationProtocol.MAX_MSG_SIZE];
-            while (isRunning()) {
-                try {
-                    length = communicationSocket.getInputStream().read(buffer);
-
-                    if (log.isDebugEnabled()) {
-                        log.debug("Communication channel read length:{}", length);
-                    }
-                    if (log.isTraceEnabled()) {
-                        log.trace("Communication channel read:{}", new String(buffer, 0, length));
-                    }
+        // 注册完成后切换为非阻塞模式，由通信事件循环单线程负责读写
+        try {
+            communicationChannel.configureBlocking(false);
+            selector = Selector.open();
+            selectionKey = communicationChannel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            log.error("Communication channel register failed; exception:{}", e.getMessage());
+            throw e;
+        }
+        eventLoopThread = new Thread(this::runEventLoop, "CommunicationManager");
+        eventLoopThread.start();
 
-                } catch (IOException e) {
-                    logError("Communication channel read error; exception:{}", e.getMessage());
-                    broken(e.getMessage());
-                    break;
-                }
+        log.info("Communication channel started; AgentId: {}, Protocol: F-RELAY/{}", agentId, codec.version());
+        log.info("+-----------------------------------------------------+");
+        log.info(String.format("|%-10s|%-10s|%-20s|%-10s|", "Protocol", "LocalPort", "RemoteAddress", "RemotePort"));
+        log.info("+----------+----------+--------------------+----------+");
+        for (Map.Entry entry : tcpProxy.entrySet()) {
+            log.info(String.format("|%-10s|%-10s|%-20s|%-10s|", "TCP", entry.getKey(), proxyServerProperties.getHost(), entry.getValue()));
+        }
+        for (Map.Entry entry : udpProxy.entrySet()) {
+            log.info(String.format("|%-10s|%-10s|%-20s|%-10s|", "UDP", entry.getKey(), proxyServerProperties.getHost(), entry.getValue()));
+        }
+        log.info("+-----------------------------------------------------+");
 
-                if (length < 0) {
-                    logError("Communication channel closed!");
-                    broken("Communication channel closed!");
-                    break;
-                }
+        // 定时发送ping消息
+        TaskScheduler.scheduleWithFixedRate(() -> {
+            CommunicationMsg pingMsg = new CommunicationMsg();
+            pingMsg.setAgentId(agentId);
+            pingMsg.setRequest(new CommunicationMsg.Method(CommunicationProtocol.BODY_REGISTER_PING_MSG, null));
+            sendMessage(pingMsg);
+        }, 0, 1, TimeUnit.MINUTES);
 
-                if (CommunicationMsg.findMsgEnd(buffer) < 0) {
-                    log.warn("Receive invalid msg from server");
-                    continue;
-                }
+        this.workingStatus = WorkingStatusEnum.WORKING;
+    }
 
-                CommunicationMsg communicationMsg = CommunicationMsg.parse(Arrays.copyOfRange(buffer, 0, length));
+    private RelayTask toRelayTask(CommunicationMsg communicationMsg) {
+        switch (communicationMsg.getOrder().getName()) {
+            case CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_MSG:
+                Integer tcpPort = Integer.parseInt(communicationMsg.getOrder().getArgs()[0]);
+                String tempId = communicationMsg.getOrder().getArgs()[1];
 
-                switch (communicationMsg.getOrder().getName()) {
-                    case CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_MSG:
-                        Integer tcpPort = Integer.parseInt(communicationMsg.getOrder().getArgs()[0]);
-                        String tempId = communicationMsg.getOrder().getArgs()[1];
+                TcpRelayChannelPairAttachment tcpRelayChannelPairAttachment = new TcpRelayChannelPairAttachment(agentId, tempId, tcpPort, tcpProxy.get(tcpPort));
 
-                        TcpRelayChannelPairAttachment tcpRelayChannelPairAttachment = new TcpRelayChannelPairAttachment(agentId, tempId, tcpPort, tcpProxy.get(tcpPort));
+                return new RelayTask(RelayTaskType.REGISTER_RELAY_CHANNEL, tcpRelayChannelPairAttachment);
 
-                        RelayTask tcpRelayTask = new RelayTask(RelayTaskType.REGISTER_RELAY_CHANNEL, tcpRelayChannelPairAttachment);
+            case CommunicationProtocol.BODY_REQUIRE_UDP_RELAY_CHANNEL_MSG:
+                Integer proxiedPort = Integer.parseInt(communicationMsg.getOrder().getArgs()[0]);
+                Integer remotePort = Integer.parseInt(communicationMsg.getOrder().getArgs()[1]);
+                String channelId = communicationMsg.getOrder().getArgs()[2];
 
-                        relayManager.submitTask(tcpRelayTask);
-                        break;
+                UdpRelayChannelAttachment udpRelayChannelAttachment = new UdpRelayChannelAttachment(agentId, proxiedPort, udpProxy.get(proxiedPort), proxyServerProperties.getHost(), remotePort, channelId);
 
-                    case CommunicationProtocol.BODY_REQUIRE_UDP_RELAY_CHANNEL_MSG:
-                        Integer proxiedPort = Integer.parseInt(communicationMsg.getOrder().getArgs()[0]);
-                        Integer remotePort = Integer.parseInt(communicationMsg.getOrder().getArgs()[1]);
-                        String channelId = communicationMsg.getOrder().getArgs()[2];
+                return new RelayTask(RelayTaskType.REGISTER_RELAY_CHANNEL, udpRelayChannelAttachment);
+        }
+        return null;
+    }
 
-                        UdpRelayChannelAttachment udpRelayChannelAttachment = new UdpRelayChannelAttachment(agentId, proxiedPort, udpProxy.get(proxiedPort), proxyServerProperties.getHost(), remotePort, channelId);
+    /**
+     * 通信事件循环
+     * 读：帧解码器累积拆分，同一次读取中得到的中转请求合并为一批直接提交给 RelayManager；
+     * 写：sendMessage 入队后唤醒，一次取出至多 writeMaxBatchSize 条消息编码到同一缓冲区写出，写不完时关注 OP_WRITE。
+     */
+    private void runEventLoop() {
+        List<RelayTask> relayTasks = new ArrayList<>();
+        while (workingStatus != WorkingStatusEnum.STOPPED) {
+            try {
+                long timeout = lingerDeadline == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(lingerDeadline - System.nanoTime()));
+                selector.select(timeout);
+                wakeupPending.set(false);
+
+                // 就绪位只在本轮被选中时有效，处理前移出已选集合，避免之后的唤醒沿用旧的就绪位
+                boolean selected = selector.selectedKeys().remove(selectionKey);
+                if (selected && selectionKey.isValid() && selectionKey.isReadable()) {
+                    if (!processReadable(relayTasks)) {
+                        break;
+                    }
+                }
+                // 只有上一批没写完时缓冲区中才有待写数据
+                if (selected && writing && selectionKey.isValid() && selectionKey.isWritable()) {
+                    flushWriteBuffer();
+                }
+                if (!writing) {
+                    processWriteQueue();
+                }
+            } catch (ClosedSelectorException | CancelledKeyException e) {
+                break;
+            } catch (IOException e) {
+                logError("Communication channel error; exception:{}", e.getMessage());
+                if (isRunning()) broken(e.getMessage());
+                break;
+            }
+        }
 
-                        RelayTask udpRelayTask = new RelayTask(RelayTaskType.REGISTER_RELAY_CHANNEL, udpRelayChannelAttachment);
+        closeChannel();
+    }
 
-                        relayManager.submitTask(udpRelayTask);
-                }
+    // 返回false表示连接已关闭或数据无法继续解析
+    private boolean processReadable(List<RelayTask> relayTasks) throws IOException {
+        int length;
+        while ((length = frameDecoder.readFrom(communicationChannel)) > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Communication channel read length:{}", length);
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("Communication channel read:{}", frameDecoder.readableAsString());
             }
-        }).start();
-
-        // 通信写线程
-        new Thread(() -> {
-            while (workingStatus.getCode() <= WorkingStatusEnum.WORKING.getCode()) {
-                try {
-                    CommunicationTask communicationTask = taskQueue.take();
-                    communicationSocket.getOutputStream().write(communicationTask.getCommunicationMsg().buildBytesRequestMessage());
-                    communicationSocket.getOutputStream().flush();
-
-                    if (log.isTraceEnabled()) {
-                        log.trace("Communication channel write:{}", communicationTask.getCommunicationMsg().buildStrRequestMessage());
-                    }
 
-                    if (communicationTask.getCommunicationMsg().getRequest().getName().equals(CommunicationProtocol.BODY_SHUTDOWN_MSG)) {
-                        shutdownLock.lock();
-                        shutdownCondition.signal();
-                        shutdownLock.unlock();
+            try {
+                CommunicationMsg communicationMsg;
+                while ((communicationMsg = frameDecoder.next()) != null) {
+                    if (communicationMsg == CommunicationFrameDecoder.INVALID || communicationMsg.getOrder() == null) {
+                        log.warn("Receive invalid msg from server");
+                        continue;
+                    }
+                    RelayTask relayTask = toRelayTask(communicationMsg);
+                    if (relayTask != null) {
+                        relayTasks.add(relayTask);
                     }
-                } catch (InterruptedException e) {
-                    log.warn("Communication taskQueue take error; exception:{}", e.getMessage());
-                } catch (IOException e) {
-                    logError("Communication channel write error; exception:{}", e.getMessage());
-                    broken(e.getMessage());
-                    break;
                 }
+            } catch (IllegalArgumentException e) {
+                // 帧长度非法，之后的数据无法再对齐
+                logError("Communication channel read error; exception:{}", e.getMessage());
+                if (isRunning()) broken(e.getMessage());
+                return false;
             }
-        }).start();
+        }
 
+        if (!relayTasks.isEmpty()) {
+            relayManager.submitTasks(relayTasks);
+            relayTasks.clear();
+        }
 
-        log.info("Communication channel started; AgentId: {}", agentId);
-        log.info("+-----------------------------------------------------+");
-        log.info(String.format("|%-10s|%-10s|%-20s|%-10s|", "Protocol", "LocalPort", "RemoteAddress", "RemotePort"));
-        log.info("+----------+----------+--------------------+----------+");
-        for (Map.Entry entry : tcpProxy.entrySet()) {
-            log.info(String.format("|%-10s|%-10s|%-20s|%-10s|", "TCP", entry.getKey(), proxyServerProperties.getHost(), entry.getValue()));
+        if (length < 0) {
+            logError("Communication channel closed!");
+            if (isRunning()) broken("Communication channel closed!");
+            return false;
         }
-        for (Map.Entry entry : udpProxy.entrySet()) {
-            log.info(String.format("|%-10s|%-10s|%-20s|%-10s|", "UDP", entry.getKey(), proxyServerProperties.getHost(), entry.getValue()));
+        return true;
+    }
+
+    // 取出待发消息编码写出；设置了 linger 时批未满先等待到截止时间
+    private void processWriteQueue() throws IOException {
+        int maxBatchSize = Math.max(1, communicationProperties.getWriteMaxBatchSize());
+        int pending = pendingCount.get();
+        if (pending == 0) {
+            lingerDeadline = 0;
+            return;
         }
-        log.info("+-----------------------------------------------------+");
+        long lingerNanos = TimeUnit.MICROSECONDS.toNanos(communicationProperties.getWriteLingerMicros());
+        if (lingerNanos > 0 && pending < maxBatchSize && workingStatus == WorkingStatusEnum.WORKING) {
+            if (lingerDeadline == 0) {
+                lingerDeadline = System.nanoTime() + lingerNanos;
+                return;
+            }
+            if (System.nanoTime() - lingerDeadline < 0) {
+                return;
+            }
+        }
+        lingerDeadline = 0;
+
+        writeBuffer.clear();
+        int batchSize = 0;
+        CommunicationTask communicationTask;
+        while (batchSize < maxBatchSize && (communicationTask = taskQueue.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batchSize++;
+            byte[] bytes = codec.encode(communicationTask.getCommunicationMsg());
+            if (writeBuffer.remaining() < bytes.length) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(writeBuffer.capacity() << 1, writeBuffer.position() + bytes.length));
+                writeBuffer.flip();
+                writeBuffer = larger.put(writeBuffer);
+            }
+            writeBuffer.put(bytes);
 
-        // 定时发送ping消息
-        TaskScheduler.scheduleWithFixedRate(() -> {
-            CommunicationMsg pingMsg = new CommunicationMsg();
-            pingMsg.setAgentId(agentId);
-            pingMsg.setRequest(new CommunicationMsg.Method(CommunicationProtocol.BODY_REGISTER_PING_MSG, null));
-            sendMessage(pingMsg);
-        }, 0, 1, TimeUnit.MINUTES);
+            if (log.isTraceEnabled()) {
+                log.trace("Communication channel write:{}", communicationTask.getCommunicationMsg().buildStrRequestMessage());
+            }
+            if (communicationTask.getCommunicationMsg().getRequest().getName().equals(CommunicationProtocol.BODY_SHUTDOWN_MSG)) {
+                shutdownPending = true;
+            }
+        }
+        writeBuffer.flip();
+        writeMetrics.recordBatch(batchSize, writeBuffer.remaining());
+        flushWriteBuffer();
+    }
 
-        this.workingStatus = WorkingStatusEnum.WORKING;
+    private void flushWriteBuffer() throws IOException {
+        communicationChannel.write(writeBuffer);
+        if (writeBuffer.hasRemaining()) {
+            writing = true;
+            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        writing = false;
+        writeBuffer.clear();
+        selectionKey.interestOps(SelectionKey.OP_READ);
+
+        if (shutdownPending) {
+            shutdownPending = false;
+            shutdownLock.lock();
+            shutdownCondition.signal();
+            shutdownLock.unlock();
+        }
+        // 写完一批后队列中可能还有消息
+        if (pendingCount.get() > 0) {
+            selector.wakeup();
+        }
     }
 
-    public void sendMessage(CommunicationMsg msg) {
+    private void closeChannel() {
         try {
-            taskQueue.put(new CommunicationTask(msg));
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            if (communicationChannel != null) {
+                communicationChannel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    // 注册阶段阻塞读取一条完整的应答，连接关闭或格式不合法时返回null
+    private CommunicationMsg readFrame(Socket socket) throws IOException {
+        try {
+            CommunicationMsg msg = frameDecoder.readFrame(socket.getInputStream());
+            return msg == null || msg.getOrder() == null ? null : msg;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    public void sendMessage(CommunicationMsg msg) {
+        taskQueue.offer(new CommunicationTask(msg));
+        pendingCount.incrementAndGet();
+        // 事件循环线程自己发送时不需要唤醒；同一轮select中只唤醒一次
+        if (Thread.currentThread() != eventLoopThread && selector != null && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
         }
     }
 
@@ -310,18 +507,24 @@ public class CommunicationManager{
         CommunicationMsg shutdownMsg = new CommunicationMsg();
         shutdownMsg.setAgentId(agentId);
         shutdownMsg.setRequest(new CommunicationMsg.Method(CommunicationProtocol.BODY_SHUTDOWN_MSG, null));
-        sendMessage(shutdownMsg);
-
+        // 由事件循环线程自身触发（连接已断开）时无法等待自己写出关闭消息
+        boolean inEventLoop = Thread.currentThread() == eventLoopThread;
         try {
             shutdownLock.lock();
-            shutdownCondition.await(1, TimeUnit.SECONDS);
-
-            communicationSocket.close();
+            sendMessage(shutdownMsg);
+            if (!inEventLoop) {
+                shutdownCondition.await(1, TimeUnit.SECONDS);
+            }
         }catch (Exception e) {
         }finally {
             shutdownLock.unlock();
         }
         workingStatus = WorkingStatusEnum.STOPPED;
+        if (selector != null) {
+            selector.wakeup();
+        } else {
+            closeChannel();
+        }
     }
 
     private boolean isRunning() {
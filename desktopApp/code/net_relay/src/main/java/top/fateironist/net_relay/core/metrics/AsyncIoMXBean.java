@@ -0,0 +1,24 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * 阻塞IO任务执行器统计，JMX 对象名：top.fateironist.net_relay:type=AsyncIo
+ */
+public interface AsyncIoMXBean {
+    String getMode();
+
+    long getSubmitted();
+
+    long getCompleted();
+
+    long getOverflow();
+
+    long getTimeouts();
+
+    long getRejected();
+
+    int getActive();
+
+    int getPeakActive();
+
+    int getQueued();
+}
@@ -0,0 +1,59 @@
+package top.fateironist.net_relay.core.metrics;
+
+import top.fateironist.net_relay.common.AsyncIoThreadPool;
+
+/**
+ * 阻塞IO任务执行器统计的 MXBean 适配，读取时直接取 AsyncIoThreadPool 的当前值
+ */
+public class AsyncIoMetrics implements AsyncIoMXBean {
+    private final AsyncIoThreadPool asyncIoThreadPool;
+
+    public AsyncIoMetrics(AsyncIoThreadPool asyncIoThreadPool) {
+        this.asyncIoThreadPool = asyncIoThreadPool;
+    }
+
+    @Override
+    public String getMode() {
+        return asyncIoThreadPool.getMode().name();
+    }
+
+    @Override
+    public long getSubmitted() {
+        return asyncIoThreadPool.getSubmittedCount();
+    }
+
+    @Override
+    public long getCompleted() {
+        return asyncIoThreadPool.getCompletedCount();
+    }
+
+    @Override
+    public long getOverflow() {
+        return asyncIoThreadPool.getOverflowCount();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return asyncIoThreadPool.getTimeoutCount();
+    }
+
+    @Override
+    public long getRejected() {
+        return asyncIoThreadPool.getRejectedCount();
+    }
+
+    @Override
+    public int getActive() {
+        return asyncIoThreadPool.getActiveCount();
+    }
+
+    @Override
+    public int getPeakActive() {
+        return asyncIoThreadPool.getPeakActiveCount();
+    }
+
+    @Override
+    public int getQueued() {
+        return asyncIoThreadPool.getQueuedCount();
+    }
+}
@@ -0,0 +1,21 @@
+package top.fateironist.net_relay.core.metrics;
+
+import top.fateironist.net_relay.common.buffer.BufferPool;
+
+import java.util.List;
+
+/**
+ * 直接内存缓冲池统计，JMX 对象名：top.fateironist.net_relay:type=BufferPool
+ * 缓冲池为进程内全局共享，各尺寸等级的容量/租出/空闲数以块为单位。
+ */
+public interface BufferPoolMXBean {
+    long getLeasedBytes();
+
+    long getReservedBytes();
+
+    long getFreeBytes();
+
+    long getUnpooledAllocations();
+
+    List<BufferPool.SizeClassStats> getSizeClasses();
+}
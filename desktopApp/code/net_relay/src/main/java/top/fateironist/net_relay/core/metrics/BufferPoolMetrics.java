@@ -0,0 +1,36 @@
+package top.fateironist.net_relay.core.metrics;
+
+import top.fateironist.net_relay.common.buffer.BufferPool;
+
+import java.util.List;
+
+/**
+ * 缓冲池统计的 MXBean 适配，读取时直接取 BufferPool 的当前值
+ */
+public class BufferPoolMetrics implements BufferPoolMXBean {
+
+    @Override
+    public long getLeasedBytes() {
+        return BufferPool.getLeasedBytes();
+    }
+
+    @Override
+    public long getReservedBytes() {
+        return BufferPool.getReservedBytes();
+    }
+
+    @Override
+    public long getFreeBytes() {
+        return BufferPool.getReservedBytes() - BufferPool.getLeasedBytes();
+    }
+
+    @Override
+    public long getUnpooledAllocations() {
+        return BufferPool.getUnpooledAllocations();
+    }
+
+    @Override
+    public List<BufferPool.SizeClassStats> getSizeClasses() {
+        return BufferPool.stats();
+    }
+}
@@ -0,0 +1,16 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * 控制通道写出统计，JMX 对象名：top.fateironist.net_relay:type=CommunicationWrite
+ */
+public interface CommunicationWriteMXBean {
+    long getBatches();
+
+    long getMessages();
+
+    long getBytes();
+
+    long getMaxBatchSize();
+
+    double getAverageBatchSize();
+}
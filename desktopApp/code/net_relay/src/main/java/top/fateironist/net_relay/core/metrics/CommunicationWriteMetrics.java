@@ -0,0 +1,49 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 控制通道写出统计：批次数、消息数、字节数与最大批大小
+ */
+public class CommunicationWriteMetrics implements CommunicationWriteMXBean {
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    public void recordBatch(int batchSize, int batchBytes) {
+        batches.increment();
+        messages.add(batchSize);
+        bytes.add(batchBytes);
+        if (batchSize > maxBatchSize.get()) {
+            maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        }
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    @Override
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) messages.sum() / count;
+    }
+}
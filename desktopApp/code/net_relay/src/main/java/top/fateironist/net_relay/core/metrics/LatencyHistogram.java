@@ -0,0 +1,79 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存的对数线性直方图（单位微秒）
+ * 每个2的幂区间再线性划分为16个桶，相对误差不超过1/16；超过 2^41us 的值计入最后一个桶。
+ * 记录只是一次数组原子累加，可在多个事件循环中并发调用；快照复制桶计数，不阻塞记录。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    // 上一次区间快照时的累计计数
+    private long[] lastCounts = new long[BUCKET_COUNT];
+    private long lastSum;
+
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        sum.addAndGet(value);
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * 自创建以来的累计分布
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(copy, sum.get());
+    }
+
+    /**
+     * 自上一次调用以来新增的分布
+     */
+    public synchronized HistogramSnapshot intervalSnapshot() {
+        long[] current = new long[BUCKET_COUNT];
+        long[] delta = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            current[i] = counts.get(i);
+            delta[i] = current[i] - lastCounts[i];
+        }
+        long currentSum = sum.get();
+        HistogramSnapshot snapshot = new HistogramSnapshot(delta, currentSum - lastSum);
+        lastCounts = current;
+        lastSum = currentSum;
+        return snapshot;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // 桶内的最大值，百分位按上界报告
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
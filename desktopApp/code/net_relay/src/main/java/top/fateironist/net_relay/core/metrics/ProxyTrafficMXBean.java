@@ -0,0 +1,47 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.Map;
+
+/**
+ * 单个代理（协议 + 被代理端口）的流量统计，JMX 对象名：
+ * top.fateironist.net_relay:type=ProxyTraffic,protocol=TCP,port=8080
+ * in 为中转服务端 -> 被代理端方向，out 为被代理端 -> 中转服务端方向。
+ * 建立耗时以 RelaySetupPhase 名称为键，单位微秒，为自启动以来的累计分布。
+ */
+public interface ProxyTrafficMXBean {
+    String getProtocol();
+
+    int getProxiedPort();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getReadsIn();
+
+    long getReadsOut();
+
+    long getWritesIn();
+
+    long getWritesOut();
+
+    long getWriteRegistrations();
+
+    long getReadPauses();
+
+    long getFastPathWrites();
+
+    long getDeferredWrites();
+
+    long getActiveSessions();
+
+    long getTotalSessions();
+
+    long getSetupFailures();
+
+    Map<String, Long> getSetupLatencyP50Micros();
+
+    Map<String, Long> getSetupLatencyP99Micros();
+
+    Map<String, Long> getSetupLatencyP999Micros();
+}
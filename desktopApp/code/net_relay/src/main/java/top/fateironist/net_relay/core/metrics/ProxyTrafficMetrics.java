@@ -0,0 +1,218 @@
+package top.fateironist.net_relay.core.metrics;
+
+import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * 单个代理的流量计数，事件循环在热路径上直接累加，不产生分配
+ * 读/写按方向区分：in 为从中转服务端读、向被代理端写；out 为从被代理端读、向中转服务端写。
+ * 建立耗时按阶段记录在固定内存的直方图中。
+ */
+public class ProxyTrafficMetrics implements ProxyTrafficMXBean {
+    private final TransportLayerProtocol protocol;
+    private final int proxiedPort;
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder readsIn = new LongAdder();
+    private final LongAdder readsOut = new LongAdder();
+    private final LongAdder writesIn = new LongAdder();
+    private final LongAdder writesOut = new LongAdder();
+    // 写不完时注册 OP_WRITE 的次数
+    private final LongAdder writeRegistrations = new LongAdder();
+    // 因背压暂停读取的次数
+    private final LongAdder readPauses = new LongAdder();
+    // TCP写出方式：读到数据后直接写出 / 等待写事件后写出
+    private final LongAdder fastPathWrites = new LongAdder();
+    private final LongAdder deferredWrites = new LongAdder();
+    private final LongAdder activeSessions = new LongAdder();
+    private final LongAdder totalSessions = new LongAdder();
+    private final LongAdder setupFailures = new LongAdder();
+    private final LatencyHistogram[] setupLatency = new LatencyHistogram[RelaySetupPhase.values().length];
+
+    public ProxyTrafficMetrics(TransportLayerProtocol protocol, int proxiedPort) {
+        this.protocol = protocol;
+        this.proxiedPort = proxiedPort;
+        for (int i = 0; i < setupLatency.length; i++) {
+            setupLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param in true 表示从中转服务端读到的数据
+     */
+    public void recordRead(boolean in, int bytes) {
+        if (in) {
+            readsIn.increment();
+            bytesIn.add(bytes);
+        } else {
+            readsOut.increment();
+            bytesOut.add(bytes);
+        }
+    }
+
+    /**
+     * @param in true 表示写往被代理端
+     */
+    public void recordWrite(boolean in) {
+        (in ? writesIn : writesOut).increment();
+    }
+
+    /**
+     * @param fastPath true 表示读到数据后直接写出，false 表示由写事件写出
+     */
+    public void recordWritePath(boolean fastPath) {
+        (fastPath ? fastPathWrites : deferredWrites).increment();
+    }
+
+    public void recordWriteRegistration() {
+        writeRegistrations.increment();
+    }
+
+    public void recordReadPause() {
+        readPauses.increment();
+    }
+
+    public void recordSessionOpened() {
+        activeSessions.increment();
+        totalSessions.increment();
+    }
+
+    public void recordSessionClosed() {
+        activeSessions.decrement();
+    }
+
+    public void recordSetupFailure() {
+        setupFailures.increment();
+    }
+
+    public void recordSetupPhase(RelaySetupPhase phase, long nanos) {
+        setupLatency[phase.ordinal()].recordNanos(nanos);
+    }
+
+    public ProxyTrafficSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * @param interval true 时建立耗时只包含上一次区间快照之后的记录，流量计数始终为累计值
+     */
+    public ProxyTrafficSnapshot snapshot(boolean interval) {
+        Map<RelaySetupPhase, HistogramSnapshot> latency = new EnumMap<>(RelaySetupPhase.class);
+        for (RelaySetupPhase phase : RelaySetupPhase.values()) {
+            LatencyHistogram histogram = setupLatency[phase.ordinal()];
+            latency.put(phase, interval ? histogram.intervalSnapshot() : histogram.snapshot());
+        }
+        return new ProxyTrafficSnapshot(protocol, proxiedPort,
+                bytesIn.sum(), bytesOut.sum(), readsIn.sum(), readsOut.sum(), writesIn.sum(), writesOut.sum(),
+                writeRegistrations.sum(), readPauses.sum(), fastPathWrites.sum(), deferredWrites.sum(), activeSessions.sum(), totalSessions.sum(), setupFailures.sum(), latency);
+    }
+
+    // 各阶段的某一百分位（us），以阶段名为键
+    private Map<String, Long> setupLatency(ToLongFunction<HistogramSnapshot> percentile) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (RelaySetupPhase phase : RelaySetupPhase.values()) {
+            result.put(phase.name(), percentile.applyAsLong(setupLatency[phase.ordinal()].snapshot()));
+        }
+        return result;
+    }
+
+    public TransportLayerProtocol getTransportLayerProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol.name();
+    }
+
+    @Override
+    public int getProxiedPort() {
+        return proxiedPort;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getReadsIn() {
+        return readsIn.sum();
+    }
+
+    @Override
+    public long getReadsOut() {
+        return readsOut.sum();
+    }
+
+    @Override
+    public long getWritesIn() {
+        return writesIn.sum();
+    }
+
+    @Override
+    public long getWritesOut() {
+        return writesOut.sum();
+    }
+
+    @Override
+    public long getWriteRegistrations() {
+        return writeRegistrations.sum();
+    }
+
+    @Override
+    public long getFastPathWrites() {
+        return fastPathWrites.sum();
+    }
+
+    @Override
+    public long getDeferredWrites() {
+        return deferredWrites.sum();
+    }
+
+    @Override
+    public long getReadPauses() {
+        return readPauses.sum();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return activeSessions.sum();
+    }
+
+    @Override
+    public long getTotalSessions() {
+        return totalSessions.sum();
+    }
+
+    @Override
+    public long getSetupFailures() {
+        return setupFailures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getSetupLatencyP50Micros() {
+        return setupLatency(HistogramSnapshot::getP50);
+    }
+
+    @Override
+    public Map<String, Long> getSetupLatencyP99Micros() {
+        return setupLatency(HistogramSnapshot::getP99);
+    }
+
+    @Override
+    public Map<String, Long> getSetupLatencyP999Micros() {
+        return setupLatency(HistogramSnapshot::getP999);
+    }
+}
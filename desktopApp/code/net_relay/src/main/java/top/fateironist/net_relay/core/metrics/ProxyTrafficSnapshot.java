@@ -0,0 +1,39 @@
+package top.fateironist.net_relay.core.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
+
+import java.util.Map;
+
+/**
+ * 某一时刻的代理流量统计，各计数分别读取，相互之间不保证严格一致
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ProxyTrafficSnapshot {
+    private final TransportLayerProtocol protocol;
+    private final int proxiedPort;
+
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long readsIn;
+    private final long readsOut;
+    private final long writesIn;
+    private final long writesOut;
+    private final long writeRegistrations;
+    private final long readPauses;
+    private final long fastPathWrites;
+    private final long deferredWrites;
+    private final long activeSessions;
+    private final long totalSessions;
+    private final long setupFailures;
+    // 各阶段建立耗时分布（us）
+    private final Map<RelaySetupPhase, HistogramSnapshot> setupLatency;
+
+    public HistogramSnapshot getSetupLatency(RelaySetupPhase phase) {
+        return setupLatency.get(phase);
+    }
+}
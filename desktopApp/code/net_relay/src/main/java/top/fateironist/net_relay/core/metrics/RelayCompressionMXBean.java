@@ -0,0 +1,28 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * 中转压缩统计，JMX 对象名：top.fateironist.net_relay:type=RelayCompression
+ */
+public interface RelayCompressionMXBean {
+    long getRawBytesOut();
+
+    long getWireBytesOut();
+
+    long getRawBytesIn();
+
+    long getWireBytesIn();
+
+    long getCompressedBlocks();
+
+    long getUncompressedBlocks();
+
+    long getBypassedBlocks();
+
+    double getCompressMillis();
+
+    double getDecompressMillis();
+
+    double getOutboundRatio();
+
+    double getInboundRatio();
+}
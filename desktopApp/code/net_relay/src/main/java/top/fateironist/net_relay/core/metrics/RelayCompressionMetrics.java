@@ -0,0 +1,100 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 中转压缩统计：压缩前后字节数（压缩率）、跳过压缩的块、压缩/解压耗时
+ */
+public class RelayCompressionMetrics implements RelayCompressionMXBean {
+    private final LongAdder rawBytesOut = new LongAdder();
+    private final LongAdder wireBytesOut = new LongAdder();
+    private final LongAdder compressedBlocks = new LongAdder();
+    private final LongAdder uncompressedBlocks = new LongAdder();
+    private final LongAdder bypassedBlocks = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+
+    private final LongAdder rawBytesIn = new LongAdder();
+    private final LongAdder wireBytesIn = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * @param attempted 是否尝试了压缩（未尝试的计为跳过）
+     */
+    public void recordEncode(int rawLength, int wireLength, boolean attempted, long nanos) {
+        rawBytesOut.add(rawLength);
+        wireBytesOut.add(wireLength);
+        if (!attempted) {
+            bypassedBlocks.increment();
+        } else if (wireLength < rawLength) {
+            compressedBlocks.increment();
+        } else {
+            uncompressedBlocks.increment();
+        }
+        compressNanos.add(nanos);
+    }
+
+    public void recordDecode(int wireLength, int rawLength, long nanos) {
+        wireBytesIn.add(wireLength);
+        rawBytesIn.add(rawLength);
+        decompressNanos.add(nanos);
+    }
+
+    @Override
+    public long getRawBytesOut() {
+        return rawBytesOut.sum();
+    }
+
+    @Override
+    public long getWireBytesOut() {
+        return wireBytesOut.sum();
+    }
+
+    @Override
+    public long getRawBytesIn() {
+        return rawBytesIn.sum();
+    }
+
+    @Override
+    public long getWireBytesIn() {
+        return wireBytesIn.sum();
+    }
+
+    @Override
+    public long getCompressedBlocks() {
+        return compressedBlocks.sum();
+    }
+
+    // 尝试压缩但没有收益、原样发送的块
+    @Override
+    public long getUncompressedBlocks() {
+        return uncompressedBlocks.sum();
+    }
+
+    @Override
+    public long getBypassedBlocks() {
+        return bypassedBlocks.sum();
+    }
+
+    @Override
+    public double getCompressMillis() {
+        return compressNanos.sum() / 1_000_000.0;
+    }
+
+    @Override
+    public double getDecompressMillis() {
+        return decompressNanos.sum() / 1_000_000.0;
+    }
+
+    // 发送方向压缩后/压缩前，越小越好
+    @Override
+    public double getOutboundRatio() {
+        long raw = rawBytesOut.sum();
+        return raw == 0 ? 1 : (double) wireBytesOut.sum() / raw;
+    }
+
+    @Override
+    public double getInboundRatio() {
+        long raw = rawBytesIn.sum();
+        return raw == 0 ? 1 : (double) wireBytesIn.sum() / raw;
+    }
+}
@@ -0,0 +1,129 @@
+package top.fateironist.net_relay.core.metrics;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import top.fateironist.net_relay.common.AsyncIoThreadPool;
+import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按协议与被代理端口管理流量统计，并持有中转建立、UDP收发、压缩、控制通道写出、缓冲池、阻塞IO执行器等全局统计
+ * 中转通道建立时取得对应的 ProxyTrafficMetrics 并保存在通道上，之后的累加不再经过注册表；
+ * 首次出现的代理注册为 JMX MBean，全局统计在创建时注册，close 时统一注销。
+ */
+@Slf4j
+public class RelayMetricsRegistry {
+    public static final String JMX_DOMAIN = "top.fateironist.net_relay";
+
+    private final Map<Long, ProxyTrafficMetrics> metrics = new ConcurrentHashMap<>();
+    private final boolean jmxEnabled;
+    // 已注册的 MBean，close 时注销
+    private final List<ObjectName> registeredNames = new CopyOnWriteArrayList<>();
+
+    @Getter
+    private final RelaySetupMetrics relaySetupMetrics = new RelaySetupMetrics();
+    @Getter
+    private final UdpReceiveMetrics udpReceiveMetrics = new UdpReceiveMetrics();
+    @Getter
+    private final UdpSendMetrics udpSendMetrics = new UdpSendMetrics();
+    @Getter
+    private final RelayCompressionMetrics relayCompressionMetrics = new RelayCompressionMetrics();
+    @Getter
+    private final CommunicationWriteMetrics communicationWriteMetrics = new CommunicationWriteMetrics();
+    @Getter
+    private final BufferPoolMetrics bufferPoolMetrics = new BufferPoolMetrics();
+    @Getter
+    private final AsyncIoMetrics asyncIoMetrics;
+
+    public RelayMetricsRegistry(boolean jmxEnabled, AsyncIoThreadPool asyncIoThreadPool) {
+        this.jmxEnabled = jmxEnabled;
+        this.asyncIoMetrics = new AsyncIoMetrics(asyncIoThreadPool);
+        registerMBean(relaySetupMetrics, "RelaySetup");
+        registerMBean(udpReceiveMetrics, "UdpReceive");
+        registerMBean(udpSendMetrics, "UdpSend");
+        registerMBean(relayCompressionMetrics, "RelayCompression");
+        registerMBean(communicationWriteMetrics, "CommunicationWrite");
+        registerMBean(bufferPoolMetrics, "BufferPool");
+        registerMBean(asyncIoMetrics, "AsyncIo");
+    }
+
+    public ProxyTrafficMetrics get(TransportLayerProtocol protocol, int proxiedPort) {
+        long key = ((long) protocol.ordinal() << 32) | (proxiedPort & 0xFFFFFFFFL);
+        ProxyTrafficMetrics proxyMetrics = metrics.get(key);
+        if (proxyMetrics != null) {
+            return proxyMetrics;
+        }
+        return metrics.computeIfAbsent(key, k -> {
+            ProxyTrafficMetrics created = new ProxyTrafficMetrics(protocol, proxiedPort);
+            registerMBean(created, "ProxyTraffic,protocol=" + protocol + ",port=" + proxiedPort);
+            return created;
+        });
+    }
+
+    /**
+     * 所有代理的当前统计，按协议、端口排序
+     */
+    public List<ProxyTrafficSnapshot> snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * 与 snapshot 相同，但建立耗时只包含上一次调用以来的记录，适合定时采集
+     */
+    public List<ProxyTrafficSnapshot> intervalSnapshot() {
+        return snapshot(true);
+    }
+
+    private List<ProxyTrafficSnapshot> snapshot(boolean interval) {
+        List<ProxyTrafficSnapshot> snapshots = new ArrayList<>(metrics.size());
+        for (ProxyTrafficMetrics proxyMetrics : metrics.values()) {
+            snapshots.add(proxyMetrics.snapshot(interval));
+        }
+        snapshots.sort(Comparator.comparing(ProxyTrafficSnapshot::getProtocol).thenComparingInt(ProxyTrafficSnapshot::getProxiedPort));
+        return snapshots;
+    }
+
+    public void close() {
+        if (!jmxEnabled) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredNames) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                log.warn("RelayMetricsRegistry unregister MBean error; exception:{}", e.getMessage());
+            }
+        }
+        registeredNames.clear();
+    }
+
+    // type 为对象名中 type= 之后的部分，可带其他属性
+    private void registerMBean(Object mbean, String type) {
+        if (!jmxEnabled) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + type);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mbean, name);
+                registeredNames.add(name);
+            }
+        } catch (JMException e) {
+            log.warn("RelayMetricsRegistry register MBean error; exception:{}", e.getMessage());
+        }
+    }
+}
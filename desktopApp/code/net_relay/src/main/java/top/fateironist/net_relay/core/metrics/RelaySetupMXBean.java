@@ -0,0 +1,17 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * TCP中转通道建立统计，JMX 对象名：top.fateironist.net_relay:type=RelaySetup
+ * 建立耗时见各代理 ProxyTrafficMXBean 中按阶段的直方图。
+ */
+public interface RelaySetupMXBean {
+    long getAttempts();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    long getTimeouts();
+
+    long getPooledConnections();
+}
@@ -0,0 +1,58 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TCP中转通道建立过程的统计：次数、成功/失败/超时、使用预连接的次数；各阶段耗时由 ProxyTrafficMetrics 的直方图记录
+ */
+public class RelaySetupMetrics implements RelaySetupMXBean {
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder pooledConnections = new LongAdder();
+
+    public void recordAttempt(boolean pooled) {
+        attempts.increment();
+        if (pooled) {
+            pooledConnections.increment();
+        }
+    }
+
+    public void recordSuccess() {
+        successes.increment();
+    }
+
+    public void recordFailure() {
+        failures.increment();
+    }
+
+    public void recordTimeout() {
+        timeouts.increment();
+    }
+
+    @Override
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getPooledConnections() {
+        return pooledConnections.sum();
+    }
+}
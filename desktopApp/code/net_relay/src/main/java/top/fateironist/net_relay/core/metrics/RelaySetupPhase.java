@@ -0,0 +1,21 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * 中转通道建立过程的各阶段
+ */
+public enum RelaySetupPhase {
+    // 收到007/009到事件循环开始处理
+    QUEUE,
+    // 开始处理到连上被代理端
+    LOCAL_CONNECT,
+    // 开始处理到连上中转服务端（预连接池中的连接接近0；多路复用为流打开时刻）
+    SERVER_CONNECT,
+    // UDP打洞：发送011到收到012
+    UDP_PENETRATION,
+    // 连接就绪到注册进Selector并发出008/010
+    REGISTER,
+    // 收到007/009到发出008/010的总耗时
+    TOTAL,
+    // 发出008/010到第一次读到需要转发的数据
+    FIRST_BYTE;
+}
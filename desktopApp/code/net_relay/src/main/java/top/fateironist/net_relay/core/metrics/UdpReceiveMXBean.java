@@ -0,0 +1,18 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * UDP接收统计，JMX 对象名：top.fateironist.net_relay:type=UdpReceive
+ */
+public interface UdpReceiveMXBean {
+    long getWakeups();
+
+    long getPackets();
+
+    long getBytes();
+
+    long getBudgetExhausted();
+
+    long getMaxPacketsPerWakeup();
+
+    double getAveragePacketsPerWakeup();
+}
@@ -0,0 +1,59 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP接收统计：每次读事件唤醒连续收到的数据报数，用于调整接收预算
+ */
+public class UdpReceiveMetrics implements UdpReceiveMXBean {
+    private final LongAdder wakeups = new LongAdder();
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    // 用尽预算仍未读空的次数，频繁出现说明预算偏小
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final AtomicLong maxPacketsPerWakeup = new AtomicLong();
+
+    public void recordWakeup(int packetCount, long packetBytes, boolean exhausted) {
+        wakeups.increment();
+        packets.add(packetCount);
+        bytes.add(packetBytes);
+        if (exhausted) {
+            budgetExhausted.increment();
+        }
+        if (packetCount > maxPacketsPerWakeup.get()) {
+            maxPacketsPerWakeup.accumulateAndGet(packetCount, Math::max);
+        }
+    }
+
+    @Override
+    public long getWakeups() {
+        return wakeups.sum();
+    }
+
+    @Override
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getBudgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    @Override
+    public long getMaxPacketsPerWakeup() {
+        return maxPacketsPerWakeup.get();
+    }
+
+    @Override
+    public double getAveragePacketsPerWakeup() {
+        long count = wakeups.sum();
+        return count == 0 ? 0 : (double) packets.sum() / count;
+    }
+}
@@ -0,0 +1,16 @@
+package top.fateironist.net_relay.core.metrics;
+
+/**
+ * UDP发送队列统计，JMX 对象名：top.fateironist.net_relay:type=UdpSend
+ */
+public interface UdpSendMXBean {
+    long getQueuedToLocal();
+
+    long getQueuedToServer();
+
+    long getDroppedToLocal();
+
+    long getDroppedToServer();
+
+    long getDropped();
+}
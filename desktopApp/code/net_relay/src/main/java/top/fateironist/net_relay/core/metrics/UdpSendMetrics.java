@@ -0,0 +1,45 @@
+package top.fateironist.net_relay.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP发送统计：系统发送缓冲区满时进入队列的数据报数，以及因队列满被客户端丢弃的数据报数（按方向）
+ */
+public class UdpSendMetrics implements UdpSendMXBean {
+    private final LongAdder queuedToLocal = new LongAdder();
+    private final LongAdder queuedToServer = new LongAdder();
+    private final LongAdder droppedToLocal = new LongAdder();
+    private final LongAdder droppedToServer = new LongAdder();
+
+    public void recordQueued(boolean toServer, int dropped) {
+        (toServer ? queuedToServer : queuedToLocal).increment();
+        if (dropped > 0) {
+            (toServer ? droppedToServer : droppedToLocal).add(dropped);
+        }
+    }
+
+    @Override
+    public long getQueuedToLocal() {
+        return queuedToLocal.sum();
+    }
+
+    @Override
+    public long getQueuedToServer() {
+        return queuedToServer.sum();
+    }
+
+    @Override
+    public long getDroppedToLocal() {
+        return droppedToLocal.sum();
+    }
+
+    @Override
+    public long getDroppedToServer() {
+        return droppedToServer.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return droppedToLocal.sum() + droppedToServer.sum();
+    }
+}
@@ -0,0 +1,264 @@
+package top.fateironist.net_relay.core.relay;
+
+import lombok.extern.slf4j.Slf4j;
+import top.fateironist.net_relay.common.AsyncIoThreadPool;
+import top.fateironist.net_relay.common.TaskScheduler;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 中转连接池
+ * 预先与中转服务端建立好TCP连接，收到中转通道请求时直接取用，省去一次握手的RTT。
+ * 后台按最近的请求到达率（EWMA）调整目标空闲连接数并补足，取用永远不会阻塞在connect上：
+ * 池中没有可用连接时返回null，由调用方自行建立连接。
+ */
+@Slf4j
+public class RelayConnectionPool {
+    private static final long MAINTAIN_PERIOD = 1000; // ms
+    private static final double RATE_ALPHA = 0.3;
+    // 存活探测用的缓冲区，取用发生在各事件循环线程上，每个线程复用自己的一个
+    private static final ThreadLocal<ByteBuffer> probeBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1));
+
+    private final InetSocketAddress serverAddress;
+    private final AsyncIoThreadPool asyncIoThreadPool;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long maxIdleTime;
+    private final int connectTimeout;
+
+    // 新建立的连接放在队尾，取用时取最新的，过期回收从队首开始
+    private final ConcurrentLinkedDeque<PooledConnection> idleConnections;
+    private final AtomicInteger idleCount;
+    private final AtomicInteger connectingCount;
+
+    // 统计周期内的请求数，用于计算到达率
+    private final AtomicLong periodAcquireCount;
+    private volatile double arrivalRate; // 次/秒
+    private volatile double connectLatency; // ms
+
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+
+    private volatile boolean running;
+    private ScheduledFuture<?> maintainFuture;
+
+    public RelayConnectionPool(InetSocketAddress serverAddress, RelayProperties relayProperties, AsyncIoThreadPool asyncIoThreadPool) {
+        this.serverAddress = serverAddress;
+        this.asyncIoThreadPool = asyncIoThreadPool;
+        this.minIdle = Math.max(0, relayProperties.getRelayPoolMinIdle());
+        this.maxIdle = Math.max(minIdle, relayProperties.getRelayPoolMaxIdle());
+        this.maxIdleTime = relayProperties.getRelayPoolMaxIdleTime();
+        this.connectTimeout = (int) relayProperties.getRelayConnectTimeout();
+
+        this.idleConnections = new ConcurrentLinkedDeque<>();
+        this.idleCount = new AtomicInteger();
+        this.connectingCount = new AtomicInteger();
+        this.periodAcquireCount = new AtomicLong();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    public boolean isEnabled() {
+        return maxIdle > 0;
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        running = true;
+        refill();
+        maintainFuture = TaskScheduler.scheduleWithFixedRate(this::maintain, MAINTAIN_PERIOD, MAINTAIN_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取出一个已连接的中转连接（非阻塞模式），没有可用连接时返回null
+     */
+    public SocketChannel acquire() {
+        if (!running) {
+            return null;
+        }
+        periodAcquireCount.incrementAndGet();
+
+        PooledConnection connection;
+        SocketChannel channel = null;
+        while ((connection = idleConnections.pollLast()) != null) {
+            idleCount.decrementAndGet();
+            if (isAlive(connection)) {
+                channel = connection.channel;
+                break;
+            }
+            closeQuietly(connection.channel);
+        }
+
+        if (channel != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+
+        // 取用后立即在后台补充，不等待下一个维护周期
+        if (idleCount.get() + connectingCount.get() < targetIdle()) {
+            refill();
+        }
+        return channel;
+    }
+
+    public void shutdown() {
+        running = false;
+        if (maintainFuture != null) {
+            maintainFuture.cancel(false);
+        }
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(connection.channel);
+        }
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    // 按到达率估算需要的空闲连接：覆盖一个维护周期加一次建连耗时内的请求量
+    private int targetIdle() {
+        double window = (MAINTAIN_PERIOD + connectLatency) / 1000.0;
+        long expected = (long) Math.ceil(arrivalRate * window);
+        return (int) Math.min(maxIdle, minIdle + expected);
+    }
+
+    private void maintain() {
+        try {
+            long count = periodAcquireCount.getAndSet(0);
+            double rate = count * 1000.0 / MAINTAIN_PERIOD;
+            arrivalRate = RATE_ALPHA * rate + (1 - RATE_ALPHA) * arrivalRate;
+
+            // 回收过期的空闲连接，避免被服务端或中间设备静默断开
+            long now = System.currentTimeMillis();
+            PooledConnection oldest;
+            while ((oldest = idleConnections.peekFirst()) != null && now - oldest.createTime > maxIdleTime) {
+                if (idleConnections.removeFirstOccurrence(oldest)) {
+                    idleCount.decrementAndGet();
+                    closeQuietly(oldest.channel);
+                }
+            }
+
+            // 多余的空闲连接
+            int target = targetIdle();
+            while (idleCount.get() > target && (oldest = idleConnections.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                closeQuietly(oldest.channel);
+            }
+
+            refill();
+        } catch (Exception e) {
+            log.warn("RelayConnectionPool maintain error; exception:{}", e.getMessage());
+        }
+    }
+
+    private void refill() {
+        if (!running) {
+            return;
+        }
+        int need = targetIdle() - idleCount.get() - connectingCount.get();
+        for (int i = 0; i < need; i++) {
+            connectingCount.incrementAndGet();
+            try {
+                asyncIoThreadPool.execute(this::connectOne);
+            } catch (RejectedExecutionException e) {
+                // 执行器已随 RelayManager 关闭，不再补充
+                connectingCount.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void connectOne() {
+        SocketChannel channel = null;
+        try {
+            long start = System.nanoTime();
+            channel = SocketChannel.open();
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(serverAddress, connectTimeout);
+            channel.configureBlocking(false);
+
+            double latency = (System.nanoTime() - start) / 1_000_000.0;
+            connectLatency = connectLatency == 0 ? latency : RATE_ALPHA * latency + (1 - RATE_ALPHA) * connectLatency;
+
+            if (running) {
+                PooledConnection connection = new PooledConnection(channel, System.currentTimeMillis());
+                idleConnections.offerLast(connection);
+                idleCount.incrementAndGet();
+                channel = null;
+                // 放入期间 shutdown 已清空连接池时不会再有人取出，自行移除并关闭；已被 shutdown 取走的由其关闭
+                if (!running && idleConnections.removeFirstOccurrence(connection)) {
+                    idleCount.decrementAndGet();
+                    closeQuietly(connection.channel);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("RelayConnectionPool connect to {} error; exception:{}", serverAddress, e.getMessage());
+        } finally {
+            connectingCount.decrementAndGet();
+            closeQuietly(channel);
+        }
+    }
+
+    // 服务端在收到中转请求前不会发送数据，读到EOF或数据都说明连接已不可用
+    private boolean isAlive(PooledConnection connection) {
+        if (!connection.channel.isOpen() || !connection.channel.isConnected()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - connection.createTime > maxIdleTime) {
+            return false;
+        }
+        try {
+            ByteBuffer probe = probeBuffer.get();
+            probe.clear();
+            return connection.channel.read(probe) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static class PooledConnection {
+        private final SocketChannel channel;
+        private final long createTime;
+
+        private PooledConnection(SocketChannel channel, long createTime) {
+            this.channel = channel;
+            this.createTime = createTime;
+        }
+    }
+}
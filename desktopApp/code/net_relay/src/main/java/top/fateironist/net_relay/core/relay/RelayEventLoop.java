@@ -0,0 +1,1815 @@
+package top.fateironist.net_relay.core.relay;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import top.fateironist.net_relay.common.AsyncIoThreadPool;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+import top.fateironist.net_relay.common.buffer.DatagramQueue;
+import top.fateironist.net_relay.common.buffer.DatagramRing;
+import top.fateironist.net_relay.common.compression.BlockCompressor;
+import top.fateironist.net_relay.common.timer.HashedTimingWheel;
+import top.fateironist.net_relay.common.timer.MonotonicClock;
+import top.fateironist.net_relay.common.timer.TimerNode;
+import top.fateironist.net_relay.core.communication.CommunicationManager;
+import top.fateironist.net_relay.core.metrics.ProxyTrafficMetrics;
+import top.fateironist.net_relay.core.metrics.RelayMetricsRegistry;
+import top.fateironist.net_relay.core.metrics.RelaySetupPhase;
+import top.fateironist.net_relay.model.common.enums.WorkingStatusEnum;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.codec.CommunicationMsgView;
+import top.fateironist.net_relay.model.communication.codec.CommunicationMsgWriter;
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+import top.fateironist.net_relay.model.relay.*;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+import top.fateironist.net_relay.model.relay.enums.RelayTaskType;
+import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 中转事件循环
+ * 独占一个Selector线程，负责分配到本循环的TCP/UDP中转通道的读写与注册任务
+ */
+@Slf4j
+public class RelayEventLoop {
+    @Getter
+    private final int index;
+    // 只持有所需的协作对象而非 RelayManager，避免在管理器构造完成前引用它
+    private final RelayProperties relayProperties;
+    private final RelayMetricsRegistry metricsRegistry;
+    private final RelayConnectionPool relayConnectionPool;
+    private final AsyncIoThreadPool asyncIoThreadPool;
+    // 控制通道，start 时传入
+    private volatile CommunicationManager communicationManager;
+
+    // 空轮询时在事件循环线程中重建，其他线程只用于wakeup
+    private volatile Selector selector;
+    private volatile boolean selectorRebuildRequested;
+    private final Consumer<SelectionKey> keyHandler = this::processSelectedKey;
+    private final ConcurrentLinkedQueue<RelayTask> taskQueue;
+
+    // 注册表
+    private final Map<String, RelayChannelAttachment> relayChannelAttachments;
+
+    private WorkingStatusEnum workingStatus;
+
+    // MTU聚合等待定时器，1ms一格
+    private static final long FLUSH_TIMER_TICK = 1; // ms
+    private static final int FLUSH_TIMER_WHEEL_SIZE = 64;
+    private final HashedTimingWheel flushTimer;
+
+    // 空闲过期定时器，100ms一格，一圈约51s；只有到期的通道才会被检查
+    private static final long EXPIRY_TIMER_TICK = 100; // ms
+    private static final int EXPIRY_TIMER_WHEEL_SIZE = 512;
+    private final HashedTimingWheel expiryTimer;
+
+    // 空轮询检测：连续THRESHOLD次没有就绪key、没有待处理任务却提前返回的select视为epoll空轮询
+    private static final int THRESHOLD = 512;
+    // 提前返回的判定余量，不足该时长的select超时不参与判定
+    private static final long EARLY_RETURN_SLACK = 1; // ms
+    private int emptyPollCount = 0;
+
+
+    private final ProxyServerProperties proxyServerProperties;
+
+    // 多路复用模式下本循环的中转连接，断开后在下一个TCP中转请求到来时重建
+    private MuxRelayConnectionAttachment muxConnection;
+
+    // 本循环所有UDP通道共用的接收环，首次收到数据报时创建
+    private DatagramRing udpReceiveRing;
+
+    // 中转压缩的编解码器与临时数组，本循环所有TCP中转通道共用
+    private final BlockCompressor blockCompressor = new BlockCompressor();
+
+    public RelayEventLoop(int index, ProxyServerProperties proxyServerProperties, RelayProperties relayProperties,
+                          RelayMetricsRegistry metricsRegistry, RelayConnectionPool relayConnectionPool, AsyncIoThreadPool asyncIoThreadPool) {
+        this.index = index;
+        this.proxyServerProperties = proxyServerProperties;
+        this.relayProperties = relayProperties;
+        this.metricsRegistry = metricsRegistry;
+        this.relayConnectionPool = relayConnectionPool;
+        this.asyncIoThreadPool = asyncIoThreadPool;
+
+        this.taskQueue = new ConcurrentLinkedQueue<>();
+        this.workingStatus = WorkingStatusEnum.STARTING;
+        this.relayChannelAttachments = new HashMap<>();
+        this.flushTimer = new HashedTimingWheel(FLUSH_TIMER_TICK, FLUSH_TIMER_WHEEL_SIZE);
+        this.expiryTimer = new HashedTimingWheel(EXPIRY_TIMER_TICK, EXPIRY_TIMER_WHEEL_SIZE);
+    }
+
+    public void start(CommunicationManager communicationManager) {
+        this.communicationManager = communicationManager;
+        try {
+            workingStatus = WorkingStatusEnum.STARTING;
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            log.error("RelayEventLoop-{} init error; exception:{}", index, e.getMessage());
+            throw new RuntimeException(e);
+        }
+
+        // select多路复用逻辑
+        Thread taskThread = new Thread(() -> {
+            BufferPool.bindThreadCache();
+            while(isRunning()) {
+                // 有待执行的定时任务时，select最多等到最近的到期时间
+                long timeout = nextTimeoutMillis(System.nanoTime());
+                long selectStart = System.nanoTime();
+                int selected;
+                try {
+                    // 就绪的key直接回调keyHandler，不经过selectedKeys集合，避免每轮产生迭代器与集合节点
+                    if (timeout < 0) {
+                        selected = selector.select(keyHandler);
+                    } else if (timeout == 0) {
+                        selected = selector.selectNow(keyHandler);
+                    } else {
+                        selected = selector.select(keyHandler, timeout);
+                    }
+                } catch (IOException e) {
+                    logError("RelayEventLoop-{} select error; exception:{}", index, e.getMessage());
+                    selector.selectedKeys().forEach(key -> {
+                        closeChannel(key.channel());
+                    });
+                    break;
+                }
+
+                // 空轮询检测 JDK 8
+                try {
+                    emptyPollDetection(selected, timeout, System.nanoTime() - selectStart);
+                    if (selectorRebuildRequested) {
+                        selectorRebuildRequested = false;
+                        rebuildSelector();
+                    }
+                } catch (IOException e) {
+                    logError("RelayEventLoop-{} emptyPollDetection error; exception:{}", index, e.getMessage());
+                    throw new RuntimeException(e);
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("RelayEventLoop-{} select; length:{}", index, selected);
+                }
+
+                RelayTask relayTask = null;
+                while((relayTask = taskQueue.poll()) != null) {
+                    processTask(relayTask);
+                }
+
+                long now = System.nanoTime();
+                flushTimer.expire(now);
+                expiryTimer.expire(now);
+            }
+            closeAll();
+            BufferPool.unbindThreadCache();
+        });
+
+        taskThread.setUncaughtExceptionHandler((t, e) -> {
+            if (e instanceof ClosedSelectorException) {
+                if (workingStatus.getCode() <= WorkingStatusEnum.WORKING.getCode()) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                throw new RuntimeException(e);
+            }
+        });
+
+        taskThread.setDaemon(true);
+        taskThread.setName("RelayManager-" + index);
+        taskThread.start();
+
+        workingStatus = WorkingStatusEnum.WORKING;
+    }
+
+    // 处理一个就绪的key，由select直接回调
+    private void processSelectedKey(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                processConnectable(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                processReadable(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                try {
+                    processWritable(key);
+                } catch (Throwable e) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        } catch (Exception e) {
+            logError("RelayEventLoop-{} process selected key error; exception:{}", index, e.getMessage());
+            if (log.isDebugEnabled()) {
+                log.debug("RelayEventLoop-{} process selected key error", index, e);
+            }
+        }
+    }
+
+    // 处理读事件
+    private void processReadable (SelectionKey key) {
+        Channel channel = key.channel();
+
+        if (key.attachment() instanceof MuxRelayConnectionAttachment) {
+            processMuxReadable((MuxRelayConnectionAttachment) key.attachment());
+        } else if (channel instanceof SocketChannel) {
+            TcpRelayChannelPairAttachmentWrapper wrapper = (TcpRelayChannelPairAttachmentWrapper) key.attachment();
+            TcpRelayChannelPairAttachment attachment = wrapper.getAttachment();
+
+            // 关闭逻辑
+            if (attachment.isClosed() || !key.isValid()) {
+                if (!closeRelayChannel(attachment.getTempId())) attachment.close();
+                return;
+            }
+
+            if (attachment.isMuxStream()) {
+                processMuxStreamReadable(key, attachment);
+                return;
+            }
+
+            if (wrapper.isIn() && attachment.getCompression() != null) {
+                processCompressedRelayReadable(attachment);
+                return;
+            }
+
+            ByteBuffer buffer = null;
+            if (wrapper.isIn()) {
+                buffer = attachment.getInBuffer();
+            } else {
+                buffer = attachment.getOutBuffer();
+            }
+
+            boolean isInitial = buffer.position() == 0;
+
+            int len = 0;
+            try {
+                len = ((SocketChannel) channel).read(buffer);
+
+                if (log.isDebugEnabled()) {
+                    log.debug("TcpRelayChannel(proxiedPort:{}) read length:{}", attachment.getProxiedPort(), len);
+                }
+
+                if (log.isTraceEnabled() && len > 0) {
+                    log.trace("TcpRelayChannel(proxiedPort:{}) read: \n{}", attachment.getProxiedPort(), traceContent(buffer, 0, buffer.position()));
+                }
+
+            } catch (IOException e) {
+                if (!attachment.isClosed()) log.warn("TcpRelayChannel(agentId:{}, localPort:{}) read error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+                // 关闭逻辑
+                if (!closeRelayChannel(attachment.getTempId())) attachment.close();
+                return;
+            }
+
+            if (len == -1) {
+                // 关闭逻辑
+                if (!closeRelayChannel(attachment.getTempId())) attachment.close();
+            }else if(len == 0) {
+                // 判断是否要继续写
+//                if (wrapper.isIn()) {
+//                    attachment.setInBufferWriteContinue(true);
+//                } else {
+//                    attachment.setOutBufferWriteContinue(true);
+//                }
+            } else if (len > 0) {
+//                if (wrapper.isIn()) {
+//                    attachment.setInBufferWriteContinue(false);
+//                } else {
+//                    attachment.setOutBufferWriteContinue(false);
+//                }
+
+                attachment.refresh();
+                recordRead(attachment, wrapper.isIn(), len);
+
+                // 一次读满说明是批量传输，下一轮换用更大的缓冲区
+                if (!buffer.hasRemaining()) {
+                    if (wrapper.isIn()) {
+                        attachment.getInBufferSizer().recordFull();
+                    } else {
+                        attachment.getOutBufferSizer().recordFull();
+                    }
+                }
+
+                // 直接写往对端，写不完才注册写事件；写往压缩的中转侧需要按块编码，仍由写事件写出
+                if (relayProperties.isTcpWriteThrough() && (wrapper.isIn() || attachment.getCompression() == null)) {
+                    if (writeThrough(attachment, wrapper.isIn())) {
+                        pauseReadIfBacklogged(attachment, wrapper.isIn());
+                    }
+                    return;
+                }
+
+                // 未写出的数据达到高水位时暂停读取，避免对端慢时空转
+                pauseReadIfBacklogged(attachment, wrapper.isIn());
+                try {
+                    if (!buffer.hasRemaining()) {
+                        registerWriteEvent(attachment, wrapper.isIn());
+                    } else if (isInitial) {
+                        // 首次读到不满一个缓冲区的数据，等待MTU聚合后再写
+                        flushTimer.scheduleIfAbsent(wrapper.isIn() ? attachment.getInFlushTimer() : attachment.getOutFlushTimer(), TcpRelayChannelPairAttachment.MTU_AGGREGATION_WAIT_TIME);
+                    }
+                } catch (ClosedChannelException e) {
+                    log.warn("SocketChannel(agentId:{}, localPort:{}) register writing error; exception:{}", attachment.getAgentId(), attachment.getProxyPort(), e.getMessage());
+                    return;
+                }
+            }
+
+        } else if (channel instanceof DatagramChannel) {
+            DatagramChannel datagramChannel = (DatagramChannel) channel;
+            UdpRelayChannelAttachment attachment = (UdpRelayChannelAttachment) key.attachment();
+            if (attachment.shouldClose() || !key.isValid()) {
+                if (!closeRelayChannel(attachment.getChannelId())) closeRelayChannel(attachment);
+                return;
+            }
+
+            // 一次唤醒内持续接收直到读空或用尽预算，收完后统一转发，减少select往返
+            DatagramRing ring = udpReceiveRing();
+            int budget = Math.min(ring.capacity(), relayProperties.getUdpReceiveBudget());
+            int count = 0;
+            long bytes = 0;
+            attachment.refresh();
+            while (count < budget) {
+                ByteBuffer buffer = ring.slot(count);
+                SocketAddress address;
+                try {
+                    address = datagramChannel.receive(buffer);
+                } catch (IOException e) {
+                    if (!attachment.shouldClose()) log.warn("UdpRelayChannel(localPort:{}) read error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+                    break;
+                }
+                if (address == null) {
+                    break;
+                }
+                buffer.flip();
+                bytes += buffer.remaining();
+                ring.setAddress(count++, address);
+            }
+            metricsRegistry.getUdpReceiveMetrics().recordWakeup(count, bytes, count == budget);
+
+            for (int i = 0; i < count; i++) {
+                if (!forwardDatagram(key, datagramChannel, attachment, ring.buffer(i), ring.address(i))) {
+                    return;
+                }
+            }
+        } else {
+        }
+    }
+
+    private DatagramRing udpReceiveRing() {
+        if (udpReceiveRing == null) {
+            udpReceiveRing = new DatagramRing(Math.max(1, relayProperties.getUdpReceiveBudget()), RelayChannelAttachment.DEFAULT_UDP_BUFFER_SIZE);
+        }
+        return udpReceiveRing;
+    }
+
+    // 按来源转发一个数据报：来自中转服务端的发往被代理端，来自被代理端的发往中转服务端；返回false表示通道已关闭
+    private boolean forwardDatagram(SelectionKey key, DatagramChannel datagramChannel, UdpRelayChannelAttachment attachment, ByteBuffer buffer, SocketAddress address) {
+        if (log.isDebugEnabled()) {
+            log.debug("UdpRelayChannel(proxiedPort:{},ip:{}) read length:{}", attachment.getProxiedPort(), address.toString(), buffer.remaining());
+        }
+
+        if (log.isTraceEnabled() && buffer.remaining() > 0) {
+            log.trace("UdpRelayChannel(proxiedPort:{},ip:{}) read: \ncontent:{}", attachment.getProxiedPort(), address.toString(), traceContent(buffer, buffer.position(), buffer.remaining()));
+        }
+
+        // 由于Udp设计本身就是即写即发，这里直接发送
+        if (attachment.isFromRemote(address)) {
+            recordRead(attachment, true, buffer.remaining());
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("UdpRelayChannel(proxiedPort:{}) write length:{}", attachment.getProxiedPort(), buffer.remaining());
+                }
+
+                if (log.isTraceEnabled()) {
+                    log.trace("UdpRelayChannel(proxiedPort:{},ip:{}) write: \ncontent:{}", attachment.getProxiedPort(), attachment.getLocalAddress(), traceContent(buffer, buffer.position(), buffer.remaining()));
+                }
+
+                attachment.refresh();
+                // 已有排队的数据报时直接入队，保持顺序
+                if (attachment.getInQueue() != null && !attachment.getInQueue().isEmpty()
+                        || datagramChannel.send(buffer, attachment.getLocalAddress()) == 0) {
+                    queueDatagram(key, attachment, buffer, false);
+                } else {
+                    recordWrite(attachment, true);
+                }
+            } catch (IOException e) {
+                queueDatagram(key, attachment, buffer, false);
+            } catch (Exception e) {
+                if (!attachment.shouldClose()) log.warn("UdpRelayChannel(proxiedPort:{},ip:{}) write error; exception:{}", attachment.getProxiedPort(), "/127.0.0.1:" + attachment.getLocalPort(), e.getMessage());
+                attachment.close();
+                return false;
+            }
+        } else if (attachment.isFromLocal(address)) {
+            recordRead(attachment, false, buffer.remaining());
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("UdpRelayChannel(proxiedPort:{}) write length:{}", attachment.getProxiedPort(), buffer.remaining());
+                }
+
+                if (log.isTraceEnabled()) {
+                    log.trace("UdpRelayChannel(proxiedPort:{},ip:{}) write: \ncontent:{}", attachment.getProxiedPort(), attachment.getRemoteAddress(), traceContent(buffer, buffer.position(), buffer.remaining()));
+                }
+
+                attachment.refresh();
+                if (attachment.getOutQueue() != null && !attachment.getOutQueue().isEmpty()
+                        || datagramChannel.send(buffer, attachment.getRemoteAddress()) == 0) {
+                    queueDatagram(key, attachment, buffer, true);
+                } else {
+                    recordWrite(attachment, false);
+                }
+            } catch (IOException e) {
+                queueDatagram(key, attachment, buffer, true);
+            } catch (Exception e) {
+                if (!attachment.shouldClose()) log.warn("UdpRelayChannel(proxiedPort:{},ip:{}) write error; exception:{}", attachment.getProxiedPort(), new InetSocketAddress(proxyServerProperties.getHost(), attachment.getRemotePort()).toString(), e.getMessage());
+                attachment.close();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // 极端情况下系统缓冲区满，数据报按方向入队并注册写事件
+    private void queueDatagram(SelectionKey key, UdpRelayChannelAttachment attachment, ByteBuffer buffer, boolean toServer) {
+        DatagramQueue queue = toServer
+                ? attachment.getOutQueueOrCreate(relayProperties.getUdpSendQueueMaxPackets(), relayProperties.getUdpSendQueueMaxBytes(), relayProperties.getUdpDropPolicy())
+                : attachment.getInQueueOrCreate(relayProperties.getUdpSendQueueMaxPackets(), relayProperties.getUdpSendQueueMaxBytes(), relayProperties.getUdpDropPolicy());
+        int dropped = queue.offer(buffer);
+        metricsRegistry.getUdpSendMetrics().recordQueued(toServer, dropped);
+        if (dropped > 0 && log.isDebugEnabled()) {
+            log.debug("UdpRelayChannel(proxiedPort:{}) send queue full, dropped:{}, total dropped:{}", attachment.getProxiedPort(), dropped, queue.getDroppedPackets());
+        }
+        if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            recordWriteRegistration(attachment);
+        }
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    // 处理写事件
+    private void processWritable (SelectionKey key) {
+        Channel channel = key.channel();
+
+        if (key.attachment() instanceof MuxRelayConnectionAttachment) {
+            flushMux((MuxRelayConnectionAttachment) key.attachment());
+        } else if (channel instanceof SocketChannel) {
+            TcpRelayChannelPairAttachmentWrapper wrapper = (TcpRelayChannelPairAttachmentWrapper) key.attachment();
+            TcpRelayChannelPairAttachment attachment = wrapper.getAttachment();
+            // 关闭逻辑
+            if (attachment.isClosed() || !key.isValid()) {
+                if (!closeRelayChannel(attachment.getTempId())) attachment.close();
+                return;
+            }
+
+            if (attachment.isMuxStream()) {
+                processMuxStreamWritable(key, attachment);
+                return;
+            }
+
+            if (wrapper.isIn() && attachment.getCompression() != null) {
+                processCompressedRelayWritable(key, attachment);
+                return;
+            }
+
+            ByteBuffer buffer = null;
+            if (wrapper.isIn()) {
+                buffer = attachment.getOutBuffer();
+                attachment.setOutBufferLastWriteTime(MonotonicClock.millis());
+            } else {
+                buffer = attachment.getInBuffer();
+                attachment.setInBufferLastWriteTime(MonotonicClock.millis());
+            }
+
+            buffer.flip();
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("TcpRelayChannel(proxiedPort:{}) write length:{}", attachment.getProxiedPort(), buffer.remaining());
+                }
+
+                if (log.isTraceEnabled()) {
+                    log.trace("TcpRelayChannel(proxiedPort:{}) write: \n{}", attachment.getProxiedPort(), traceContent(buffer, buffer.position(), buffer.remaining()));
+                }
+
+                ((SocketChannel) channel).write(buffer);
+                recordTcpWrite(attachment, !wrapper.isIn(), false);
+
+            } catch (IOException e) {
+                if (!attachment.isClosed()) {
+                    log.warn("TcpRelayChannel(agentId:{}, localPort:{}) write error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+                }
+                // 关闭逻辑
+                if (!closeRelayChannel(attachment.getTempId())) attachment.close();
+                return;
+            }
+
+            if (!buffer.hasRemaining()) {
+                int flushed = buffer.limit();
+                buffer.clear();
+                // 写空后按最近的流量调整缓冲区大小
+                if (wrapper.isIn()) {
+                    attachment.getOutBufferSizer().recordFlushed(flushed);
+                    attachment.adjustOutBuffer();
+                } else {
+                    attachment.getInBufferSizer().recordFlushed(flushed);
+                    attachment.adjustInBuffer();
+                    // 压缩模式下继续解码已收到的帧，有数据则保持写事件
+                    if (attachment.getCompression() != null) {
+                        if (!decodeRelayFrames(attachment)) {
+                            return;
+                        }
+                        resumeReadIfDrained(attachment, true);
+                        if (attachment.getInBuffer().position() > 0) {
+                            return;
+                        }
+                    }
+                }
+                resumeReadIfDrained(attachment, !wrapper.isIn());
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+//                if (!((wrapper.isIn() && attachment.isOutBufferWriteContinue()) || (!wrapper.isIn() && attachment.isInBufferWriteContinue()))) {
+//                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+//                }
+                return;
+            }
+
+            // 部分写出，保留未写出的数据
+            buffer.compact();
+            resumeReadIfDrained(attachment, !wrapper.isIn());
+        } else if (channel instanceof DatagramChannel) {
+            DatagramChannel datagramChannel = (DatagramChannel) channel;
+            UdpRelayChannelAttachment attachment = (UdpRelayChannelAttachment) key.attachment();
+
+            if (attachment.shouldClose() || !key.isValid()) {
+                if (!closeRelayChannel(attachment.getChannelId())) attachment.close();
+                return;
+            }
+
+            // 两个方向的队列分别按数据报逐个发送，发不出去时保留在队首等待下一次写事件
+            try {
+                if (attachment.getInQueue() != null) {
+                    sendQueuedDatagrams(datagramChannel, attachment, attachment.getInQueue(), attachment.getLocalAddress(), true);
+                }
+                if (attachment.getOutQueue() != null) {
+                    sendQueuedDatagrams(datagramChannel, attachment, attachment.getOutQueue(), attachment.getRemoteAddress(), false);
+                }
+            } catch (IOException e) {
+
+            } catch (Exception e) {
+                if (!attachment.shouldClose()) log.warn("UdpRelayChannel(proxiedPort:{},ip:{}) write error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), "双向", e.getMessage());
+                attachment.close();
+                return;
+            }
+
+            if (!attachment.hasQueuedDatagrams()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+
+        } else {
+            // 关闭逻辑
+        }
+    }
+
+    private void sendQueuedDatagrams(DatagramChannel datagramChannel, UdpRelayChannelAttachment attachment, DatagramQueue queue, SocketAddress target, boolean in) throws IOException {
+        ByteBuffer datagram;
+        while ((datagram = queue.peek()) != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("UdpRelayChannel(proxiedPort:{},ip:{}) write length:{}", attachment.getProxiedPort(), target, datagram.remaining());
+            }
+            attachment.refresh();
+            if (datagramChannel.send(datagram, target) == 0) {
+                return;
+            }
+            recordWrite(attachment, in);
+            queue.remove();
+        }
+    }
+
+    private void processTask(RelayTask relayTask) {
+
+        if (log.isDebugEnabled()) {
+            if (relayTask.getRelayChannelAttachment() != null) {
+                log.debug("RelayEventLoop-{} processTask; taskType:{},protocol:{}", index, relayTask.getTaskType(), relayTask.getRelayChannelAttachment().getProtocol());
+            } else {
+                log.debug("RelayEventLoop-{} processTask; taskType:{},protocol:{}", index, relayTask.getTaskType(), TransportLayerProtocol.TCP);
+            }
+        }
+
+        switch (relayTask.getTaskType()) {
+            case REGISTER_RELAY_CHANNEL:
+                RelayChannelAttachment relayChannelPairAttachment = relayTask.getRelayChannelAttachment();
+                switch (relayChannelPairAttachment.getProtocol()) {
+                    case TCP:
+                        TcpRelayChannelPairAttachment tcpAttachment = (TcpRelayChannelPairAttachment) relayChannelPairAttachment;
+                        if (relayProperties.isMuxEnabled()) {
+                            tcpAttachment.allocateStreamBuffers(
+                                    relayProperties.getMuxStreamWindow(),
+                                    relayProperties.getTcpMinBufferSize(),
+                                    relayProperties.getTcpMaxBufferSize()
+                            );
+                            connectMuxStream(tcpAttachment);
+                            break;
+                        }
+                        tcpAttachment.allocateBuffers(
+                                relayProperties.getTcpMinBufferSize(),
+                                relayProperties.getTcpMaxBufferSize()
+                        );
+                        RelayCompressionEnum compression = relayProperties.getTcpCompression().get(tcpAttachment.getProxiedPort());
+                        // 服务端注册时未接受该压缩方式则按原始数据中转
+                        if (compression != null && communicationManager.getAcceptedCompressions().contains(compression)) {
+                            RelayCompressionState compressionState = new RelayCompressionState(compression);
+                            compressionState.allocateBuffers();
+                            tcpAttachment.setCompression(compressionState);
+                        }
+                        tcpAttachment.setInFlushTimer(new TimerNode(() -> flushOnTimeout(tcpAttachment, true)));
+                        tcpAttachment.setOutFlushTimer(new TimerNode(() -> flushOnTimeout(tcpAttachment, false)));
+                        connectTcpRelayChannel(tcpAttachment);
+                        break;
+                    case UDP:
+                        UdpRelayChannelAttachment udpRelayChannelAttachment = (UdpRelayChannelAttachment) relayChannelPairAttachment;
+                        startSetup(udpRelayChannelAttachment);
+
+                        DatagramChannel datagramChannel = null;
+                        try {
+                            datagramChannel = DatagramChannel.open();
+                            datagramChannel.configureBlocking(true);
+                            // fixme
+//                            datagramChannel.bind(new InetSocketAddress( 9878));
+                            datagramChannel.bind(new InetSocketAddress(0));
+
+                            DatagramChannel penetrationChannel = datagramChannel;
+                            asyncIoThreadPool.executeWithTimeoutIgnoreException(() -> {
+                                // 请求与应答共用一块池化缓冲区，直接编码/就地解码
+                                ByteBuffer buffer = BufferPool.allocate(CommunicationProtocol.MAX_MSG_SIZE);
+                                try {
+                                    CommunicationMsgWriter.putRequest(buffer, udpRelayChannelAttachment.getAgentId(), CommunicationProtocol.BODY_UDP_PENETRATION_MEG);
+                                    buffer.flip();
+                                    long penetrationStart = System.nanoTime();
+                                    penetrationChannel.send(buffer, new InetSocketAddress(proxyServerProperties.getHost(), udpRelayChannelAttachment.getRemotePort()));
+
+                                    buffer.clear();
+                                    penetrationChannel.receive(buffer);
+                                    recordSetupPhase(udpRelayChannelAttachment, RelaySetupPhase.UDP_PENETRATION, penetrationStart);
+                                    buffer.flip();
+                                    CommunicationMsgView resMsg = new CommunicationMsgView().wrap(buffer);
+
+                                    if (resMsg.isOrder() && resMsg.codeEquals(CommunicationProtocol.BODY_UDP_PENETRATION_RESPONSE_MSG)) {
+                                        udpRelayChannelAttachment.setDatagramChannel(penetrationChannel);
+                                        RelayTask task = new RelayTask(RelayTaskType.REGISTER_RELAY_CHANNEL_FORMALLY, udpRelayChannelAttachment);
+                                        this.submitTask(task);
+                                    } else {
+                                        submitTask(new RelayTask(RelayTaskType.CLOSE_RELAY_CHANNEL, udpRelayChannelAttachment));
+                                    }
+                                } catch (Exception e) {
+                                    throw new RuntimeException(e);
+                                } finally {
+                                    BufferPool.release(buffer);
+                                }
+                            }, 1, TimeUnit.MINUTES, (e) -> {
+                                recordSetupFailure(udpRelayChannelAttachment);
+                                submitTask(new RelayTask(RelayTaskType.CLOSE_RELAY_CHANNEL, udpRelayChannelAttachment));
+                                log.warn("DatagramChannel(agentId:{}, localPort:{}) register relay channel error; exception:{}", udpRelayChannelAttachment.getAgentId(), udpRelayChannelAttachment.getProxiedPort(), e.getMessage());
+                            });
+
+                        } catch (IOException | RejectedExecutionException e) {
+                            // 阻塞IO执行器已关闭时打洞任务被拒绝，通道尚未交给中转，需在此关闭
+                            closeChannel(datagramChannel);
+                            recordSetupFailure(udpRelayChannelAttachment);
+                            closeRelayChannel(udpRelayChannelAttachment);
+                            if (!udpRelayChannelAttachment.shouldClose()) log.warn("DatagramChannel(agentId:{}, localPort:{}) register relay channel error; exception:{}", udpRelayChannelAttachment.getAgentId(), udpRelayChannelAttachment.getProxiedPort(), e.getMessage());
+                            return;
+                        }
+                        break;
+                }
+                break;
+            case REGISTER_RELAY_CHANNEL_FORMALLY:
+                RelayChannelAttachment relayChannelAttachment = relayTask.getRelayChannelAttachment();
+                switch (relayChannelAttachment.getProtocol()) {
+                    case TCP:
+                        // TCP中转通道由OP_CONNECT驱动，两端连接完成后在 completeTcpRelayChannel 中正式注册
+                        break;
+                    case UDP:
+                        UdpRelayChannelAttachment udpRelayChannelAttachment = (UdpRelayChannelAttachment) relayChannelAttachment;
+                        long registerStart = System.nanoTime();
+                        try {
+                            DatagramChannel datagramChannel = udpRelayChannelAttachment.getDatagramChannel();
+
+                            datagramChannel.configureBlocking(false);
+                            udpRelayChannelAttachment.setSelectionKey(datagramChannel.register(selector, SelectionKey.OP_READ, udpRelayChannelAttachment));
+
+                            CommunicationMsg communicationMsg = new CommunicationMsg();
+                            communicationMsg.setAgentId(udpRelayChannelAttachment.getAgentId());
+                            communicationMsg.setRequest(new CommunicationMsg.Method(CommunicationProtocol.BODY_REQUIRE_UDP_RELAY_CHANNEL_RESPONSE_MSG, new String[]{udpRelayChannelAttachment.getProxiedPort().toString(), udpRelayChannelAttachment.getChannelId()}));
+
+                            communicationManager.sendMessage(communicationMsg);
+                            relayChannelAttachments.put(udpRelayChannelAttachment.getChannelId(), udpRelayChannelAttachment);
+                            scheduleIdleExpiry(udpRelayChannelAttachment, relayProperties.getUdpIdleTimeout());
+                            openTrafficSession(udpRelayChannelAttachment);
+                            recordEstablished(udpRelayChannelAttachment, registerStart);
+                        } catch (IOException e) {
+                            recordSetupFailure(udpRelayChannelAttachment);
+                            udpRelayChannelAttachment.close();
+                            if (!udpRelayChannelAttachment.isClosed()) log.warn("DatagramChannel(agentId:{}, localPort:{}) register relay channel formally error; exception:{}", udpRelayChannelAttachment.getAgentId(), udpRelayChannelAttachment.getProxiedPort(), e.getMessage());
+                            return;
+                        }
+                        break;
+                }
+                break;
+            case CLOSE_RELAY_CHANNEL:
+                closeRelayChannel(relayTask.getRelayChannelAttachment());
+                break;
+        }
+    }
+
+    // 同时向被代理端和中转服务端发起非阻塞连接，由OP_CONNECT驱动后续流程
+    private void connectTcpRelayChannel(TcpRelayChannelPairAttachment attachment) {
+        startSetup(attachment);
+        try {
+            SocketChannel resChannel = SocketChannel.open();
+            resChannel.configureBlocking(false);
+            resChannel.socket().setTcpNoDelay(true);
+            attachment.setResponseChannel(resChannel);
+            attachment.setResponseConnected(resChannel.connect(new InetSocketAddress("127.0.0.1", attachment.getProxiedPort())));
+
+            // 优先使用预连接池中的连接，池为空时再现场建立
+            SocketChannel relayChannel = relayConnectionPool.acquire();
+            metricsRegistry.getRelaySetupMetrics().recordAttempt(relayChannel != null);
+            if (relayChannel != null) {
+                attachment.setRelayChannel(relayChannel);
+                attachment.setRelayConnected(true);
+            } else {
+                relayChannel = SocketChannel.open();
+                relayChannel.configureBlocking(false);
+                relayChannel.socket().setTcpNoDelay(true);
+                attachment.setRelayChannel(relayChannel);
+                attachment.setRelayConnected(relayChannel.connect(new InetSocketAddress(proxyServerProperties.getHost(), proxyServerProperties.getPort())));
+            }
+
+            attachment.setResponseChannelSelectionKey(resChannel.register(selector, attachment.isResponseConnected() ? 0 : SelectionKey.OP_CONNECT, attachment.getResponseChannelHandle()));
+            attachment.setRelayChannelSelectionKey(relayChannel.register(selector, attachment.isRelayConnected() ? 0 : SelectionKey.OP_CONNECT, attachment.getRelayChannelHandle()));
+        } catch (IOException e) {
+            failTcpRelayChannel(attachment, e.getMessage());
+            return;
+        }
+        if (attachment.isResponseConnected()) {
+            recordSetupPhase(attachment, RelaySetupPhase.LOCAL_CONNECT, attachment.getSetupStartTime());
+        }
+        if (attachment.isRelayConnected()) {
+            recordSetupPhase(attachment, RelaySetupPhase.SERVER_CONNECT, attachment.getSetupStartTime());
+        }
+
+        if (attachment.isResponseConnected() && attachment.isRelayConnected()) {
+            completeTcpRelayChannel(attachment);
+        } else {
+            attachment.setConnectTimer(new TimerNode(() -> {
+                if (!attachment.isClosed() && !(attachment.isResponseConnected() && attachment.isRelayConnected())) {
+                    metricsRegistry.getRelaySetupMetrics().recordTimeout();
+                    failTcpRelayChannel(attachment, "connect timeout");
+                }
+            }));
+            expiryTimer.schedule(attachment.getConnectTimer(), relayProperties.getRelayConnectTimeout());
+        }
+    }
+
+    // 处理连接事件
+    private void processConnectable(SelectionKey key) {
+        if (key.attachment() instanceof MuxRelayConnectionAttachment) {
+            processMuxConnectable((MuxRelayConnectionAttachment) key.attachment());
+            return;
+        }
+
+        TcpRelayChannelPairAttachmentWrapper wrapper = (TcpRelayChannelPairAttachmentWrapper) key.attachment();
+        TcpRelayChannelPairAttachment attachment = wrapper.getAttachment();
+        if (attachment.isClosed()) {
+            return;
+        }
+
+        try {
+            if (!((SocketChannel) key.channel()).finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            failTcpRelayChannel(attachment, e.getMessage());
+            return;
+        }
+
+        key.interestOps(0);
+        if (wrapper.isIn()) {
+            attachment.setRelayConnected(true);
+        } else {
+            attachment.setResponseConnected(true);
+        }
+        recordSetupPhase(attachment, wrapper.isIn() ? RelaySetupPhase.SERVER_CONNECT : RelaySetupPhase.LOCAL_CONNECT, attachment.getSetupStartTime());
+
+        if (attachment.isMuxStream()) {
+            onMuxStreamLocalConnected(attachment);
+            return;
+        }
+
+        if (attachment.isResponseConnected() && attachment.isRelayConnected()) {
+            completeTcpRelayChannel(attachment);
+        }
+    }
+
+    // 两端连接均已建立：开始读写，并通过中转通道发送应答
+    private void completeTcpRelayChannel(TcpRelayChannelPairAttachment attachment) {
+        long registerStart = System.nanoTime();
+        if (attachment.getConnectTimer() != null) {
+            expiryTimer.cancel(attachment.getConnectTimer());
+        }
+
+        attachment.getResponseChannelSelectionKey().interestOps(SelectionKey.OP_READ);
+        attachment.getRelayChannelSelectionKey().interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        relayChannelAttachments.put(attachment.getTempId(), attachment);
+        scheduleIdleExpiry(attachment, relayProperties.getTcpIdleTimeout());
+        scheduleBufferShrink(attachment);
+        openTrafficSession(attachment);
+
+        if (attachment.getCompression() != null) {
+            // 008本身不压缩，声明压缩方式后双方都按压缩帧收发
+            CommunicationMsgWriter.putRequest(attachment.getCompression().getEncodeBuffer(), attachment.getAgentId(), CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_RESPONSE_MSG, attachment.getProxiedPort(), attachment.getTempId(), attachment.getCompression().getType().getCode());
+        } else {
+            CommunicationMsgWriter.putRequest(attachment.getOutBuffer(), attachment.getAgentId(), CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_RESPONSE_MSG, attachment.getProxiedPort(), attachment.getTempId());
+        }
+
+        recordEstablished(attachment, registerStart);
+        long latency = System.nanoTime() - attachment.getSetupStartTime();
+        metricsRegistry.getRelaySetupMetrics().recordSuccess();
+        if (log.isDebugEnabled()) {
+            log.debug("TcpRelayChannel(proxiedPort:{}, tempId:{}) established; setup:{}us", attachment.getProxiedPort(), attachment.getTempId(), latency / 1000);
+        }
+    }
+
+    // 压缩模式下读中转服务端：读入decodeBuffer，解码后放入inBuffer
+    private void processCompressedRelayReadable(TcpRelayChannelPairAttachment attachment) {
+        int len;
+        try {
+            len = attachment.getRelayChannel().read(attachment.getCompression().getDecodeBuffer());
+        } catch (IOException e) {
+            if (!attachment.isClosed()) log.warn("TcpRelayChannel(agentId:{}, localPort:{}) read error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+            closeRelayChannel(attachment);
+            return;
+        }
+        if (len < 0) {
+            closeRelayChannel(attachment);
+            return;
+        }
+        if (len == 0) {
+            return;
+        }
+
+        attachment.refresh();
+        recordRead(attachment, true, len);
+        if (!decodeRelayFrames(attachment)) {
+            return;
+        }
+        if (relayProperties.isTcpWriteThrough()) {
+            // 写空后继续解码剩余的帧，直到写不完或没有数据
+            while (attachment.getInBuffer().position() > 0) {
+                if (!writeThrough(attachment, true)) {
+                    return;
+                }
+                if (attachment.getInBuffer().position() > 0) {
+                    break;
+                }
+                if (!decodeRelayFrames(attachment)) {
+                    return;
+                }
+            }
+            pauseReadIfBacklogged(attachment, true);
+            return;
+        }
+        pauseReadIfBacklogged(attachment, true);
+        if (attachment.getInBuffer().position() > 0) {
+            // 块已在对端聚合过，直接注册写事件
+            try {
+                registerWriteEvent(attachment, true);
+            } catch (ClosedChannelException e) {
+                log.warn("SocketChannel(agentId:{}, localPort:{}) register writing error; exception:{}", attachment.getAgentId(), attachment.getProxyPort(), e.getMessage());
+            }
+        }
+    }
+
+    // 把已解码与已收到的帧尽量放入inBuffer，数据损坏时关闭通道并返回false
+    private boolean decodeRelayFrames(TcpRelayChannelPairAttachment attachment) {
+        RelayCompressionState state = attachment.getCompression();
+        ByteBuffer inBuffer = attachment.getInBuffer();
+        ByteBuffer plainBuffer = state.getPlainBuffer();
+        ByteBuffer decodeBuffer = state.getDecodeBuffer();
+
+        transfer(plainBuffer, inBuffer);
+        decodeBuffer.flip();
+        try {
+            while (!plainBuffer.hasRemaining() && inBuffer.hasRemaining()) {
+                int position = decodeBuffer.position();
+                plainBuffer.clear();
+                long start = System.nanoTime();
+                int rawLength = blockCompressor.decode(decodeBuffer, state.getType(), plainBuffer);
+                plainBuffer.flip();
+                if (rawLength < 0) {
+                    break;
+                }
+                metricsRegistry.getRelayCompressionMetrics().recordDecode(decodeBuffer.position() - position - BlockCompressor.HEADER_SIZE, rawLength, System.nanoTime() - start);
+                transfer(plainBuffer, inBuffer);
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("TcpRelayChannel(agentId:{}, localPort:{}) decompress error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+            decodeBuffer.compact();
+            closeRelayChannel(attachment);
+            return false;
+        }
+        decodeBuffer.compact();
+        return true;
+    }
+
+    private static void transfer(ByteBuffer src, ByteBuffer dst) {
+        int length = Math.min(src.remaining(), dst.remaining());
+        if (length > 0) {
+            // 绝对位置批量复制，不创建临时视图
+            dst.put(dst.position(), src, src.position(), length);
+            dst.position(dst.position() + length);
+            src.position(src.position() + length);
+        }
+    }
+
+    // 压缩模式下写中转服务端：outBuffer按块编码进encodeBuffer后写出
+    private void processCompressedRelayWritable(SelectionKey key, TcpRelayChannelPairAttachment attachment) {
+        RelayCompressionState state = attachment.getCompression();
+        ByteBuffer outBuffer = attachment.getOutBuffer();
+        ByteBuffer encodeBuffer = state.getEncodeBuffer();
+        attachment.setOutBufferLastWriteTime(MonotonicClock.millis());
+
+        int consumed = 0;
+        outBuffer.flip();
+        while (outBuffer.hasRemaining() && encodeBuffer.remaining() >= BlockCompressor.MAX_FRAME_SIZE) {
+            int length = Math.min(outBuffer.remaining(), BlockCompressor.MAX_BLOCK_SIZE);
+            boolean attempted = length >= BlockCompressor.MIN_COMPRESS_SIZE && state.shouldCompress();
+            long start = System.nanoTime();
+            int wireLength = blockCompressor.encode(outBuffer, length, state.getType(), attempted, encodeBuffer);
+            metricsRegistry.getRelayCompressionMetrics().recordEncode(length, wireLength, attempted, System.nanoTime() - start);
+            if (attempted) {
+                state.recordResult(wireLength < length);
+            }
+            consumed += length;
+        }
+        outBuffer.compact();
+
+        encodeBuffer.flip();
+        try {
+            attachment.getRelayChannel().write(encodeBuffer);
+            recordTcpWrite(attachment, false, false);
+        } catch (IOException e) {
+            encodeBuffer.compact();
+            if (!attachment.isClosed()) log.warn("TcpRelayChannel(agentId:{}, localPort:{}) write error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+            closeRelayChannel(attachment);
+            return;
+        }
+        encodeBuffer.compact();
+
+        if (consumed > 0) {
+            attachment.getOutBufferSizer().recordFlushed(consumed);
+        }
+        resumeReadIfDrained(attachment, false);
+        if (encodeBuffer.position() == 0 && outBuffer.position() == 0) {
+            attachment.adjustOutBuffer();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    // 多路复用：只需连接被代理端，中转侧复用本循环的多路复用连接
+    private void connectMuxStream(TcpRelayChannelPairAttachment attachment) {
+        startSetup(attachment);
+        try {
+            MuxRelayConnectionAttachment mux = ensureMuxConnection();
+            attachment.setMux(mux);
+            metricsRegistry.getRelaySetupMetrics().recordAttempt(mux.isConnected());
+
+            SocketChannel resChannel = SocketChannel.open();
+            resChannel.configureBlocking(false);
+            resChannel.socket().setTcpNoDelay(true);
+            attachment.setResponseChannel(resChannel);
+            attachment.setResponseConnected(resChannel.connect(new InetSocketAddress("127.0.0.1", attachment.getProxiedPort())));
+            attachment.setResponseChannelSelectionKey(resChannel.register(selector, attachment.isResponseConnected() ? 0 : SelectionKey.OP_CONNECT, attachment.getResponseChannelHandle()));
+        } catch (IOException e) {
+            failTcpRelayChannel(attachment, e.getMessage());
+            return;
+        }
+
+        attachment.setConnectTimer(new TimerNode(() -> {
+            if (!attachment.isClosed() && !(attachment.isResponseConnected() && attachment.isRelayConnected())) {
+                metricsRegistry.getRelaySetupMetrics().recordTimeout();
+                failTcpRelayChannel(attachment, "connect timeout");
+            }
+        }));
+        expiryTimer.schedule(attachment.getConnectTimer(), relayProperties.getRelayConnectTimeout());
+
+        if (attachment.isResponseConnected()) {
+            recordSetupPhase(attachment, RelaySetupPhase.LOCAL_CONNECT, attachment.getSetupStartTime());
+            onMuxStreamLocalConnected(attachment);
+        }
+    }
+
+    private void onMuxStreamLocalConnected(TcpRelayChannelPairAttachment attachment) {
+        MuxRelayConnectionAttachment mux = attachment.getMux();
+        if (mux.isConnected()) {
+            openMuxStream(attachment);
+            flushMux(mux);
+        } else {
+            mux.getPendingOpens().add(attachment);
+        }
+    }
+
+    // 分配流并发送OPEN，取代独立中转连接上的008
+    private void openMuxStream(TcpRelayChannelPairAttachment attachment) {
+        long registerStart = System.nanoTime();
+        recordSetupPhase(attachment, RelaySetupPhase.SERVER_CONNECT, attachment.getSetupStartTime());
+        MuxRelayConnectionAttachment mux = attachment.getMux();
+        int window = relayProperties.getMuxStreamWindow();
+        int streamId = mux.allocateStreamId();
+        attachment.setStreamId(streamId);
+        attachment.setSendWindow(window);
+        attachment.setRelayConnected(true);
+        mux.getStreams().put(streamId, attachment);
+
+        byte[] tempId = attachment.getTempId().getBytes(StandardCharsets.UTF_8);
+        mux.ensureWritable(MuxProtocol.HEADER_SIZE + 8 + tempId.length);
+        ByteBuffer writeBuffer = mux.getWriteBuffer();
+        MuxProtocol.putHeader(writeBuffer, MuxProtocol.TYPE_OPEN, streamId, 8 + tempId.length);
+        writeBuffer.putInt(window);
+        writeBuffer.putInt(attachment.getProxiedPort());
+        writeBuffer.put(tempId);
+
+        if (attachment.getConnectTimer() != null) {
+            expiryTimer.cancel(attachment.getConnectTimer());
+        }
+        attachment.getResponseChannelSelectionKey().interestOps(SelectionKey.OP_READ);
+        relayChannelAttachments.put(attachment.getTempId(), attachment);
+        scheduleIdleExpiry(attachment, relayProperties.getTcpIdleTimeout());
+        scheduleBufferShrink(attachment);
+        openTrafficSession(attachment);
+        recordEstablished(attachment, registerStart);
+
+        long latency = System.nanoTime() - attachment.getSetupStartTime();
+        metricsRegistry.getRelaySetupMetrics().recordSuccess();
+        if (log.isDebugEnabled()) {
+            log.debug("TcpRelayStream(proxiedPort:{}, tempId:{}, streamId:{}) opened; setup:{}us", attachment.getProxiedPort(), attachment.getTempId(), streamId, latency / 1000);
+        }
+    }
+
+    private MuxRelayConnectionAttachment ensureMuxConnection() throws IOException {
+        if (muxConnection != null && !muxConnection.isClosed()) {
+            return muxConnection;
+        }
+
+        MuxRelayConnectionAttachment mux = new MuxRelayConnectionAttachment();
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            mux.setChannel(channel);
+            mux.allocateBuffers();
+            boolean connected = channel.connect(new InetSocketAddress(proxyServerProperties.getHost(), proxyServerProperties.getPort()));
+            mux.setSelectionKey(channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, mux));
+            muxConnection = mux;
+            if (connected) {
+                onMuxConnected(mux);
+            } else {
+                mux.setConnectTimer(new TimerNode(() -> {
+                    if (!mux.isConnected()) closeMuxConnection(mux, "connect timeout");
+                }));
+                expiryTimer.schedule(mux.getConnectTimer(), relayProperties.getRelayConnectTimeout());
+            }
+        } catch (IOException e) {
+            mux.close();
+            throw e;
+        }
+        return mux;
+    }
+
+    private void processMuxConnectable(MuxRelayConnectionAttachment mux) {
+        try {
+            if (!mux.getChannel().finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            closeMuxConnection(mux, e.getMessage());
+            return;
+        }
+        onMuxConnected(mux);
+    }
+
+    // 连接建立：先发送013声明多路复用，再为等待中的流发送OPEN
+    private void onMuxConnected(MuxRelayConnectionAttachment mux) {
+        if (mux.getConnectTimer() != null) {
+            expiryTimer.cancel(mux.getConnectTimer());
+        }
+        mux.setConnected(true);
+        mux.getSelectionKey().interestOps(SelectionKey.OP_READ);
+        CommunicationMsgWriter.putRequest(mux.getWriteBuffer(), communicationManager.getAgentId(), CommunicationProtocol.BODY_REQUIRE_MUX_RELAY_CHANNEL_MSG, String.valueOf(index));
+
+        for (TcpRelayChannelPairAttachment attachment : mux.getPendingOpens()) {
+            if (!attachment.isClosed()) {
+                openMuxStream(attachment);
+            }
+        }
+        mux.getPendingOpens().clear();
+        flushMux(mux);
+
+        if (log.isDebugEnabled()) {
+            log.debug("RelayEventLoop-{} mux connection established", index);
+        }
+    }
+
+    private void processMuxReadable(MuxRelayConnectionAttachment mux) {
+        ByteBuffer readBuffer = mux.getReadBuffer();
+        int len;
+        try {
+            len = mux.getChannel().read(readBuffer);
+        } catch (IOException e) {
+            closeMuxConnection(mux, e.getMessage());
+            return;
+        }
+        if (len < 0) {
+            closeMuxConnection(mux, "closed by server");
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.remaining() >= MuxProtocol.HEADER_SIZE) {
+            int position = readBuffer.position();
+            byte type = readBuffer.get(position);
+            int streamId = readBuffer.getInt(position + 1);
+            int length = readBuffer.getInt(position + 5);
+            if (length < 0 || length > MuxProtocol.MAX_DATA_PAYLOAD) {
+                closeMuxConnection(mux, "invalid frame length " + length);
+                return;
+            }
+            if (readBuffer.remaining() < MuxProtocol.HEADER_SIZE + length) {
+                break;
+            }
+
+            int payload = position + MuxProtocol.HEADER_SIZE;
+            TcpRelayChannelPairAttachment attachment = mux.getStreams().get(streamId);
+            if (attachment != null) {
+                switch (type) {
+                    case MuxProtocol.TYPE_DATA:
+                        onMuxData(attachment, readBuffer, payload, length);
+                        break;
+                    case MuxProtocol.TYPE_WINDOW:
+                        attachment.setSendWindow(attachment.getSendWindow() + readBuffer.getInt(payload));
+                        if (attachment.getOutBuffer() != null && attachment.getOutBuffer().position() > 0) {
+                            queueMuxSend(attachment);
+                        }
+                        break;
+                    case MuxProtocol.TYPE_CLOSE:
+                        // 先移出再关闭，不再回送CLOSE
+                        mux.getStreams().remove(streamId);
+                        closeRelayChannel(attachment);
+                        break;
+                }
+            }
+            readBuffer.position(payload + length);
+        }
+        readBuffer.compact();
+
+        flushMux(mux);
+    }
+
+    // 对端数据写入流的inBuffer；对端必须遵守窗口，超出视为协议错误
+    private void onMuxData(TcpRelayChannelPairAttachment attachment, ByteBuffer readBuffer, int payload, int length) {
+        ByteBuffer inBuffer = attachment.getInBuffer();
+        if (attachment.isClosed() || inBuffer == null) {
+            return;
+        }
+        if (inBuffer.remaining() < length) {
+            log.warn("TcpRelayStream(proxiedPort:{}, streamId:{}) window exceeded; length:{}, remaining:{}", attachment.getProxiedPort(), attachment.getStreamId(), length, inBuffer.remaining());
+            closeRelayChannel(attachment);
+            return;
+        }
+        inBuffer.put(inBuffer.position(), readBuffer, payload, length);
+        inBuffer.position(inBuffer.position() + length);
+        attachment.refresh();
+        recordRead(attachment, true, length);
+
+        SelectionKey key = attachment.getResponseChannelSelectionKey();
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // 被代理端可读：读入outBuffer，由flushMux按窗口切成DATA帧
+    private void processMuxStreamReadable(SelectionKey key, TcpRelayChannelPairAttachment attachment) {
+        ByteBuffer outBuffer = attachment.getOutBuffer();
+        int len;
+        try {
+            len = attachment.getResponseChannel().read(outBuffer);
+        } catch (IOException e) {
+            if (!attachment.isClosed()) log.warn("TcpRelayStream(agentId:{}, localPort:{}) read error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+            closeRelayChannel(attachment);
+            return;
+        }
+
+        if (len < 0) {
+            // 剩余数据发完再关闭
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            attachment.setLocalEof(true);
+            if (outBuffer.position() == 0) {
+                closeRelayChannel(attachment);
+            } else {
+                queueMuxSend(attachment);
+                flushMux(attachment.getMux());
+            }
+            return;
+        }
+
+        if (len > 0) {
+            attachment.refresh();
+            recordRead(attachment, false, len);
+            if (!outBuffer.hasRemaining()) {
+                // 缓冲区满时暂停读取，直到数据被切成帧发出
+                attachment.getOutBufferSizer().recordFull();
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            queueMuxSend(attachment);
+            flushMux(attachment.getMux());
+        }
+    }
+
+    // 向被代理端写出inBuffer，写出的字节累计到半个窗口后归还给对端
+    private void processMuxStreamWritable(SelectionKey key, TcpRelayChannelPairAttachment attachment) {
+        ByteBuffer inBuffer = attachment.getInBuffer();
+        int written;
+        inBuffer.flip();
+        try {
+            written = attachment.getResponseChannel().write(inBuffer);
+        } catch (IOException e) {
+            inBuffer.compact();
+            if (!attachment.isClosed()) log.warn("TcpRelayStream(agentId:{}, localPort:{}) write error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+            closeRelayChannel(attachment);
+            return;
+        }
+        inBuffer.compact();
+
+        if (written > 0) {
+            attachment.refresh();
+            recordWrite(attachment, true);
+            attachment.setRecvConsumed(attachment.getRecvConsumed() + written);
+            if (attachment.getRecvConsumed() >= relayProperties.getMuxStreamWindow() / 2) {
+                MuxRelayConnectionAttachment mux = attachment.getMux();
+                mux.ensureWritable(MuxProtocol.HEADER_SIZE + 4);
+                MuxProtocol.putWindow(mux.getWriteBuffer(), attachment.getStreamId(), attachment.getRecvConsumed());
+                attachment.setRecvConsumed(0);
+                flushMux(mux);
+            }
+        }
+
+        if (inBuffer.position() == 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void queueMuxSend(TcpRelayChannelPairAttachment attachment) {
+        if (!attachment.isMuxSendQueued()) {
+            attachment.setMuxSendQueued(true);
+            attachment.getMux().getSendQueue().add(attachment);
+        }
+    }
+
+    // 轮流从各流的outBuffer中取数据封装为DATA帧（受窗口与单帧大小限制），然后写出
+    private void flushMux(MuxRelayConnectionAttachment mux) {
+        if (mux.isClosed() || !mux.isConnected()) {
+            return;
+        }
+
+        ArrayDeque<TcpRelayChannelPairAttachment> sendQueue = mux.getSendQueue();
+        int written;
+        do {
+            while (!sendQueue.isEmpty() && mux.getWriteBuffer().remaining() > MuxProtocol.HEADER_SIZE) {
+                TcpRelayChannelPairAttachment attachment = sendQueue.poll();
+                attachment.setMuxSendQueued(false);
+                if (attachment.isClosed() || attachment.getMux() != mux) {
+                    continue;
+                }
+
+                ByteBuffer writeBuffer = mux.getWriteBuffer();
+                ByteBuffer outBuffer = attachment.getOutBuffer();
+                int n = Math.min(Math.min(outBuffer.position(), attachment.getSendWindow()), Math.min(MuxProtocol.MAX_DATA_PAYLOAD, writeBuffer.remaining() - MuxProtocol.HEADER_SIZE));
+                if (n > 0) {
+                    boolean wasFull = !outBuffer.hasRemaining();
+                    MuxProtocol.putHeader(writeBuffer, MuxProtocol.TYPE_DATA, attachment.getStreamId(), n);
+                    outBuffer.flip();
+                    writeBuffer.put(writeBuffer.position(), outBuffer, outBuffer.position(), n);
+                    writeBuffer.position(writeBuffer.position() + n);
+                    outBuffer.position(outBuffer.position() + n);
+                    outBuffer.compact();
+                    attachment.setSendWindow(attachment.getSendWindow() - n);
+                    recordWrite(attachment, false);
+
+                    SelectionKey key = attachment.getResponseChannelSelectionKey();
+                    if (wasFull && !attachment.isLocalEof() && key != null && key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                }
+
+                if (outBuffer.position() == 0) {
+                    if (attachment.isLocalEof()) {
+                        closeRelayChannel(attachment);
+                    } else {
+                        attachment.setOutBufferLastWriteTime(MonotonicClock.millis());
+                        attachment.getOutBufferSizer().recordFlushed(n);
+                        attachment.adjustOutBuffer();
+                    }
+                } else if (attachment.getSendWindow() > 0) {
+                    queueMuxSend(attachment);
+                }
+                // 窗口耗尽的流等待WINDOW帧重新入队
+            }
+            written = writeMux(mux);
+        } while (written > 0 && !sendQueue.isEmpty() && !mux.isClosed());
+    }
+
+    // 写出writeBuffer中积攒的帧，返回写出的字节数，连接出错时返回-1
+    private int writeMux(MuxRelayConnectionAttachment mux) {
+        ByteBuffer writeBuffer = mux.getWriteBuffer();
+        if (writeBuffer.position() == 0) {
+            return 0;
+        }
+        int written;
+        writeBuffer.flip();
+        try {
+            written = mux.getChannel().write(writeBuffer);
+        } catch (IOException e) {
+            writeBuffer.compact();
+            closeMuxConnection(mux, e.getMessage());
+            return -1;
+        }
+        writeBuffer.compact();
+        mux.getSelectionKey().interestOps(writeBuffer.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        return written;
+    }
+
+    // 关闭多路复用连接及其承载的所有流
+    private void closeMuxConnection(MuxRelayConnectionAttachment mux, String cause) {
+        if (mux.isClosed()) {
+            return;
+        }
+        if (isRunning()) {
+            log.warn("RelayEventLoop-{} mux connection closed; cause:{}", index, cause);
+        }
+        if (mux.getConnectTimer() != null) {
+            expiryTimer.cancel(mux.getConnectTimer());
+        }
+        mux.close();
+        if (muxConnection == mux) {
+            muxConnection = null;
+        }
+
+        List<TcpRelayChannelPairAttachment> streams = new ArrayList<>(mux.getStreams().values());
+        streams.addAll(mux.getPendingOpens());
+        mux.getStreams().clear();
+        mux.getPendingOpens().clear();
+        mux.getSendQueue().clear();
+        for (TcpRelayChannelPairAttachment attachment : streams) {
+            if (!attachment.isClosed() && !attachment.isRelayConnected()) {
+                metricsRegistry.getRelaySetupMetrics().recordFailure();
+                recordSetupFailure(attachment);
+            }
+            closeRelayChannel(attachment);
+        }
+    }
+
+    // 从多路复用连接中移除流，连接仍可用时通知对端关闭
+    private void detachMuxStream(TcpRelayChannelPairAttachment attachment) {
+        MuxRelayConnectionAttachment mux = attachment.getMux();
+        // 按引用移除：附件的 equals 由 @Data 生成，会逐字段比较，可能误删状态相同的其他流
+        mux.getPendingOpens().removeIf(pending -> pending == attachment);
+        if (mux.getStreams().remove(attachment.getStreamId()) != null && !mux.isClosed() && mux.isConnected()) {
+            mux.ensureWritable(MuxProtocol.HEADER_SIZE);
+            MuxProtocol.putClose(mux.getWriteBuffer(), attachment.getStreamId());
+            // 由下一次写事件发出，避免在关闭流程中重入写逻辑
+            mux.getSelectionKey().interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // 中转通道建立完成，之后的读写计入所属代理的流量统计
+    private void openTrafficSession(RelayChannelAttachment attachment) {
+        trafficMetricsOf(attachment).recordSessionOpened();
+        attachment.setTrafficSessionOpen(true);
+    }
+
+    // 建立过程中提前取得所属代理的统计，用于记录各阶段耗时
+    private ProxyTrafficMetrics trafficMetricsOf(RelayChannelAttachment attachment) {
+        ProxyTrafficMetrics trafficMetrics = attachment.getTrafficMetrics();
+        if (trafficMetrics == null) {
+            trafficMetrics = metricsRegistry.get(attachment.getProtocol(), attachment.getProxiedPort());
+            attachment.setTrafficMetrics(trafficMetrics);
+        }
+        return trafficMetrics;
+    }
+
+    // 事件循环开始处理建立任务
+    private void startSetup(RelayChannelAttachment attachment) {
+        attachment.setSetupStartTime(System.nanoTime());
+        trafficMetricsOf(attachment).recordSetupPhase(RelaySetupPhase.QUEUE, attachment.getSetupStartTime() - attachment.getOrderTime());
+    }
+
+    // 可能在异步IO线程中调用，此时统计对象已在 startSetup 中取得
+    private static void recordSetupPhase(RelayChannelAttachment attachment, RelaySetupPhase phase, long startTime) {
+        ProxyTrafficMetrics trafficMetrics = attachment.getTrafficMetrics();
+        if (trafficMetrics != null) {
+            trafficMetrics.recordSetupPhase(phase, System.nanoTime() - startTime);
+        }
+    }
+
+    // 已注册并发出008/010，开始等待首字节
+    private void recordEstablished(RelayChannelAttachment attachment, long registerStart) {
+        long now = System.nanoTime();
+        ProxyTrafficMetrics trafficMetrics = trafficMetricsOf(attachment);
+        trafficMetrics.recordSetupPhase(RelaySetupPhase.REGISTER, now - registerStart);
+        trafficMetrics.recordSetupPhase(RelaySetupPhase.TOTAL, now - attachment.getOrderTime());
+        attachment.setEstablishedTime(now);
+    }
+
+    private void recordSetupFailure(RelayChannelAttachment attachment) {
+        metricsRegistry.get(attachment.getProtocol(), attachment.getProxiedPort()).recordSetupFailure();
+    }
+
+    private static void recordRead(RelayChannelAttachment attachment, boolean in, int bytes) {
+        ProxyTrafficMetrics trafficMetrics = attachment.getTrafficMetrics();
+        if (trafficMetrics != null) {
+            trafficMetrics.recordRead(in, bytes);
+            if (attachment.getEstablishedTime() != 0) {
+                trafficMetrics.recordSetupPhase(RelaySetupPhase.FIRST_BYTE, System.nanoTime() - attachment.getEstablishedTime());
+                attachment.setEstablishedTime(0);
+            }
+        }
+    }
+
+    private static void recordWrite(RelayChannelAttachment attachment, boolean in) {
+        ProxyTrafficMetrics trafficMetrics = attachment.getTrafficMetrics();
+        if (trafficMetrics != null) {
+            trafficMetrics.recordWrite(in);
+        }
+    }
+
+    private static void recordTcpWrite(RelayChannelAttachment attachment, boolean in, boolean fastPath) {
+        ProxyTrafficMetrics trafficMetrics = attachment.getTrafficMetrics();
+        if (trafficMetrics != null) {
+            trafficMetrics.recordWrite(in);
+            trafficMetrics.recordWritePath(fastPath);
+        }
+    }
+
+    private static void recordWriteRegistration(RelayChannelAttachment attachment) {
+        ProxyTrafficMetrics trafficMetrics = attachment.getTrafficMetrics();
+        if (trafficMetrics != null) {
+            trafficMetrics.recordWriteRegistration();
+        }
+    }
+
+    private void failTcpRelayChannel(TcpRelayChannelPairAttachment attachment, String cause) {
+        if (attachment.isClosed()) {
+            return;
+        }
+        metricsRegistry.getRelaySetupMetrics().recordFailure();
+        recordSetupFailure(attachment);
+        log.warn("SocketChannel(agentId:{}, localPort:{}) register relay channel error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), cause);
+        closeRelayChannel(attachment);
+    }
+
+    private long nextTimeoutMillis(long nowNanos) {
+        long flushTimeout = flushTimer.nextTimeoutMillis(nowNanos);
+        long expiryTimeout = expiryTimer.nextTimeoutMillis(nowNanos);
+        if (flushTimeout < 0) return expiryTimeout;
+        if (expiryTimeout < 0) return flushTimeout;
+        return Math.min(flushTimeout, expiryTimeout);
+    }
+
+    private void scheduleIdleExpiry(RelayChannelAttachment attachment, long idleTimeout) {
+        attachment.setIdleTimeout(idleTimeout);
+        attachment.refresh();
+        if (idleTimeout > 0) {
+            attachment.setIdleTimer(new TimerNode(() -> expireOnIdle(attachment)));
+            expiryTimer.schedule(attachment.getIdleTimer(), idleTimeout);
+        }
+    }
+
+    private void scheduleBufferShrink(TcpRelayChannelPairAttachment attachment) {
+        long idleTime = relayProperties.getTcpBufferShrinkIdleTime();
+        if (idleTime > 0) {
+            attachment.setBufferShrinkTimer(new TimerNode(() -> shrinkOnIdle(attachment, idleTime)));
+            expiryTimer.schedule(attachment.getBufferShrinkTimer(), idleTime);
+        }
+    }
+
+    // 空闲缓冲区收缩检查：批量传输结束后把增长到上限的缓冲区还给缓冲池，之后按周期继续检查
+    private void shrinkOnIdle(TcpRelayChannelPairAttachment attachment, long idleTime) {
+        if (attachment.isClosed()) {
+            return;
+        }
+        attachment.shrinkIdleBuffers(MonotonicClock.millis(), idleTime);
+        expiryTimer.schedule(attachment.getBufferShrinkTimer(), idleTime);
+    }
+
+    // 空闲到期检查：期间有过活动则按剩余时间重新调度，否则关闭
+    private void expireOnIdle(RelayChannelAttachment attachment) {
+        long idle = MonotonicClock.millis() - attachment.getLastActiveTime();
+        if (attachment.isClosed() || idle >= attachment.getIdleTimeout()) {
+            if (log.isDebugEnabled()) {
+                log.debug("RelayChannel(protocol:{}, proxiedPort:{}) idle expired; idle:{}ms", attachment.getProtocol(), attachment.getProxiedPort(), idle);
+            }
+            closeRelayChannel(attachment);
+        } else {
+            expiryTimer.schedule(attachment.getIdleTimer(), attachment.getIdleTimeout() - idle);
+        }
+    }
+
+    // in为true表示inBuffer中的数据写往被代理端，否则outBuffer中的数据写往中转服务端；只在原有的key上追加OP_WRITE，被背压暂停的读事件保持暂停
+    private void registerWriteEvent(TcpRelayChannelPairAttachment attachment, boolean in) throws ClosedChannelException {
+        SelectionKey key = in ? attachment.getResponseChannelSelectionKey() : attachment.getRelayChannelSelectionKey();
+        if (!key.isValid()) {
+            throw new ClosedChannelException();
+        }
+        int ops = key.interestOps();
+        if ((ops & SelectionKey.OP_WRITE) == 0) {
+            recordWriteRegistration(attachment);
+            key.interestOps(ops | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // 读到数据后直接写往对端（in为true表示inBuffer写往被代理端），内核发送缓冲区满写不完时才注册写事件；通道已关闭时返回false
+    private boolean writeThrough(TcpRelayChannelPairAttachment attachment, boolean in) {
+        SelectionKey targetKey = in ? attachment.getResponseChannelSelectionKey() : attachment.getRelayChannelSelectionKey();
+        // 已在等待写事件说明发送缓冲区仍满，交给写事件处理
+        if ((targetKey.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            return true;
+        }
+        ByteBuffer buffer = in ? attachment.getInBuffer() : attachment.getOutBuffer();
+        SocketChannel target = in ? attachment.getResponseChannel() : attachment.getRelayChannel();
+        buffer.flip();
+        try {
+            target.write(buffer);
+        } catch (IOException e) {
+            if (!attachment.isClosed()) log.warn("TcpRelayChannel(agentId:{}, localPort:{}) write error; exception:{}", attachment.getAgentId(), attachment.getProxiedPort(), e.getMessage());
+            closeRelayChannel(attachment);
+            return false;
+        }
+        recordTcpWrite(attachment, in, true);
+
+        if (!buffer.hasRemaining()) {
+            int flushed = buffer.limit();
+            buffer.clear();
+            if (in) {
+                attachment.setInBufferLastWriteTime(MonotonicClock.millis());
+                attachment.getInBufferSizer().recordFlushed(flushed);
+                attachment.adjustInBuffer();
+            } else {
+                attachment.setOutBufferLastWriteTime(MonotonicClock.millis());
+                attachment.getOutBufferSizer().recordFlushed(flushed);
+                attachment.adjustOutBuffer();
+            }
+            return true;
+        }
+
+        buffer.compact();
+        try {
+            registerWriteEvent(attachment, in);
+        } catch (ClosedChannelException e) {
+            log.warn("SocketChannel(agentId:{}, localPort:{}) register writing error; exception:{}", attachment.getAgentId(), attachment.getProxyPort(), e.getMessage());
+        }
+        return true;
+    }
+
+    // 背压：in为true表示中转服务端 -> 被代理端方向。该方向未写出的数据达到高水位时暂停读取来源
+    private void pauseReadIfBacklogged(TcpRelayChannelPairAttachment attachment, boolean in) {
+        if (in ? attachment.isInReadPaused() : attachment.isOutReadPaused()) {
+            return;
+        }
+        ByteBuffer buffer = in ? attachment.getInBuffer() : attachment.getOutBuffer();
+        // 压缩模式下decodeBuffer读满时同样无法继续读取
+        boolean decodeFull = in && attachment.getCompression() != null && !attachment.getCompression().getDecodeBuffer().hasRemaining();
+        if (!decodeFull && buffer.position() < watermark(buffer, relayProperties.getTcpHighWatermarkPercent())) {
+            return;
+        }
+        SelectionKey sourceKey = in ? attachment.getRelayChannelSelectionKey() : attachment.getResponseChannelSelectionKey();
+        if (sourceKey == null || !sourceKey.isValid()) {
+            return;
+        }
+        sourceKey.interestOps(sourceKey.interestOps() & ~SelectionKey.OP_READ);
+        if (in) {
+            attachment.setInReadPaused(true);
+        } else {
+            attachment.setOutReadPaused(true);
+        }
+        trafficMetricsOf(attachment).recordReadPause();
+    }
+
+    // 写出后未写出的数据降到低水位以下，恢复读取来源
+    private void resumeReadIfDrained(TcpRelayChannelPairAttachment attachment, boolean in) {
+        if (!(in ? attachment.isInReadPaused() : attachment.isOutReadPaused())) {
+            return;
+        }
+        ByteBuffer buffer = in ? attachment.getInBuffer() : attachment.getOutBuffer();
+        boolean decodeFull = in && attachment.getCompression() != null && !attachment.getCompression().getDecodeBuffer().hasRemaining();
+        if (decodeFull || buffer.position() > watermark(buffer, relayProperties.getTcpLowWatermarkPercent())) {
+            return;
+        }
+        SelectionKey sourceKey = in ? attachment.getRelayChannelSelectionKey() : attachment.getResponseChannelSelectionKey();
+        if (sourceKey == null || !sourceKey.isValid()) {
+            return;
+        }
+        sourceKey.interestOps(sourceKey.interestOps() | SelectionKey.OP_READ);
+        if (in) {
+            attachment.setInReadPaused(false);
+        } else {
+            attachment.setOutReadPaused(false);
+        }
+    }
+
+    private static int watermark(ByteBuffer buffer, int percent) {
+        return (int) ((long) buffer.capacity() * percent / 100);
+    }
+
+    // MTU聚合等待到期，缓冲区中仍有未写出的数据则注册写事件
+    private void flushOnTimeout(TcpRelayChannelPairAttachment attachment, boolean in) {
+        if (attachment.isClosed()) {
+            return;
+        }
+        ByteBuffer buffer = in ? attachment.getInBuffer() : attachment.getOutBuffer();
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        try {
+            registerWriteEvent(attachment, in);
+        } catch (ClosedChannelException e) {
+            log.warn("SocketChannel(localPort:{}) register relay channel  write event error; exception:{}", attachment.getProxiedPort(), e.getMessage());
+        }
+    }
+
+    /**
+     * @param timeout 本次select的超时（ms），<0 表示不限时
+     * @param elapsed 本次select实际阻塞的时长（ns）
+     */
+    private void emptyPollDetection(int selected, long timeout, long elapsed) throws IOException {
+        // 有就绪key、被任务唤醒、selectNow或等满了超时都属于正常返回，清零计数
+        boolean early = timeout < 0 || (timeout > EARLY_RETURN_SLACK && elapsed < TimeUnit.MILLISECONDS.toNanos(timeout - EARLY_RETURN_SLACK));
+        if (selected > 0 || !taskQueue.isEmpty() || timeout == 0 || !early) {
+            emptyPollCount = 0;
+            return;
+        }
+        if (++emptyPollCount >= THRESHOLD) {
+            log.warn("RelayEventLoop-{} restarting...", index);
+            rebuildSelector();
+            log.warn("RelayEventLoop-{} restarted cased by empty poll", index);
+            emptyPollCount = 0;
+        }
+    }
+
+    // 请求在下一轮select返回后重建选择器
+    void requestSelectorRebuild() {
+        selectorRebuildRequested = true;
+        wakeup();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    // 重建选择器，在事件循环线程中调用；各key沿用原有的方向句柄作为附件
+    private void rebuildSelector() throws IOException {
+        // 关闭旧选择器会取消所有key，先在新选择器上注册，再让各通道保存的key指向新的key
+        Selector oldSelector = selector;
+        selector = Selector.open();
+        for (SelectionKey key : oldSelector.keys()) {
+            if (key.isValid()) {
+                rebindSelectionKey(key.channel().register(selector, key.interestOps(), key.attachment()));
+            }
+        }
+        oldSelector.close();
+    }
+
+    private static void rebindSelectionKey(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (attachment instanceof TcpRelayChannelPairAttachmentWrapper) {
+            TcpRelayChannelPairAttachmentWrapper wrapper = (TcpRelayChannelPairAttachmentWrapper) attachment;
+            if (wrapper.isIn()) {
+                wrapper.getAttachment().setRelayChannelSelectionKey(key);
+            } else {
+                wrapper.getAttachment().setResponseChannelSelectionKey(key);
+            }
+        } else if (attachment instanceof UdpRelayChannelAttachment) {
+            ((UdpRelayChannelAttachment) attachment).setSelectionKey(key);
+        } else if (attachment instanceof MuxRelayConnectionAttachment) {
+            ((MuxRelayConnectionAttachment) attachment).setSelectionKey(key);
+        }
+    }
+
+    public void submitTask(RelayTask relayTask) {
+        if (isRunning()) {
+            taskQueue.offer(relayTask);
+            selector.wakeup();
+        }
+    }
+
+    // 只入队不唤醒，配合 wakeup() 由 RelayManager 批量提交
+    public void offerTask(RelayTask relayTask) {
+        if (isRunning()) {
+            taskQueue.offer(relayTask);
+        }
+    }
+
+    public void wakeup() {
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private boolean closeRelayChannel(String id) {
+        RelayChannelAttachment attachment = relayChannelAttachments.get(id);
+        return closeRelayChannel(attachment);
+    }
+
+    private boolean closeRelayChannel(RelayChannelAttachment attachment) {
+        if (attachment != null) {
+            if (attachment.isTrafficSessionOpen()) {
+                attachment.setTrafficSessionOpen(false);
+                attachment.getTrafficMetrics().recordSessionClosed();
+            }
+            if (attachment.getIdleTimer() != null) expiryTimer.cancel(attachment.getIdleTimer());
+            if (attachment instanceof TcpRelayChannelPairAttachment) {
+                TcpRelayChannelPairAttachment tcpRelayChannelPairAttachment = (TcpRelayChannelPairAttachment) attachment;
+                if (tcpRelayChannelPairAttachment.getInFlushTimer() != null) flushTimer.cancel(tcpRelayChannelPairAttachment.getInFlushTimer());
+                if (tcpRelayChannelPairAttachment.getOutFlushTimer() != null) flushTimer.cancel(tcpRelayChannelPairAttachment.getOutFlushTimer());
+                if (tcpRelayChannelPairAttachment.getConnectTimer() != null) expiryTimer.cancel(tcpRelayChannelPairAttachment.getConnectTimer());
+                if (tcpRelayChannelPairAttachment.getBufferShrinkTimer() != null) expiryTimer.cancel(tcpRelayChannelPairAttachment.getBufferShrinkTimer());
+                if (tcpRelayChannelPairAttachment.isMuxStream()) detachMuxStream(tcpRelayChannelPairAttachment);
+                tcpRelayChannelPairAttachment.close();
+                relayChannelAttachments.remove(tcpRelayChannelPairAttachment.getTempId());
+                return true;
+            } else {
+                UdpRelayChannelAttachment udpRelayChannelAttachment = (UdpRelayChannelAttachment) attachment;
+                udpRelayChannelAttachment.close();
+                relayChannelAttachments.remove(udpRelayChannelAttachment.getChannelId());
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void closeChannel(Channel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    // 注册表与定时器只归事件循环线程所有，这里只负责通知，实际的关闭在事件循环退出时完成
+    public void shutdown() {
+        workingStatus = WorkingStatusEnum.STOPPING;
+
+        taskQueue.clear();
+
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void closeAll() {
+        if (muxConnection != null) {
+            closeMuxConnection(muxConnection, "shutdown");
+        }
+        new ArrayList<>(relayChannelAttachments.values()).forEach(this::closeRelayChannel);
+        if (udpReceiveRing != null) {
+            udpReceiveRing.release();
+        }
+        blockCompressor.close();
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+
+        workingStatus = WorkingStatusEnum.STOPPED;
+    }
+
+    private boolean isRunning() {
+        return workingStatus.getCode() <= WorkingStatusEnum.WORKING.getCode();
+    }
+
+    private void logError(String msg, Object... objects) {
+        log.error(msg, objects);
+    }
+
+    // 仅用于trace日志：按UTF-8输出 [from, from + length) 的内容，不改变缓冲区的position
+    private static String traceContent(ByteBuffer buffer, int from, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
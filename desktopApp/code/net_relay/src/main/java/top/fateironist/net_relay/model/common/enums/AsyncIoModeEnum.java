@@ -0,0 +1,8 @@
+package top.fateironist.net_relay.model.common.enums;
+
+public enum AsyncIoModeEnum {
+    // 固定大小的平台线程池
+    PLATFORM,
+    // 每个任务一个虚拟线程
+    VIRTUAL
+}
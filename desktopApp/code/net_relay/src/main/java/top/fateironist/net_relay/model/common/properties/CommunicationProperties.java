@@ -0,0 +1,17 @@
+package top.fateironist.net_relay.model.common.properties;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import top.fateironist.net_relay.model.communication.codec.TextCommunicationCodec;
+
+@Data
+@NoArgsConstructor
+public class CommunicationProperties {
+    // 注册通信通道时向服务端提供的最高协议版本，默认只用 F-RELAY/1；设为2时尝试协商 F-RELAY/2，服务端不支持时回退
+    private int protocolVersion = TextCommunicationCodec.VERSION;
+
+    // 写线程每次最多合并发送的消息数
+    private int writeMaxBatchSize = 64;
+    // 批未满时额外等待后续消息的时间（微秒），0表示不等待，只合并已经排队的消息
+    private long writeLingerMicros = 0;
+}
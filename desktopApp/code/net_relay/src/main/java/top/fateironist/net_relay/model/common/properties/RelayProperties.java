@@ -0,0 +1,66 @@
+package top.fateironist.net_relay.model.common.properties;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import top.fateironist.net_relay.model.common.enums.AsyncIoModeEnum;
+import top.fateironist.net_relay.model.relay.MuxProtocol;
+import top.fateironist.net_relay.model.relay.RelayChannelAttachment;
+import top.fateironist.net_relay.model.relay.UdpRelayChannelAttachment;
+import top.fateironist.net_relay.model.relay.enums.DatagramDropPolicy;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+public class RelayProperties {
+    // 中转事件循环数量，每个事件循环独占一个Selector线程
+    private int eventLoopCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // TCP中转缓冲区自适应范围，批量传输会逐步增长到上限，交互式流量保持在下限
+    private int tcpMinBufferSize = RelayChannelAttachment.DEFAULT_TCP_BUFFER_SIZE;
+    private int tcpMaxBufferSize = 256 * 1024;
+    // 某方向超过该时间（ms）没有写出数据时缓冲区缩回下限，大缓冲区归还缓冲池；<=0表示不收缩
+    private long tcpBufferShrinkIdleTime = 5 * 1000;
+
+    // TCP背压水位（占缓冲区容量的百分比）：某方向未写出的数据达到高水位时暂停读取来源，降到低水位以下恢复
+    private int tcpHighWatermarkPercent = 100;
+    private int tcpLowWatermarkPercent = 50;
+
+    // 读到数据后直接写往对端，只有内核发送缓冲区满时才注册写事件；关闭时按MTU聚合等待后由写事件写出
+    private boolean tcpWriteThrough = true;
+
+    // 空闲超时（ms），<=0表示不超时；UDP无连接状态，必须依靠超时回收
+    private long udpIdleTimeout = UdpRelayChannelAttachment.DEFAULT_UDP_IDLE_TIMEOUT;
+    private long tcpIdleTimeout = 0;
+
+    // UDP每次读事件最多连续接收的数据报数，收完后统一转发
+    private int udpReceiveBudget = 32;
+
+    // UDP每个方向发送队列的上限（数据报数/字节数）与队列满时的丢弃策略
+    private int udpSendQueueMaxPackets = 64;
+    private int udpSendQueueMaxBytes = 64 * 1024;
+    private DatagramDropPolicy udpDropPolicy = DatagramDropPolicy.DROP_OLDEST;
+
+    // 建立中转通道（被代理端与中转服务端两端连接）的超时（ms）
+    private long relayConnectTimeout = 10 * 1000;
+
+    // 预连接池：保持的最少/最多空闲连接数（最多为0时关闭，默认关闭），空闲连接的最长保留时间（ms）
+    private int relayPoolMinIdle = 0;
+    private int relayPoolMaxIdle = 0;
+    private long relayPoolMaxIdleTime = 30 * 1000;
+
+    // 按被代理端口启用中转侧压缩，在008中声明；多路复用模式下不生效
+    private Map<Integer, RelayCompressionEnum> tcpCompression = new HashMap<>();
+
+    // 多路复用：每个事件循环只与中转服务端保持一条连接，TCP中转通道作为其中的流；需要服务端支持013
+    private boolean muxEnabled = false;
+    private int muxStreamWindow = MuxProtocol.DEFAULT_STREAM_WINDOW;
+
+    // 是否把各代理的流量统计及全局统计注册为JMX MBean
+    private boolean jmxEnabled = true;
+
+    // 建立连接、UDP打洞等阻塞IO任务的执行方式
+    private AsyncIoModeEnum asyncIoMode = AsyncIoModeEnum.VIRTUAL;
+}
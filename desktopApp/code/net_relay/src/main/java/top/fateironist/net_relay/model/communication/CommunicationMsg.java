@@ -9,17 +9,24 @@ import lombok.ToString;
 @ToString
 @NoArgsConstructor
 public class CommunicationMsg {
+    private static final byte[] END_BYTES = CommunicationProtocol.END_WITHOUT_CRLF.getBytes(CommunicationProtocol.CHARSET);
+
     private String agentId;
     private Method order;
     private Method request;
 
     public static int findMsgEnd(byte[] bytes) {
-        byte[] endBytes = CommunicationProtocol.END_WITHOUT_CRLF.getBytes(CommunicationProtocol.CHARSET);
+        return findMsgEnd(bytes, 0, bytes.length);
+    }
+
+    // 在 [offset, offset+length) 中查找第一个消息结束标记，返回结束标记中'\n'的下标
+    public static int findMsgEnd(byte[] bytes, int offset, int length) {
+        byte[] endBytes = END_BYTES;
         int endIndex = endBytes.length - 1;
-        for (int i = 0; i < bytes.length - 1; i++) {
+        for (int i = offset; i < offset + length - 1; i++) {
             if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
                 endIndex = endBytes.length - 1;
-                for (int j = i-1; j >= 0; j--) {
+                for (int j = i-1; j >= offset; j--) {
                     if (endIndex >= 0 && bytes[j] == endBytes[endIndex--]) {
                         continue;
                     } else {
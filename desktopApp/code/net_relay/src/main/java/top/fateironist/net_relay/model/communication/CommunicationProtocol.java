@@ -21,9 +21,10 @@ public class CommunicationProtocol {
     public static final String BODY_REQUEST_PREFIX = "REQUEST";
     // message format: msgCode=[arg...]
     public static final String BODY_REGISTER_PING_MSG = "000";
-    // args=null
+    // args=null/[2]/[1,lz|deflate]——[客户端支持的最高协议版本(,客户端可用的中转压缩方式)]
     public static final String BODY_REGISTER_COMMUNICATION_CHANNEL_MSG = "001";
-    // args=[1,agentId]/[0]
+    // args=[1,agentId]/[1,agentId,2]/[1,agentId,1,lz]/[0]——服务端选定的协议版本，缺省为1，第四个参数为服务端接受的中转压缩方式；
+    // 此应答仍使用F-RELAY/1，之后的消息使用选定的版本
     public static final String BODY_REGISTER_COMMUNICATION_CHANNEL_RESPONSE_MSG = "002";
     // args=[8080,8081,8082...]
     public static final String BODY_REGISTER_TCP_PROXY_MSG = "003";
@@ -36,7 +37,7 @@ public class CommunicationProtocol {
 
     // args=[8080,tempId]
     public static final String BODY_REQUIRE_TCP_RELAY_CHANNEL_MSG = "007";
-    // args=[8080,tempId]
+    // args=[8080,tempId(,compression)]——第三个参数为压缩方式（lz/deflate），只能是002中服务端接受的方式，之后该连接双向按压缩帧收发
     public static final String BODY_REQUIRE_TCP_RELAY_CHANNEL_RESPONSE_MSG = "008";
 
     // args=[8080,60078,12700000000161110]——[proxiedPort,udpRelayBindPort,udpRelayChannelId]
@@ -47,8 +48,14 @@ public class CommunicationProtocol {
     public static final String BODY_UDP_PENETRATION_MEG = "011";
     public static final String BODY_UDP_PENETRATION_RESPONSE_MSG = "012";
 
+    // args=[loopIndex]——在中转连接上发送，之后该连接按 MuxProtocol 承载多路TCP中转流
+    public static final String BODY_REQUIRE_MUX_RELAY_CHANNEL_MSG = "013";
+
     public static final String BODY_SHUTDOWN_MSG = "999";
 
+    // 001/002中多个压缩方式之间的分隔符
+    public static final String COMPRESSION_SEPARATOR = "|";
+
     public static String buildStrMessage(Map<String, String> body) {
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append(HEADER);
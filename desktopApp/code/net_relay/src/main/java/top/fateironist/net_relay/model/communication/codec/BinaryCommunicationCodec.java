@@ -0,0 +1,240 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+
+import java.util.Arrays;
+
+/**
+ * F-RELAY/2 二进制协议
+ * 帧格式：length(4B，大端，不含自身) | magic('F') | version(0x02) | kind(1B) | opcode(varint) | agentId(string) | argc(varint) | args
+ * kind：1为指令（ORDER），2为请求（REQUEST）；opcode 为消息码的数值（"007" -> 7）。
+ * string：varint(字节数+1) + UTF-8，0 表示 null。
+ * arg：tag(1B) + 值，tag 0 为十进制数字（varint），tag 1 为 string；只有规范的十进制数字（无前导0）才按数字编码，保证往返一致。
+ */
+public class BinaryCommunicationCodec implements CommunicationCodec {
+    public static final int VERSION = 2;
+    public static final BinaryCommunicationCodec INSTANCE = new BinaryCommunicationCodec();
+
+    public static final int LENGTH_FIELD_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private static final byte MAGIC = 'F';
+    private static final byte KIND_ORDER = 1;
+    private static final byte KIND_REQUEST = 2;
+    private static final byte ARG_NUMBER = 0;
+    private static final byte ARG_STRING = 1;
+    // long 能无损表示的十进制位数
+    private static final int MAX_NUMBER_DIGITS = 18;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] encode(CommunicationMsg msg) {
+        boolean isRequest = msg.getRequest() != null;
+        CommunicationMsg.Method method = isRequest ? msg.getRequest() : msg.getOrder();
+
+        Writer writer = new Writer();
+        writer.skip(LENGTH_FIELD_SIZE);
+        writer.put(MAGIC);
+        writer.put((byte) VERSION);
+        writer.put(isRequest ? KIND_REQUEST : KIND_ORDER);
+        writer.putVarLong(Integer.parseInt(method.getName()));
+        writer.putString(isRequest ? msg.getAgentId() : null);
+        if (method.hasArgs()) {
+            writer.putVarLong(method.getArgs().length);
+            for (String arg : method.getArgs()) {
+                if (isCanonicalNumber(arg)) {
+                    writer.put(ARG_NUMBER);
+                    writer.putVarLong(Long.parseLong(arg));
+                } else {
+                    writer.put(ARG_STRING);
+                    writer.putString(arg);
+                }
+            }
+        } else {
+            writer.putVarLong(0);
+        }
+
+        int frameLength = writer.position - LENGTH_FIELD_SIZE;
+        writer.bytes[0] = (byte) (frameLength >>> 24);
+        writer.bytes[1] = (byte) (frameLength >>> 16);
+        writer.bytes[2] = (byte) (frameLength >>> 8);
+        writer.bytes[3] = (byte) frameLength;
+        return Arrays.copyOf(writer.bytes, writer.position);
+    }
+
+    @Override
+    public int frameLength(byte[] bytes, int offset, int length) {
+        if (length < LENGTH_FIELD_SIZE) {
+            return -1;
+        }
+        int frameLength = readLength(bytes, offset);
+        if (frameLength < 0 || frameLength > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Invalid F-RELAY/2 frame length: " + frameLength);
+        }
+        return length >= LENGTH_FIELD_SIZE + frameLength ? LENGTH_FIELD_SIZE + frameLength : -1;
+    }
+
+    @Override
+    public CommunicationMsg decode(byte[] bytes, int offset, int length) {
+        try {
+            Reader reader = new Reader(bytes, offset, offset + length);
+            int frameLength = readLength(bytes, offset);
+            if (frameLength + LENGTH_FIELD_SIZE != length) {
+                return null;
+            }
+            reader.position += LENGTH_FIELD_SIZE;
+            if (reader.get() != MAGIC || reader.get() != VERSION) {
+                return null;
+            }
+            byte kind = reader.get();
+            String name = formatCode(reader.getVarLong());
+            String agentId = reader.getString();
+            long argc = reader.getVarLong();
+            // 每个参数至少占 tag + 1 字节，按剩余长度限制参数个数，避免按伪造的 argc 分配数组
+            if (argc < 0 || argc > (reader.limit - reader.position) / 2) {
+                return null;
+            }
+            String[] args = null;
+            if (argc > 0) {
+                args = new String[(int) argc];
+                for (int i = 0; i < argc; i++) {
+                    byte tag = reader.get();
+                    args[i] = tag == ARG_NUMBER ? Long.toString(reader.getVarLong()) : reader.getString();
+                }
+            }
+
+            CommunicationMsg msg = new CommunicationMsg();
+            if (kind == KIND_REQUEST) {
+                msg.setAgentId(agentId);
+                msg.setRequest(new CommunicationMsg.Method(name, args));
+            } else {
+                msg.setOrder(new CommunicationMsg.Method(name, args));
+            }
+            return msg;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // 消息码固定为三位数字
+    private static String formatCode(long code) {
+        String str = Long.toString(code);
+        if (str.length() >= 3) {
+            return str;
+        }
+        return str.length() == 1 ? "00" + str : "0" + str;
+    }
+
+    private static boolean isCanonicalNumber(String str) {
+        if (str == null || str.isEmpty() || str.length() > MAX_NUMBER_DIGITS) {
+            return false;
+        }
+        if (str.length() > 1 && str.charAt(0) == '0') {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readLength(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static class Writer {
+        private byte[] bytes = new byte[64];
+        private int position;
+
+        private void ensure(int size) {
+            if (position + size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, position + size));
+            }
+        }
+
+        private void skip(int size) {
+            ensure(size);
+            position += size;
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            bytes[position++] = b;
+        }
+
+        private void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+        }
+
+        private void putString(String str) {
+            if (str == null) {
+                putVarLong(0);
+                return;
+            }
+            byte[] strBytes = str.getBytes(CommunicationProtocol.CHARSET);
+            putVarLong(strBytes.length + 1L);
+            ensure(strBytes.length);
+            System.arraycopy(strBytes, 0, bytes, position, strBytes.length);
+            position += strBytes.length;
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+
+        private Reader(byte[] bytes, int offset, int limit) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = limit;
+        }
+
+        private byte get() {
+            if (position >= limit) {
+                throw new ArrayIndexOutOfBoundsException(position);
+            }
+            return bytes[position++];
+        }
+
+        private long getVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new ArrayIndexOutOfBoundsException("varint too long");
+        }
+
+        private String getString() {
+            long encoded = getVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            // 按剩余长度比较，伪造的长度不会溢出；越界由 decode 统一按无效帧处理
+            long length = encoded - 1;
+            if (length < 0 || length > limit - position) {
+                throw new ArrayIndexOutOfBoundsException("string length " + length + " exceeds frame");
+            }
+            String str = new String(bytes, position, (int) length, CommunicationProtocol.CHARSET);
+            position += (int) length;
+            return str;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+
+/**
+ * 控制通道编解码器
+ * F-RELAY/1 为文本协议，F-RELAY/2 为带长度前缀的二进制协议，在注册通信通道时协商选用。
+ */
+public interface CommunicationCodec {
+    int version();
+
+    /**
+     * 编码为一个完整的帧；带request的消息按请求编码，否则按指令编码
+     */
+    byte[] encode(CommunicationMsg msg);
+
+    /**
+     * 从 offset 开始查找第一个完整帧，返回帧长度，数据不足一帧时返回-1
+     */
+    int frameLength(byte[] bytes, int offset, int length);
+
+    /**
+     * 解码一个完整的帧，格式不合法时返回null
+     */
+    CommunicationMsg decode(byte[] bytes, int offset, int length);
+
+    static CommunicationCodec of(int version) {
+        return version >= BinaryCommunicationCodec.VERSION ? BinaryCommunicationCodec.INSTANCE : TextCommunicationCodec.INSTANCE;
+    }
+}
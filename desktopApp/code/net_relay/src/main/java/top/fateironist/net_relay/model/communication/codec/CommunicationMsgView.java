@@ -0,0 +1,236 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * F-RELAY/1 享元解码视图
+ * 只记录 agentId、消息码与各参数在原始数据中的位置，按需就地比较或解析，不创建中间字符串。
+ * 同一个实例可以反复 wrap，wrap 之后原始数据不能被修改。
+ */
+public class CommunicationMsgView {
+    public static final int MAX_ARGS = 8;
+
+    private static final byte[] HEAD = (CommunicationProtocol.HEADER + CommunicationProtocol.BEGIN).getBytes(CommunicationProtocol.CHARSET);
+    private static final byte[] END = CommunicationProtocol.END.getBytes(CommunicationProtocol.CHARSET);
+    private static final byte[] AGENT_ID_PREFIX = (CommunicationProtocol.BODY_AGENT_ID_PREFIX + ":::").getBytes(CommunicationProtocol.CHARSET);
+    private static final byte[] REQUEST_PREFIX = (CommunicationProtocol.BODY_REQUEST_PREFIX + ":::").getBytes(CommunicationProtocol.CHARSET);
+    private static final byte[] ORDER_PREFIX = (CommunicationProtocol.BODY_ORDER_PREFIX + ":::").getBytes(CommunicationProtocol.CHARSET);
+
+    private ByteBuffer buffer;
+    private boolean valid;
+    private boolean order;
+
+    private int agentIdStart = -1;
+    private int agentIdEnd = -1;
+    private int codeStart;
+    private int codeEnd;
+    private int argCount;
+    private final int[] argStarts = new int[MAX_ARGS];
+    private final int[] argEnds = new int[MAX_ARGS];
+
+    /**
+     * 解析 buffer 中 [position, limit) 的一条完整消息，不改变 buffer 的 position/limit
+     */
+    public CommunicationMsgView wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.valid = false;
+        this.agentIdStart = this.agentIdEnd = -1;
+        this.codeStart = this.codeEnd = 0;
+        this.argCount = 0;
+
+        int position = buffer.position();
+        int limit = buffer.limit();
+        if (!matches(position, HEAD) || limit - position < HEAD.length + END.length || !matches(limit - END.length, END)) {
+            return this;
+        }
+        int bodyEnd = limit - END.length;
+        int lineStart = position + HEAD.length;
+        while (lineStart < bodyEnd) {
+            int lineEnd = indexOfCrlf(lineStart, bodyEnd);
+            if (lineEnd < 0) {
+                return this;
+            }
+            if (matches(lineStart, AGENT_ID_PREFIX)) {
+                agentIdStart = lineStart + AGENT_ID_PREFIX.length;
+                agentIdEnd = lineEnd;
+            } else if (matches(lineStart, REQUEST_PREFIX)) {
+                order = false;
+                if (!parseMethod(lineStart + REQUEST_PREFIX.length, lineEnd)) {
+                    return this;
+                }
+            } else if (matches(lineStart, ORDER_PREFIX)) {
+                order = true;
+                if (!parseMethod(lineStart + ORDER_PREFIX.length, lineEnd)) {
+                    return this;
+                }
+            }
+            lineStart = lineEnd + 2;
+        }
+        valid = codeEnd > codeStart;
+        return this;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean isOrder() {
+        return valid && order;
+    }
+
+    public boolean isRequest() {
+        return valid && !order;
+    }
+
+    public boolean codeEquals(String code) {
+        return valid && rangeEquals(codeStart, codeEnd, code);
+    }
+
+    public boolean agentIdEquals(CharSequence agentId) {
+        return valid && agentIdStart >= 0 && rangeEquals(agentIdStart, agentIdEnd, agentId);
+    }
+
+    public int argCount() {
+        return argCount;
+    }
+
+    public boolean argEquals(int index, CharSequence value) {
+        checkArg(index);
+        return rangeEquals(argStarts[index], argEnds[index], value);
+    }
+
+    public int argAsInt(int index) {
+        checkArg(index);
+        int start = argStarts[index];
+        int end = argEnds[index];
+        boolean negative = end > start && buffer.get(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            throw new NumberFormatException("Empty numeric arg at " + index);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid numeric arg at " + index);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("Numeric arg overflow at " + index);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Numeric arg overflow at " + index);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 取出参数字符串（会分配），仅用于非热路径
+     */
+    public String argAsString(int index) {
+        checkArg(index);
+        return string(argStarts[index], argEnds[index]);
+    }
+
+    public String agentIdAsString() {
+        return agentIdStart < 0 ? null : string(agentIdStart, agentIdEnd);
+    }
+
+    public String codeAsString() {
+        return valid ? string(codeStart, codeEnd) : null;
+    }
+
+    // name 或 name=[a,b,...]
+    private boolean parseMethod(int start, int end) {
+        argCount = 0;
+        int eq = indexOf((byte) '=', start, end);
+        if (eq < 0) {
+            codeStart = start;
+            codeEnd = end;
+            return true;
+        }
+        codeStart = start;
+        codeEnd = eq;
+        if (end - eq < 3 || buffer.get(eq + 1) != '[' || buffer.get(end - 1) != ']') {
+            return false;
+        }
+        int argStart = eq + 2;
+        int argsEnd = end - 1;
+        while (true) {
+            int comma = indexOf((byte) ',', argStart, argsEnd);
+            int argEnd = comma < 0 ? argsEnd : comma;
+            if (argCount == MAX_ARGS) {
+                return false;
+            }
+            argStarts[argCount] = argStart;
+            argEnds[argCount] = argEnd;
+            argCount++;
+            if (comma < 0) {
+                return true;
+            }
+            argStart = comma + 1;
+        }
+    }
+
+    private void checkArg(int index) {
+        if (!valid || index < 0 || index >= argCount) {
+            throw new IndexOutOfBoundsException("Arg index " + index + " out of " + argCount);
+        }
+    }
+
+    private boolean matches(int position, byte[] expected) {
+        if (position < buffer.position() || position + expected.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(position + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 参数与消息码均为ASCII，非ASCII字符直接视为不相等
+    private boolean rangeEquals(int start, int end, CharSequence value) {
+        if (value == null || end - start != value.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i - start);
+            if (c >= 0x80 || buffer.get(i) != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOfCrlf(int start, int end) {
+        for (int i = start; i < end - 1; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, CommunicationProtocol.CHARSET);
+    }
+}
@@ -0,0 +1,154 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * F-RELAY/1 零分配编码
+ * 直接写入调用方提供的ByteBuffer，输出与 CommunicationMsg.buildBytesRequestMessage/buildBytesOrderMessage 逐字节一致；
+ * 按参数个数提供固定重载，不经过 StringBuilder/String/byte[]。
+ * 空间不足时抛出 BufferOverflowException，此时 buffer 的 position 保持不变。
+ */
+public class CommunicationMsgWriter {
+    private static final byte[] HEAD = bytes(CommunicationProtocol.HEADER + CommunicationProtocol.BEGIN);
+    private static final byte[] END = bytes(CommunicationProtocol.END);
+    private static final byte[] AGENT_ID_PREFIX = bytes(CommunicationProtocol.BODY_AGENT_ID_PREFIX + ":::");
+    private static final byte[] REQUEST_PREFIX = bytes(CommunicationProtocol.BODY_REQUEST_PREFIX + ":::");
+    private static final byte[] ORDER_PREFIX = bytes(CommunicationProtocol.BODY_ORDER_PREFIX + ":::");
+
+    public static int putRequest(ByteBuffer buffer, CharSequence agentId, String code) {
+        int start = buffer.position();
+        try {
+            beginRequest(buffer, agentId, code);
+            return finish(buffer, start);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    public static int putRequest(ByteBuffer buffer, CharSequence agentId, String code, CharSequence arg0) {
+        int start = buffer.position();
+        try {
+            beginRequest(buffer, agentId, code);
+            buffer.put((byte) '=').put((byte) '[');
+            putChars(buffer, arg0);
+            buffer.put((byte) ']');
+            return finish(buffer, start);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    public static int putRequest(ByteBuffer buffer, CharSequence agentId, String code, int arg0, CharSequence arg1) {
+        int start = buffer.position();
+        try {
+            beginRequest(buffer, agentId, code);
+            buffer.put((byte) '=').put((byte) '[');
+            putInt(buffer, arg0);
+            buffer.put((byte) ',');
+            putChars(buffer, arg1);
+            buffer.put((byte) ']');
+            return finish(buffer, start);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    public static int putRequest(ByteBuffer buffer, CharSequence agentId, String code, int arg0, CharSequence arg1, CharSequence arg2) {
+        int start = buffer.position();
+        try {
+            beginRequest(buffer, agentId, code);
+            buffer.put((byte) '=').put((byte) '[');
+            putInt(buffer, arg0);
+            buffer.put((byte) ',');
+            putChars(buffer, arg1);
+            buffer.put((byte) ',');
+            putChars(buffer, arg2);
+            buffer.put((byte) ']');
+            return finish(buffer, start);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    public static int putOrder(ByteBuffer buffer, String code) {
+        int start = buffer.position();
+        try {
+            buffer.put(HEAD).put(ORDER_PREFIX);
+            putChars(buffer, code);
+            return finish(buffer, start);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    private static void beginRequest(ByteBuffer buffer, CharSequence agentId, String code) {
+        buffer.put(HEAD).put(AGENT_ID_PREFIX);
+        putChars(buffer, agentId);
+        buffer.put((byte) '\r').put((byte) '\n').put(REQUEST_PREFIX);
+        putChars(buffer, code);
+    }
+
+    private static int finish(ByteBuffer buffer, int start) {
+        buffer.put((byte) '\r').put((byte) '\n').put(END);
+        return buffer.position() - start;
+    }
+
+    // 按UTF-8逐字符写入，ASCII直接写单字节；与 String.getBytes(UTF_8) 结果一致（包括 null 写作 "null"）
+    static void putChars(ByteBuffer buffer, CharSequence chars) {
+        if (chars == null) {
+            chars = "null";
+        }
+        for (int i = 0, len = chars.length(); i < len; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, chars.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static void putInt(ByteBuffer buffer, int value) {
+        if (value == Integer.MIN_VALUE) {
+            putChars(buffer, "-2147483648");
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(CommunicationProtocol.CHARSET);
+    }
+}
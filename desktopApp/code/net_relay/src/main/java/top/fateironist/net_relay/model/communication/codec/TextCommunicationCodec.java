@@ -0,0 +1,33 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+
+/**
+ * F-RELAY/1 文本协议
+ */
+public class TextCommunicationCodec implements CommunicationCodec {
+    public static final int VERSION = 1;
+    public static final TextCommunicationCodec INSTANCE = new TextCommunicationCodec();
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] encode(CommunicationMsg msg) {
+        return msg.getRequest() != null ? msg.buildBytesRequestMessage() : msg.buildBytesOrderMessage();
+    }
+
+    @Override
+    public int frameLength(byte[] bytes, int offset, int length) {
+        int end = CommunicationMsg.findMsgEnd(bytes, offset, length);
+        return end < 0 ? -1 : end - offset + 1;
+    }
+
+    @Override
+    public CommunicationMsg decode(byte[] bytes, int offset, int length) {
+        return CommunicationMsg.parse(new String(bytes, offset, length, CommunicationProtocol.CHARSET));
+    }
+}
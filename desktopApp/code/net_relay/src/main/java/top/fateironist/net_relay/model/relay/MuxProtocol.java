@@ -0,0 +1,45 @@
+package top.fateironist.net_relay.model.relay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 中转多路复用协议
+ * 多路复用连接建立后先发送一条 F-RELAY/1 的 013 请求，之后双方只收发二进制帧：
+ * type(1B) | streamId(4B) | length(4B) | payload
+ * OPEN：客户端已连上被代理端，payload = window(4B) | proxiedPort(4B) | tempId(UTF-8)，取代独立中转连接上的008
+ * DATA：payload为数据，发送量受对端为该流开放的窗口限制
+ * WINDOW：payload = increment(4B)，接收方写出数据后归还窗口
+ * CLOSE：关闭该流，无payload
+ * 两个方向的初始窗口均为OPEN中声明的window。
+ */
+public class MuxProtocol {
+    public static final byte TYPE_OPEN = 1;
+    public static final byte TYPE_DATA = 2;
+    public static final byte TYPE_WINDOW = 3;
+    public static final byte TYPE_CLOSE = 4;
+
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_DATA_PAYLOAD = 16 * 1024;
+    // OPEN帧中tempId的最大长度
+    public static final int MAX_OPEN_PAYLOAD = 8 + 256;
+    public static final int DEFAULT_STREAM_WINDOW = 256 * 1024;
+
+    public static void putHeader(ByteBuffer buffer, byte type, int streamId, int length) {
+        buffer.put(type);
+        buffer.putInt(streamId);
+        buffer.putInt(length);
+    }
+
+    public static void putWindow(ByteBuffer buffer, int streamId, int increment) {
+        putHeader(buffer, TYPE_WINDOW, streamId, 4);
+        buffer.putInt(increment);
+    }
+
+    public static void putClose(ByteBuffer buffer, int streamId) {
+        putHeader(buffer, TYPE_CLOSE, streamId, 0);
+    }
+
+    public static int frameLength(ByteBuffer buffer, int position) {
+        return HEADER_SIZE + buffer.getInt(position + 5);
+    }
+}
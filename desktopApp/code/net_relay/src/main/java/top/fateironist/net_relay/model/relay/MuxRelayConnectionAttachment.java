@@ -0,0 +1,83 @@
+package top.fateironist.net_relay.model.relay;
+
+import lombok.Getter;
+import lombok.Setter;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+import top.fateironist.net_relay.common.timer.TimerNode;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多路复用中转连接
+ * 每个事件循环至多一条，承载分配到该循环的所有TCP中转流；只在所属事件循环线程中访问。
+ */
+@Getter
+@Setter
+public class MuxRelayConnectionAttachment {
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private SocketChannel channel;
+    private SelectionKey selectionKey;
+    private boolean connected;
+    private boolean closed;
+    private TimerNode connectTimer;
+
+    // readBuffer 处于写模式，累积未解析完的帧；writeBuffer 处于写模式，积攒待发送的帧
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+
+    private final Map<Integer, TcpRelayChannelPairAttachment> streams = new HashMap<>();
+    // 被代理端已连上、等待多路复用连接建立后再发送OPEN的流
+    private final List<TcpRelayChannelPairAttachment> pendingOpens = new ArrayList<>();
+    // 有待发送数据的流，轮转发送
+    private final ArrayDeque<TcpRelayChannelPairAttachment> sendQueue = new ArrayDeque<>();
+    private int nextStreamId = 1;
+
+    public void allocateBuffers() {
+        this.readBuffer = BufferPool.allocate(BUFFER_SIZE);
+        this.writeBuffer = BufferPool.allocate(BUFFER_SIZE);
+    }
+
+    public int allocateStreamId() {
+        return nextStreamId++;
+    }
+
+    /**
+     * 保证写缓冲区至少还能写入 size 字节，控制帧不能因为数据帧占满缓冲区而丢失
+     * 扩容同样经过缓冲池，close时归还给池的都是池中申请的缓冲区
+     */
+    public void ensureWritable(int size) {
+        if (writeBuffer.remaining() < size) {
+            ByteBuffer larger = BufferPool.allocate(Math.max(writeBuffer.capacity() << 1, writeBuffer.position() + size));
+            writeBuffer.flip();
+            larger.put(writeBuffer);
+            BufferPool.release(writeBuffer);
+            writeBuffer = larger;
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (selectionKey != null) selectionKey.cancel();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (Exception e) {
+            }
+        }
+        BufferPool.release(readBuffer);
+        readBuffer = null;
+        BufferPool.release(writeBuffer);
+        writeBuffer = null;
+    }
+}
@@ -1,6 +1,11 @@
 package top.fateironist.net_relay.model.relay;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import top.fateironist.net_relay.common.timer.MonotonicClock;
+import top.fateironist.net_relay.common.timer.TimerNode;
+import top.fateironist.net_relay.core.metrics.ProxyTrafficMetrics;
 import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
 
 import java.nio.channels.Channel;
@@ -18,6 +23,28 @@ public class RelayChannelAttachment {
 
     private boolean isClosed;
 
+    // 空闲超时，<=0表示不超时
+    private long idleTimeout;
+    // 单调时钟（ms），只用于计算空闲时长
+    private long lastActiveTime = MonotonicClock.millis();
+    // 空闲到期定时节点，由所属事件循环的时间轮复用调度
+    private TimerNode idleTimer;
+
+    // 所属代理的流量统计，开始建立中转通道时设置
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private ProxyTrafficMetrics trafficMetrics;
+    private boolean trafficSessionOpen;
+
+    // 建立过程各阶段的时间点（ns），用于统计建立耗时；收到007/009时创建本对象
+    private long orderTime = System.nanoTime();
+    private long setupStartTime;
+    // 发出008/010的时刻，记录首字节耗时后清零
+    private long establishedTime;
+
+    public void refresh() {
+        lastActiveTime = MonotonicClock.millis();
+    }
 
     public void closeChannel(Channel channel) {
         if (channel != null) {
@@ -0,0 +1,84 @@
+package top.fateironist.net_relay.model.relay;
+
+import lombok.Getter;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+import top.fateironist.net_relay.common.compression.BlockCompressor;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一个TCP中转通道中转侧的压缩状态
+ * encodeBuffer：待写往中转服务端的帧（写模式）；decodeBuffer：从中转服务端读到、尚未解码的帧（写模式）；
+ * plainBuffer：已解码、尚未放入 inBuffer 的数据（读模式）。
+ * 连续多个块压缩无效时跳过一段块不再尝试，跳过的块数逐次翻倍，压缩重新有效后恢复。
+ */
+@Getter
+public class RelayCompressionState {
+    // 连续无效多少块后开始跳过
+    private static final int MISS_THRESHOLD = 4;
+    private static final int MIN_SKIP_BLOCKS = 16;
+    private static final int MAX_SKIP_BLOCKS = 1024;
+
+    private final RelayCompressionEnum type;
+
+    private ByteBuffer encodeBuffer;
+    private ByteBuffer decodeBuffer;
+    private ByteBuffer plainBuffer;
+
+    private int consecutiveMisses;
+    private int skipBlocks;
+    private int skipLimit = MIN_SKIP_BLOCKS;
+
+    public RelayCompressionState(RelayCompressionEnum type) {
+        this.type = type;
+    }
+
+    public void allocateBuffers() {
+        if (encodeBuffer == null) {
+            encodeBuffer = BufferPool.allocate(BlockCompressor.MAX_BLOCK_SIZE * 2);
+        }
+        if (decodeBuffer == null) {
+            decodeBuffer = BufferPool.allocate(BlockCompressor.MAX_BLOCK_SIZE * 2);
+        }
+        if (plainBuffer == null) {
+            plainBuffer = BufferPool.allocate(BlockCompressor.MAX_BLOCK_SIZE);
+            plainBuffer.limit(0);
+        }
+    }
+
+    /**
+     * 本块是否尝试压缩，处于跳过阶段时返回 false
+     */
+    public boolean shouldCompress() {
+        if (skipBlocks > 0) {
+            skipBlocks--;
+            return false;
+        }
+        return true;
+    }
+
+    public void recordResult(boolean effective) {
+        if (effective) {
+            consecutiveMisses = 0;
+            skipLimit = MIN_SKIP_BLOCKS;
+        } else if (++consecutiveMisses >= MISS_THRESHOLD) {
+            consecutiveMisses = 0;
+            skipBlocks = skipLimit;
+            skipLimit = Math.min(skipLimit << 1, MAX_SKIP_BLOCKS);
+        }
+    }
+
+    public boolean hasPendingDecoded() {
+        return plainBuffer != null && plainBuffer.hasRemaining();
+    }
+
+    public void release() {
+        BufferPool.release(encodeBuffer);
+        encodeBuffer = null;
+        BufferPool.release(decodeBuffer);
+        decodeBuffer = null;
+        BufferPool.release(plainBuffer);
+        plainBuffer = null;
+    }
+}
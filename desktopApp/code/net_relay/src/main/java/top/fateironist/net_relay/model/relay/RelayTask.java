@@ -9,15 +9,8 @@ public class RelayTask {
 
     private RelayChannelAttachment relayChannelAttachment;
 
-    private TcpRelayChannelPairAttachmentWrapper tcpRelayChannelPairAttachmentWrapper;
-
     public RelayTask(RelayTaskType taskType, RelayChannelAttachment attachment) {
         this.taskType = taskType;
         this.relayChannelAttachment = attachment;
     }
-
-    public RelayTask(RelayTaskType taskType, TcpRelayChannelPairAttachmentWrapper tcpRelayChannelPairAttachmentWrapper) {
-        this.taskType = taskType;
-        this.tcpRelayChannelPairAttachmentWrapper = tcpRelayChannelPairAttachmentWrapper;
-    }
 }
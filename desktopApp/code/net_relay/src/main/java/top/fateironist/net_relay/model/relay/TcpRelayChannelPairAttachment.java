@@ -1,7 +1,14 @@
 package top.fateironist.net_relay.model.relay;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
+import top.fateironist.net_relay.common.buffer.AdaptiveBufferSizer;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+import top.fateironist.net_relay.common.timer.MonotonicClock;
+import top.fateironist.net_relay.common.timer.TimerNode;
 import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
 
 import java.nio.ByteBuffer;
@@ -34,11 +41,59 @@ public class TcpRelayChannelPairAttachment extends RelayChannelAttachment {
     private ByteBuffer outBuffer;
 //    private boolean outBufferWriteContinue;
 
+    // 按方向自适应调整缓冲区大小
+    private AdaptiveBufferSizer inBufferSizer;
+    private AdaptiveBufferSizer outBufferSizer;
+
+    // MTU聚合等待定时节点，由所属事件循环的时间轮复用调度
+    private TimerNode inFlushTimer;
+    private TimerNode outFlushTimer;
+    // 空闲缓冲区收缩检查的定时节点，由所属事件循环的过期时间轮调度
+    private TimerNode bufferShrinkTimer;
+
     private SocketChannel responseChannel;
     private SelectionKey responseChannelSelectionKey;
     private SocketChannel relayChannel;
     private SelectionKey relayChannelSelectionKey;
 
+    // 两个SelectionKey各自的方向句柄，首次注册时在事件循环线程中创建，之后只通过interestOps修改关注事件
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private TcpRelayChannelPairAttachmentWrapper responseChannelHandle;
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private TcpRelayChannelPairAttachmentWrapper relayChannelHandle;
+
+    // 非阻塞建立连接的状态
+    private boolean responseConnected;
+    private boolean relayConnected;
+    private TimerNode connectTimer;
+
+    // 背压：对应方向的缓冲区达到高水位后暂停读取来源（in 为中转服务端，out 为被代理端）
+    private boolean inReadPaused;
+    private boolean outReadPaused;
+
+    // 多路复用模式下为所属连接中的一个流，relayChannel 为空
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private MuxRelayConnectionAttachment mux;
+    private int streamId;
+    // 对端为本流开放的剩余发送窗口
+    private int sendWindow;
+    // 已写往被代理端、尚未归还给对端的字节数
+    private int recvConsumed;
+    private boolean muxSendQueued;
+    // 被代理端已关闭，outBuffer 中剩余数据发完后关闭该流
+    private boolean localEof;
+
+    // 中转侧压缩，未启用时为空
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private RelayCompressionState compression;
+
+    // 缓冲区最近一次写入的时间，单调时钟（ms）
     private long inBufferLastWriteTime;
     private long outBufferLastWriteTime;
     private long createTime;
@@ -50,31 +105,98 @@ public class TcpRelayChannelPairAttachment extends RelayChannelAttachment {
         setProxiedPort(proxiedPort);
         setProxyPort(proxyPort);
 
-        this.inBuffer = ByteBuffer.allocateDirect(DEFAULT_TCP_BUFFER_SIZE);
+        this.inBufferLastWriteTime = MonotonicClock.millis();
+        this.outBufferLastWriteTime = MonotonicClock.millis();
+        this.createTime = System.currentTimeMillis();
+        setClosed(false);
+    }
+
+    public TcpRelayChannelPairAttachmentWrapper getResponseChannelHandle() {
+        if (responseChannelHandle == null) {
+            responseChannelHandle = new TcpRelayChannelPairAttachmentWrapper(false, this);
+        }
+        return responseChannelHandle;
+    }
+
+    public TcpRelayChannelPairAttachmentWrapper getRelayChannelHandle() {
+        if (relayChannelHandle == null) {
+            relayChannelHandle = new TcpRelayChannelPairAttachmentWrapper(true, this);
+        }
+        return relayChannelHandle;
+    }
+
+    /**
+     * 从缓冲池申请读写缓冲区，应在所属事件循环线程中调用
+     */
+    public void allocateBuffers(int minBufferSize, int maxBufferSize) {
+        this.inBufferSizer = new AdaptiveBufferSizer(minBufferSize, maxBufferSize);
+        this.outBufferSizer = new AdaptiveBufferSizer(minBufferSize, maxBufferSize);
+        if (this.inBuffer == null) {
+            this.inBuffer = BufferPool.allocate(inBufferSizer.size());
+        }
 //        this.inBufferWriteContinue = false;
-        this.outBuffer = ByteBuffer.allocateDirect(DEFAULT_TCP_BUFFER_SIZE);
+        if (this.outBuffer == null) {
+            this.outBuffer = BufferPool.allocate(outBufferSizer.size());
+        }
 //        this.outBufferWriteContinue = false;
+    }
 
-        this.inBufferLastWriteTime = System.currentTimeMillis();
-        this.outBufferLastWriteTime = System.currentTimeMillis();
-        this.createTime = System.currentTimeMillis();
-        setClosed(false);
+    /**
+     * 多路复用模式：inBuffer 固定为流窗口大小，保证对端在窗口内发送的数据总能放下
+     */
+    public void allocateStreamBuffers(int streamWindow, int minBufferSize, int maxBufferSize) {
+        this.outBufferSizer = new AdaptiveBufferSizer(minBufferSize, maxBufferSize);
+        if (this.inBuffer == null) {
+            this.inBuffer = BufferPool.allocate(streamWindow);
+        }
+        if (this.outBuffer == null) {
+            this.outBuffer = BufferPool.allocate(outBufferSizer.size());
+        }
     }
 
-    public SocketChannel getTcpResponseChannel() {
-        return responseChannel;
+    public boolean isMuxStream() {
+        return mux != null;
     }
 
-    public SocketChannel getTcpRelayChannel() {
-        return relayChannel;
+    /**
+     * 缓冲区为空时按自适应尺寸更换缓冲区
+     */
+    public void adjustInBuffer() {
+        if (inBufferSizer != null && inBuffer != null && inBuffer.position() == 0 && inBuffer.capacity() != inBufferSizer.size()) {
+            BufferPool.release(inBuffer);
+            inBuffer = BufferPool.allocate(inBufferSizer.size());
+        }
+    }
+
+    public void adjustOutBuffer() {
+        if (outBuffer != null && outBuffer.position() == 0 && outBuffer.capacity() != outBufferSizer.size()) {
+            BufferPool.release(outBuffer);
+            outBuffer = BufferPool.allocate(outBufferSizer.size());
+        }
     }
 
-    public boolean isWriteInTimeout() {
-        return System.currentTimeMillis() - inBufferLastWriteTime >= MTU_AGGREGATION_WAIT_TIME;
+    /**
+     * 超过 idleTime 没有写出数据且已经写空的方向，缓冲区缩回最小尺寸，原缓冲区归还缓冲池
+     */
+    public void shrinkIdleBuffers(long now, long idleTime) {
+        if (inBufferSizer != null && inBuffer != null && inBuffer.position() == 0
+                && inBuffer.capacity() > inBufferSizer.minSize() && now - inBufferLastWriteTime >= idleTime) {
+            inBufferSizer.reset();
+            adjustInBuffer();
+        }
+        if (outBufferSizer != null && outBuffer != null && outBuffer.position() == 0
+                && outBuffer.capacity() > outBufferSizer.minSize() && now - outBufferLastWriteTime >= idleTime) {
+            outBufferSizer.reset();
+            adjustOutBuffer();
+        }
     }
 
-    public boolean isWriteOutTimeout() {
-        return System.currentTimeMillis() - outBufferLastWriteTime >= MTU_AGGREGATION_WAIT_TIME;
+    public SocketChannel getTcpResponseChannel() {
+        return responseChannel;
+    }
+
+    public SocketChannel getTcpRelayChannel() {
+        return relayChannel;
     }
 
     public void close() {
@@ -86,6 +208,12 @@ public class TcpRelayChannelPairAttachment extends RelayChannelAttachment {
 
             closeChannel(this.relayChannel);
             closeChannel(this.responseChannel);
+
+            BufferPool.release(this.inBuffer);
+            this.inBuffer = null;
+            BufferPool.release(this.outBuffer);
+            this.outBuffer = null;
+            if (this.compression != null) this.compression.release();
         }
     }
 
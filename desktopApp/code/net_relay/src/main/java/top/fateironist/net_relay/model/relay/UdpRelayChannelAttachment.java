@@ -2,31 +2,35 @@ package top.fateironist.net_relay.model.relay;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import top.fateironist.net_relay.common.buffer.DatagramQueue;
+import top.fateironist.net_relay.common.timer.MonotonicClock;
+import top.fateironist.net_relay.model.relay.enums.DatagramDropPolicy;
 import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 
 @Data
 @EqualsAndHashCode(callSuper = true)
 public class UdpRelayChannelAttachment extends RelayChannelAttachment {
+    public static final long DEFAULT_UDP_IDLE_TIMEOUT = 30 * 1000; // ms
+
     private int localPort;
     private int remotePort;
     private SocketAddress remoteAddress;
+    // 发往被代理端的地址，创建时解析一次
+    private SocketAddress localAddress;
 
     private String channelId;
 
     private DatagramChannel datagramChannel;
     private SelectionKey selectionKey;
 
-    private ByteBuffer tempBuffer;
-    private ByteBuffer inBuffer;
-    private ByteBuffer outBuffer;
-
-    private long lastActiveTime = System.currentTimeMillis();
+    // 系统发送缓冲区满时待发送的数据报：inQueue 发往被代理端，outQueue 发往中转服务端
+    private DatagramQueue inQueue;
+    private DatagramQueue outQueue;
 
     public Integer extractPort(SocketAddress address) {
         return Integer.valueOf(address.toString().split(":")[1]);
@@ -37,18 +41,32 @@ public class UdpRelayChannelAttachment extends RelayChannelAttachment {
         return inetSocketAddress.getAddress().isLoopbackAddress();
     }
 
-    public ByteBuffer getInBufferOrCreate() {
-        if (inBuffer == null) {
-            inBuffer = ByteBuffer.allocate(DEFAULT_UDP_BUFFER_SIZE * 8);
+    // 数据报来自中转服务端
+    public boolean isFromRemote(SocketAddress address) {
+        return remoteAddress.equals(address);
+    }
+
+    // 数据报来自被代理端
+    public boolean isFromLocal(SocketAddress address) {
+        return isLocal(address) && ((InetSocketAddress) address).getPort() == localPort;
+    }
+
+    public DatagramQueue getInQueueOrCreate(int maxPackets, int maxBytes, DatagramDropPolicy dropPolicy) {
+        if (inQueue == null) {
+            inQueue = new DatagramQueue(maxPackets, maxBytes, dropPolicy);
         }
-        return inBuffer;
+        return inQueue;
     }
 
-    public ByteBuffer getOutBufferOrCreate() {
-        if (outBuffer == null) {
-            outBuffer = ByteBuffer.allocate(DEFAULT_UDP_BUFFER_SIZE * 8);
+    public DatagramQueue getOutQueueOrCreate(int maxPackets, int maxBytes, DatagramDropPolicy dropPolicy) {
+        if (outQueue == null) {
+            outQueue = new DatagramQueue(maxPackets, maxBytes, dropPolicy);
         }
-        return outBuffer;
+        return outQueue;
+    }
+
+    public boolean hasQueuedDatagrams() {
+        return (inQueue != null && !inQueue.isEmpty()) || (outQueue != null && !outQueue.isEmpty());
     }
 
     public UdpRelayChannelAttachment(String agentId, Integer proxiedPort, Integer proxyPort,String remoteHost ,Integer remotePort, String channelId) {
@@ -62,25 +80,36 @@ public class UdpRelayChannelAttachment extends RelayChannelAttachment {
         this.channelId = channelId;
 
         this.remoteAddress = new InetSocketAddress(remoteHost, remotePort);
+        this.localAddress = new InetSocketAddress("localhost", proxiedPort);
 
-        this.tempBuffer = ByteBuffer.allocate(DEFAULT_UDP_BUFFER_SIZE);
+        setIdleTimeout(DEFAULT_UDP_IDLE_TIMEOUT);
 
         setClosed(false);
     }
 
-    public boolean shouldClose() {
-        return isClosed() || System.currentTimeMillis() - lastActiveTime > 1000 * 30;
+    public void releaseQueues() {
+        if (inQueue != null) {
+            inQueue.clear();
+        }
+        if (outQueue != null) {
+            outQueue.clear();
+        }
     }
 
-    public void refresh() {
-        lastActiveTime = System.currentTimeMillis();
+    public boolean shouldClose() {
+        return isClosed() || (getIdleTimeout() > 0 && MonotonicClock.millis() - getLastActiveTime() > getIdleTimeout());
     }
 
     public void close() {
+        if (isClosed()) {
+            return;
+        }
         setClosed(true);
         if (this.selectionKey != null) {
             this.selectionKey.cancel();
             closeChannel(datagramChannel);
         }
+
+        releaseQueues();
     }
 }
@@ -0,0 +1,8 @@
+package top.fateironist.net_relay.model.relay.enums;
+
+public enum DatagramDropPolicy {
+    // 队列满时丢弃最早入队的数据报，保留最新数据（适合状态同步类流量）
+    DROP_OLDEST,
+    // 队列满时丢弃新到达的数据报
+    DROP_NEWEST;
+}
@@ -0,0 +1,58 @@
+package top.fateironist.net_relay.model.relay.enums;
+
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+
+public enum RelayCompressionEnum {
+    // 快速LZ，CPU开销低
+    LZ("lz"),
+    // Deflate，压缩率更高
+    DEFLATE("deflate");
+
+    // 001/002/008中使用的名称
+    String code;
+    RelayCompressionEnum(String code) {
+        this.code = code;
+    }
+    public String getCode() {
+        return code;
+    }
+
+    public static RelayCompressionEnum of(String code) {
+        for (RelayCompressionEnum value : values()) {
+            if (value.code.equals(code)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    // 按 COMPRESSION_SEPARATOR 拼接，用于001/002
+    public static String joinCodes(Collection<RelayCompressionEnum> values) {
+        StringJoiner joiner = new StringJoiner(CommunicationProtocol.COMPRESSION_SEPARATOR);
+        for (RelayCompressionEnum value : values) {
+            joiner.add(value.code);
+        }
+        return joiner.toString();
+    }
+
+    // 解析001/002中的压缩方式列表，忽略不认识的名称
+    public static Set<RelayCompressionEnum> parseCodes(String codes) {
+        Set<RelayCompressionEnum> values = EnumSet.noneOf(RelayCompressionEnum.class);
+        if (codes == null) {
+            return values;
+        }
+        for (String code : codes.split(Pattern.quote(CommunicationProtocol.COMPRESSION_SEPARATOR))) {
+            RelayCompressionEnum value = of(code);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
@@ -3,5 +3,5 @@ package top.fateironist.net_relay.model.relay.enums;
 public enum RelayTaskType {
     REGISTER_RELAY_CHANNEL,
     REGISTER_RELAY_CHANNEL_FORMALLY,
-    TCP_INTERSET_EVENT,
+    CLOSE_RELAY_CHANNEL,
 }
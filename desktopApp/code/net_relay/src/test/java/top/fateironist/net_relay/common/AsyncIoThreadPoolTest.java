@@ -0,0 +1,81 @@
+package top.fateironist.net_relay.common;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.model.common.enums.AsyncIoModeEnum;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncIoThreadPoolTest {
+
+    /**
+     * 各实例的执行器相互独立，关闭其中一个不影响另一个
+     */
+    @Test
+    void instancesAreIndependent() throws Exception {
+        AsyncIoThreadPool virtual = new AsyncIoThreadPool(AsyncIoModeEnum.VIRTUAL);
+        AsyncIoThreadPool platform = new AsyncIoThreadPool(AsyncIoModeEnum.PLATFORM);
+        try {
+            assertEquals(AsyncIoModeEnum.VIRTUAL, virtual.getMode());
+            assertEquals(AsyncIoModeEnum.PLATFORM, platform.getMode());
+
+            platform.shutdown();
+            CountDownLatch latch = new CountDownLatch(1);
+            virtual.execute(latch::countDown);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(1, virtual.getSubmittedCount());
+            assertEquals(0, platform.getSubmittedCount());
+        } finally {
+            virtual.shutdown();
+            platform.shutdown();
+        }
+    }
+
+    /**
+     * 关闭后两种模式都拒绝新任务，不会再由虚拟线程接手执行
+     */
+    @Test
+    void rejectsTasksAfterShutdown() throws Exception {
+        for (AsyncIoModeEnum mode : AsyncIoModeEnum.values()) {
+            AsyncIoThreadPool pool = new AsyncIoThreadPool(mode);
+            pool.shutdown();
+            AtomicBoolean ran = new AtomicBoolean();
+            assertThrows(RejectedExecutionException.class, () -> pool.execute(() -> ran.set(true)));
+            assertThrows(RejectedExecutionException.class,
+                    () -> pool.executeWithTimeoutIgnoreException(() -> ran.set(true), 1, TimeUnit.SECONDS, e -> {
+                    }));
+            Thread.sleep(50);
+            assertFalse(ran.get(), mode.name());
+            assertEquals(2, pool.getRejectedCount());
+            assertEquals(0, pool.getSubmittedCount());
+        }
+    }
+
+    @Test
+    void timeoutCancelsTaskAndCallsBack() throws Exception {
+        AsyncIoThreadPool pool = new AsyncIoThreadPool(AsyncIoModeEnum.VIRTUAL);
+        try {
+            CompletableFuture<Exception> error = new CompletableFuture<>();
+            CountDownLatch interrupted = new CountDownLatch(1);
+            pool.executeWithTimeoutIgnoreException(() -> {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, 50, TimeUnit.MILLISECONDS, error::complete);
+
+            assertInstanceOf(TimeoutException.class, error.get(5, TimeUnit.SECONDS));
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            assertEquals(1, pool.getTimeoutCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
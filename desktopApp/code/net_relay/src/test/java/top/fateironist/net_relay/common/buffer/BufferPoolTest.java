@@ -0,0 +1,59 @@
+package top.fateironist.net_relay.common.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void allocateRoundsUpToSizeClass() {
+        ByteBuffer buffer = BufferPool.allocate(3000);
+        assertEquals(4 * 1024, buffer.capacity());
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(buffer.capacity(), buffer.limit());
+        BufferPool.release(buffer);
+    }
+
+    /**
+     * 线程缓存超出上限的部分归还全局队列，解绑后全部归还，租出字节数回到原值
+     */
+    @Test
+    void threadCacheKeepsLeaseAccounting() {
+        long leasedBefore = BufferPool.getLeasedBytes();
+        BufferPool.bindThreadCache();
+        try {
+            List<ByteBuffer> buffers = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                buffers.add(BufferPool.allocate(16 * 1024));
+            }
+            assertEquals(leasedBefore + 64L * 16 * 1024, BufferPool.getLeasedBytes());
+            buffers.forEach(BufferPool::release);
+            assertEquals(leasedBefore, BufferPool.getLeasedBytes());
+
+            // 缓存中的缓冲区被复用，不再切分新的slab
+            long reserved = BufferPool.getReservedBytes();
+            BufferPool.release(BufferPool.allocate(16 * 1024));
+            assertEquals(reserved, BufferPool.getReservedBytes());
+        } finally {
+            BufferPool.unbindThreadCache();
+        }
+        assertEquals(leasedBefore, BufferPool.getLeasedBytes());
+    }
+
+    @Test
+    void oversizedAllocationsAreUnpooled() {
+        long unpooled = BufferPool.getUnpooledAllocations();
+        ByteBuffer buffer = BufferPool.allocate(BufferPool.MAX_CHUNK_SIZE + 1);
+        assertEquals(BufferPool.MAX_CHUNK_SIZE + 1, buffer.capacity());
+        assertEquals(unpooled + 1, BufferPool.getUnpooledAllocations());
+        long leased = BufferPool.getLeasedBytes();
+        BufferPool.release(buffer);
+        assertEquals(leased, BufferPool.getLeasedBytes());
+    }
+}
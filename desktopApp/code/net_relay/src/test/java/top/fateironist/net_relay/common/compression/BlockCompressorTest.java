@@ -0,0 +1,108 @@
+package top.fateironist.net_relay.common.compression;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCompressorTest {
+    private final BlockCompressor compressor = new BlockCompressor();
+
+    @AfterEach
+    void close() {
+        compressor.close();
+    }
+
+    @Test
+    void roundTripsCompressedBlocks() {
+        byte[] text = "{\"id\":1,\"name\":\"relay\",\"tags\":[\"a\",\"b\"]}".repeat(300).getBytes(StandardCharsets.UTF_8);
+        for (RelayCompressionEnum type : new RelayCompressionEnum[]{RelayCompressionEnum.LZ, RelayCompressionEnum.DEFLATE}) {
+            ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.MAX_FRAME_SIZE);
+            int length = Math.min(text.length, BlockCompressor.MAX_BLOCK_SIZE);
+            int wireLength = compressor.encode(ByteBuffer.wrap(text), length, type, true, frame);
+            assertTrue(wireLength < length, type + " wire " + wireLength);
+            assertEquals(BlockCompressor.HEADER_SIZE + wireLength, frame.position());
+
+            frame.flip();
+            ByteBuffer raw = ByteBuffer.allocate(BlockCompressor.MAX_BLOCK_SIZE);
+            assertEquals(length, compressor.decode(frame, type, raw));
+            assertFalse(frame.hasRemaining());
+            assertArrayEquals(Arrays.copyOf(text, length), Arrays.copyOf(raw.array(), raw.position()));
+        }
+    }
+
+    /**
+     * 过小、未开启压缩或压缩收益不足的块原样发送
+     */
+    @Test
+    void sendsRawBlocks() {
+        byte[] random = new byte[4096];
+        new Random(5).nextBytes(random);
+        byte[] small = "x".repeat(BlockCompressor.MIN_COMPRESS_SIZE - 1).getBytes(StandardCharsets.UTF_8);
+        byte[] text = "x".repeat(4096).getBytes(StandardCharsets.UTF_8);
+
+        assertRaw(random, true);
+        assertRaw(small, true);
+        assertRaw(text, false);
+    }
+
+    @Test
+    void decodeWaitsForWholeFrame() {
+        byte[] text = "abcdefgh".repeat(512).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.MAX_FRAME_SIZE);
+        int wireLength = compressor.encode(ByteBuffer.wrap(text), text.length, RelayCompressionEnum.LZ, true, frame);
+        frame.flip();
+
+        ByteBuffer raw = ByteBuffer.allocate(BlockCompressor.MAX_BLOCK_SIZE);
+        for (int limit : new int[]{0, BlockCompressor.HEADER_SIZE - 1, BlockCompressor.HEADER_SIZE, BlockCompressor.HEADER_SIZE + wireLength - 1}) {
+            ByteBuffer partial = frame.duplicate().limit(limit);
+            assertEquals(-1, compressor.decode(partial, RelayCompressionEnum.LZ, raw));
+            assertEquals(0, partial.position());
+            assertEquals(0, raw.position());
+        }
+        assertEquals(text.length, compressor.decode(frame, RelayCompressionEnum.LZ, raw));
+    }
+
+    @Test
+    void decodeRejectsBadHeaderAndCorruptPayload() {
+        ByteBuffer raw = ByteBuffer.allocate(BlockCompressor.MAX_BLOCK_SIZE);
+        // 未知flag
+        assertThrows(IllegalArgumentException.class,
+                () -> compressor.decode(ByteBuffer.wrap(new byte[]{2, 0, 1, 0, 1, 0}), RelayCompressionEnum.LZ, raw));
+        // 原样块的两个长度不一致
+        assertThrows(IllegalArgumentException.class,
+                () -> compressor.decode(ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 2, 0}), RelayCompressionEnum.LZ, raw));
+        // 原始长度超过块上限
+        assertThrows(IllegalArgumentException.class,
+                () -> compressor.decode(ByteBuffer.wrap(new byte[]{1, 0, 1, (byte) 0x7F, (byte) 0xFF, 0}), RelayCompressionEnum.LZ, raw));
+
+        byte[] text = "abcdefgh".repeat(512).getBytes(StandardCharsets.UTF_8);
+        for (RelayCompressionEnum type : new RelayCompressionEnum[]{RelayCompressionEnum.LZ, RelayCompressionEnum.DEFLATE}) {
+            ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.MAX_FRAME_SIZE);
+            compressor.encode(ByteBuffer.wrap(text), text.length, type, true, frame);
+            frame.flip();
+            // 声明的原始长度比实际多1
+            frame.putShort(3, (short) (text.length + 1));
+            raw.clear();
+            assertThrows(IllegalArgumentException.class, () -> compressor.decode(frame, type, raw));
+        }
+    }
+
+    private void assertRaw(byte[] bytes, boolean compress) {
+        ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.MAX_FRAME_SIZE);
+        assertEquals(bytes.length, compressor.encode(ByteBuffer.wrap(bytes), bytes.length, RelayCompressionEnum.LZ, compress, frame));
+        assertEquals(0, frame.get(0));
+        assertEquals(BlockCompressor.HEADER_SIZE + bytes.length, frame.position());
+
+        frame.flip();
+        ByteBuffer raw = ByteBuffer.allocate(BlockCompressor.MAX_BLOCK_SIZE);
+        assertEquals(bytes.length, compressor.decode(frame, RelayCompressionEnum.LZ, raw));
+        assertArrayEquals(bytes, Arrays.copyOf(raw.array(), raw.position()));
+    }
+}
@@ -0,0 +1,133 @@
+package top.fateironist.net_relay.common.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LzCompressionCodecTest {
+    private final LzCompressionCodec codec = new LzCompressionCodec();
+
+    @Test
+    void roundTripsCompressibleData() {
+        byte[] text = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nAccept: */*\r\n\r\n".repeat(200).getBytes(StandardCharsets.UTF_8);
+        byte[] packed = assertRoundTrip(text);
+        assertTrue(packed.length < text.length / 4, "packed " + packed.length + " of " + text.length);
+    }
+
+    /**
+     * 长字面量、长匹配以及与输出重叠的匹配（offset小于匹配长度）都需要长度扩展字节
+     */
+    @Test
+    void roundTripsLongRunsAndOverlappingMatches() {
+        byte[] zeros = new byte[16 * 1024];
+        assertRoundTrip(zeros);
+
+        byte[] mixed = new byte[10_000];
+        Random random = new Random(7);
+        random.nextBytes(mixed);
+        // 前600字节随机（长字面量），之后是周期为3的重复
+        for (int i = 600; i < mixed.length; i++) {
+            mixed[i] = (byte) (i % 3);
+        }
+        assertRoundTrip(mixed);
+    }
+
+    @Test
+    void roundTripsSmallAndRandomInputs() {
+        Random random = new Random(42);
+        for (int length : new int[]{0, 1, 4, 5, 12, 13, 100, 4096, 16 * 1024}) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            byte[] dst = new byte[length + length / 255 + 16];
+            int packedLength = codec.compress(bytes, 0, length, dst, 0, dst.length);
+            assertTrue(packedLength > 0);
+            byte[] raw = new byte[length];
+            codec.decompress(dst, 0, packedLength, raw, 0, length);
+            assertArrayEquals(bytes, raw);
+        }
+    }
+
+    @Test
+    void respectsOffsets() {
+        byte[] text = "abcdefgh".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] src = new byte[text.length + 10];
+        System.arraycopy(text, 0, src, 7, text.length);
+        byte[] dst = new byte[text.length + 20];
+        int packedLength = codec.compress(src, 7, text.length, dst, 5, text.length);
+        assertTrue(packedLength > 0);
+
+        byte[] raw = new byte[text.length + 3];
+        codec.decompress(dst, 5, packedLength, raw, 3, text.length);
+        assertArrayEquals(text, Arrays.copyOfRange(raw, 3, raw.length));
+    }
+
+    @Test
+    void compressReturnsMinusOneWhenOutputDoesNotFit() {
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        byte[] dst = new byte[random.length];
+        // 与 BlockCompressor 一样要求至少节省1/8
+        assertEquals(-1, codec.compress(random, 0, random.length, dst, 0, random.length - (random.length >>> 3)));
+
+        byte[] text = "abcd".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        assertEquals(-1, codec.compress(text, 0, text.length, dst, 0, 3));
+    }
+
+    @Test
+    void rejectsCorruptInput() {
+        byte[] text = "hello relay, hello relay, hello relay, hello relay!".repeat(20).getBytes(StandardCharsets.UTF_8);
+        byte[] packed = compress(text);
+        byte[] raw = new byte[text.length];
+
+        // 截断
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decompress(packed, 0, packed.length - 3, raw, 0, text.length));
+        // 原始长度不符
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decompress(packed, 0, packed.length, new byte[text.length + 1], 0, text.length + 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decompress(packed, 0, packed.length, raw, 0, text.length - 1));
+        // 字面量长度超出输入
+        byte[] literal = {(byte) 0xF0, (byte) 200, 'a'};
+        assertThrows(IllegalArgumentException.class, () -> codec.decompress(literal, 0, literal.length, raw, 0, raw.length));
+        // 匹配引用输出起点之前的数据
+        byte[] match = {0x10, 'a', 0x05, 0x00, 0x00};
+        assertThrows(IllegalArgumentException.class, () -> codec.decompress(match, 0, match.length, raw, 0, raw.length));
+        byte[] zeroOffset = {0x10, 'a', 0x00, 0x00, 0x00};
+        assertThrows(IllegalArgumentException.class, () -> codec.decompress(zeroOffset, 0, zeroOffset.length, raw, 0, raw.length));
+    }
+
+    @Test
+    void rejectsRandomGarbageWithoutOtherExceptions() {
+        Random random = new Random(3);
+        byte[] raw = new byte[1024];
+        for (int i = 0; i < 1000; i++) {
+            byte[] garbage = new byte[1 + random.nextInt(64)];
+            random.nextBytes(garbage);
+            try {
+                codec.decompress(garbage, 0, garbage.length, raw, 0, raw.length);
+            } catch (IllegalArgumentException expected) {
+                // 损坏的输入只允许以 IllegalArgumentException 失败
+            }
+        }
+    }
+
+    private byte[] assertRoundTrip(byte[] bytes) {
+        byte[] packed = compress(bytes);
+        byte[] raw = new byte[bytes.length];
+        codec.decompress(packed, 0, packed.length, raw, 0, bytes.length);
+        assertArrayEquals(bytes, raw);
+        return packed;
+    }
+
+    private byte[] compress(byte[] bytes) {
+        byte[] dst = new byte[bytes.length + bytes.length / 255 + 16];
+        int packedLength = codec.compress(bytes, 0, bytes.length, dst, 0, dst.length);
+        assertTrue(packedLength > 0);
+        return Arrays.copyOf(dst, packedLength);
+    }
+}
@@ -0,0 +1,184 @@
+package top.fateironist.net_relay.common.timer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * expire 使用调用方传入的 System.nanoTime 时间，测试中以调度前读取的时间为基准推进，不依赖真实等待
+ */
+class HashedTimingWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    void expiresAtDeadlineNotBefore() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 16);
+        AtomicInteger fired = new AtomicInteger();
+        TimerNode node = new TimerNode(fired::incrementAndGet);
+
+        long now = System.nanoTime();
+        wheel.schedule(node, 100);
+        assertTrue(node.isScheduled());
+        assertEquals(1, wheel.pending());
+
+        assertEquals(0, wheel.expire(now + ms(100 - 2 * TICK)));
+        assertEquals(0, fired.get());
+        assertTrue(node.isScheduled());
+
+        assertEquals(1, wheel.expire(System.nanoTime() + ms(100 + TICK)));
+        assertEquals(1, fired.get());
+        assertFalse(node.isScheduled());
+        assertEquals(0, wheel.pending());
+        // 已执行的节点不会再次执行
+        assertEquals(0, wheel.expire(System.nanoTime() + ms(1000)));
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    void cancelledNodeDoesNotFire() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 16);
+        AtomicInteger fired = new AtomicInteger();
+        TimerNode node = new TimerNode(fired::incrementAndGet);
+
+        wheel.schedule(node, 50);
+        wheel.cancel(node);
+        assertFalse(node.isScheduled());
+        assertEquals(0, wheel.pending());
+        assertEquals(-1, wheel.nextTimeoutMillis(System.nanoTime()));
+        assertEquals(0, wheel.expire(System.nanoTime() + ms(1000)));
+        assertEquals(0, fired.get());
+        // 重复取消无副作用
+        wheel.cancel(node);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void rescheduleMovesDeadline() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 16);
+        AtomicInteger fired = new AtomicInteger();
+        TimerNode node = new TimerNode(fired::incrementAndGet);
+
+        long now = System.nanoTime();
+        wheel.schedule(node, 50);
+        wheel.schedule(node, 120);
+        assertEquals(1, wheel.pending());
+        assertEquals(0, wheel.expire(now + ms(100)));
+        assertEquals(1, wheel.expire(System.nanoTime() + ms(120 + TICK)));
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    void scheduleIfAbsentKeepsDeadline() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 16);
+        AtomicInteger fired = new AtomicInteger();
+        TimerNode node = new TimerNode(fired::incrementAndGet);
+
+        wheel.scheduleIfAbsent(node, 50);
+        wheel.scheduleIfAbsent(node, 10_000);
+        assertEquals(1, wheel.pending());
+        assertEquals(1, wheel.expire(System.nanoTime() + ms(50 + TICK)));
+        assertEquals(1, fired.get());
+    }
+
+    /**
+     * 超过一圈的延迟落在已经扫过的槽位中，只有到期的那一圈才执行
+     */
+    @Test
+    void delayBeyondOneRevolution() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 8);
+        AtomicInteger fired = new AtomicInteger();
+        TimerNode node = new TimerNode(fired::incrementAndGet);
+
+        long now = System.nanoTime();
+        wheel.schedule(node, 25 * TICK);
+        for (long tick = 1; tick <= 22; tick++) {
+            assertEquals(0, wheel.expire(now + ms(tick * TICK)));
+        }
+        assertTrue(node.isScheduled());
+        assertEquals(1, wheel.expire(System.nanoTime() + ms(26 * TICK)));
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    void expiresNodesInSameAndDifferentBuckets() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 8);
+        List<Integer> order = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            int id = i;
+            wheel.schedule(new TimerNode(() -> order.add(id)), 30 + i % 2 * 5 * TICK);
+        }
+        assertEquals(5, wheel.pending());
+        assertEquals(3, wheel.expire(System.nanoTime() + ms(30 + TICK)));
+        assertEquals(2, wheel.pending());
+        assertEquals(0, wheel.expire(now + ms(70)));
+        assertEquals(2, wheel.expire(System.nanoTime() + ms(80 + TICK)));
+        assertEquals(5, order.size());
+        assertTrue(order.subList(0, 3).containsAll(List.of(0, 2, 4)));
+    }
+
+    /**
+     * 回调中重新调度自身（周期任务）以及取消同一批中尚未执行的节点
+     */
+    @Test
+    void callbackCanRescheduleAndCancel() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 16);
+        AtomicInteger periodic = new AtomicInteger();
+        AtomicInteger other = new AtomicInteger();
+        TimerNode[] nodes = new TimerNode[2];
+        nodes[1] = new TimerNode(other::incrementAndGet);
+        nodes[0] = new TimerNode(() -> {
+            periodic.incrementAndGet();
+            wheel.schedule(nodes[0], 50);
+            wheel.cancel(nodes[1]);
+        });
+
+        wheel.schedule(nodes[0], 50);
+        wheel.schedule(nodes[1], 50);
+        int expired = wheel.expire(System.nanoTime() + ms(50 + TICK));
+        // 两个节点可能落在相邻的槽位：nodes[1] 可能先执行，也可能在执行前被取消
+        assertEquals(1, periodic.get());
+        assertEquals(expired - 1, other.get());
+        assertTrue(nodes[0].isScheduled());
+        assertFalse(nodes[1].isScheduled());
+        assertEquals(1, wheel.pending());
+
+        assertEquals(1, wheel.expire(System.nanoTime() + ms(200)));
+        assertEquals(2, periodic.get());
+    }
+
+    @Test
+    void nextTimeoutTracksEarliestNode() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, 64);
+        long now = System.nanoTime();
+        assertEquals(-1, wheel.nextTimeoutMillis(now));
+
+        TimerNode late = new TimerNode(() -> { });
+        wheel.schedule(late, 300);
+        long timeout = wheel.nextTimeoutMillis(now);
+        assertTrue(timeout > 300 - 2 * TICK && timeout <= 300 + 2 * TICK, "timeout " + timeout);
+
+        TimerNode early = new TimerNode(() -> { });
+        wheel.schedule(early, 50);
+        timeout = wheel.nextTimeoutMillis(now);
+        assertTrue(timeout > 50 - 2 * TICK && timeout <= 50 + 2 * TICK, "timeout " + timeout);
+
+        wheel.cancel(early);
+        wheel.cancel(late);
+        assertEquals(-1, wheel.nextTimeoutMillis(now));
+    }
+
+    @Test
+    void rejectsNonPositiveTick() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel(0, 16));
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,200 @@
+package top.fateironist.net_relay.core.communication;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.codec.BinaryCommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.CommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.TextCommunicationCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommunicationFrameDecoderTest {
+
+    /**
+     * 每次只读到帧的一部分时，应在最后一块到达后才解出完整的消息
+     */
+    @Test
+    void decodesFrameSplitAcrossReads() throws IOException {
+        for (CommunicationCodec codec : new CommunicationCodec[]{TextCommunicationCodec.INSTANCE, BinaryCommunicationCodec.INSTANCE}) {
+            byte[] frame = codec.encode(request("007", "8080", "tmp-1"));
+            for (int chunk = 1; chunk < frame.length; chunk++) {
+                CommunicationFrameDecoder decoder = new CommunicationFrameDecoder(codec);
+                ChunkedChannel channel = new ChunkedChannel(frame, chunk);
+                CommunicationMsg msg = null;
+                int reads = 0;
+                while (msg == null) {
+                    assertTrue(decoder.readFrom(channel) > 0);
+                    reads++;
+                    msg = decoder.next();
+                }
+                assertEquals((frame.length + chunk - 1) / chunk, reads);
+                assertRequest(msg, "007", "8080", "tmp-1");
+                assertNull(decoder.next());
+            }
+        }
+    }
+
+    @Test
+    void decodesSeveralFramesFromOneRead() throws IOException {
+        for (CommunicationCodec codec : new CommunicationCodec[]{TextCommunicationCodec.INSTANCE, BinaryCommunicationCodec.INSTANCE}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < 2; i++) {
+                out.writeBytes(codec.encode(request("007", "808" + i, "tmp-" + i)));
+            }
+            byte[] last = codec.encode(request("007", "9090", "tail"));
+            // 最后一帧只到达一半
+            out.write(last, 0, last.length / 2);
+
+            CommunicationFrameDecoder decoder = new CommunicationFrameDecoder(codec);
+            byte[] bytes = out.toByteArray();
+            assertEquals(bytes.length, decoder.readFrom(new ChunkedChannel(bytes, Integer.MAX_VALUE)));
+            for (int i = 0; i < 2; i++) {
+                assertRequest(decoder.next(), "007", "808" + i, "tmp-" + i);
+            }
+            assertNull(decoder.next());
+
+            decoder.readFrom(new ChunkedChannel(Arrays.copyOfRange(last, last.length / 2, last.length), Integer.MAX_VALUE));
+            assertRequest(decoder.next(), "007", "9090", "tail");
+            assertNull(decoder.next());
+        }
+    }
+
+    @Test
+    void skipsInvalidFrame() throws IOException {
+        byte[] valid = TextCommunicationCodec.INSTANCE.encode(request("007", "8080", "tmp-1"));
+        byte[] invalid = "F-RELAY/9\r\n[[BEGIN]]\r\n\r\n[[END]]\r\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(invalid);
+        out.writeBytes(valid);
+
+        CommunicationFrameDecoder decoder = new CommunicationFrameDecoder(TextCommunicationCodec.INSTANCE);
+        decoder.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertSame(CommunicationFrameDecoder.INVALID, decoder.next());
+        assertRequest(decoder.next(), "007", "8080", "tmp-1");
+    }
+
+    /**
+     * 协商后切换编解码器，已缓冲的后续数据按新协议解析
+     */
+    @Test
+    void switchesCodecBetweenFrames() throws IOException {
+        CommunicationMsg response = request("002", "2", "agent-1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(TextCommunicationCodec.INSTANCE.encode(response));
+        out.writeBytes(BinaryCommunicationCodec.INSTANCE.encode(request("004", "9090")));
+
+        CommunicationFrameDecoder decoder = new CommunicationFrameDecoder(TextCommunicationCodec.INSTANCE);
+        decoder.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertRequest(decoder.next(), "002", "2", "agent-1");
+        decoder.setCodec(BinaryCommunicationCodec.INSTANCE);
+        assertRequest(decoder.next(), "004", "9090");
+    }
+
+    @Test
+    void readFrameBlocksUntilWholeFrame() throws IOException {
+        byte[] frame = BinaryCommunicationCodec.INSTANCE.encode(request("006", "9091"));
+        CommunicationFrameDecoder decoder = new CommunicationFrameDecoder(BinaryCommunicationCodec.INSTANCE);
+        assertRequest(decoder.readFrame(new ChunkedInputStream(frame, 2)), "006", "9091");
+
+        CommunicationFrameDecoder truncated = new CommunicationFrameDecoder(BinaryCommunicationCodec.INSTANCE);
+        assertThrows(EOFException.class,
+                () -> truncated.readFrame(new ChunkedInputStream(Arrays.copyOf(frame, frame.length - 1), 2)));
+    }
+
+    /**
+     * 超过初始缓冲区大小的帧按需扩容
+     */
+    @Test
+    void growsBufferForLargeFrame() throws IOException {
+        String[] args = new String[200];
+        Arrays.fill(args, "tmp-0123456789");
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setAgentId("agent-1");
+        msg.setRequest(new CommunicationMsg.Method("003", args));
+        byte[] frame = BinaryCommunicationCodec.INSTANCE.encode(msg);
+
+        CommunicationFrameDecoder decoder = new CommunicationFrameDecoder(BinaryCommunicationCodec.INSTANCE);
+        CommunicationMsg decoded = decoder.readFrame(new ChunkedInputStream(frame, 1000));
+        assertArrayEquals(args, decoded.getRequest().getArgs());
+    }
+
+    private static CommunicationMsg request(String code, String... args) {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setAgentId("agent-1");
+        msg.setRequest(new CommunicationMsg.Method(code, args));
+        return msg;
+    }
+
+    private static void assertRequest(CommunicationMsg msg, String code, String... args) {
+        assertNotNull(msg);
+        assertNotSame(CommunicationFrameDecoder.INVALID, msg);
+        assertEquals(code, msg.getRequest().getName());
+        assertArrayEquals(args, msg.getRequest().getArgs());
+    }
+
+    // 每次最多返回chunk字节的通道，模拟非阻塞读取只拿到部分数据
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final byte[] bytes;
+        private final int chunk;
+        private int position;
+
+        private ChunkedChannel(byte[] bytes, int chunk) {
+            this.bytes = bytes;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = Math.min(Math.min(dst.remaining(), chunk), bytes.length - position);
+            dst.put(bytes, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] bytes;
+        private final int chunk;
+        private int position;
+
+        private ChunkedInputStream(byte[] bytes, int chunk) {
+            this.bytes = bytes;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= bytes.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunk), bytes.length - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package top.fateironist.net_relay.core.communication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.core.relay.RelayManager;
+import top.fateironist.net_relay.emulator.LocalEchoServer;
+import top.fateironist.net_relay.emulator.RelayServerEmulator;
+import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+import top.fateironist.net_relay.model.communication.codec.BinaryCommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.TextCommunicationCodec;
+import top.fateironist.net_relay.model.communication.exception.CommunicationChannelRegisterFailedException;
+import top.fateironist.net_relay.model.communication.exception.ProxyRegisterFailedException;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 基于 RelayServerEmulator 的注册流程：协议协商、注册应答被拒绝或延迟
+ */
+class CommunicationManagerRegistrationTest {
+    private LocalEchoServer echo;
+    private RelayServerEmulator emulator;
+    private RelayManager relayManager;
+
+    @BeforeEach
+    void startEcho() throws IOException {
+        echo = new LocalEchoServer();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        if (relayManager != null) {
+            relayManager.shutdown();
+        }
+        if (emulator != null) {
+            emulator.close();
+        }
+        echo.close();
+    }
+
+    @Test
+    void registersWithTextProtocolByDefault() throws Exception {
+        startEmulator(BinaryCommunicationCodec.VERSION);
+        CommunicationManager communicationManager = newCommunicationManager(new CommunicationProperties());
+        communicationManager.start();
+        try {
+            assertSame(TextCommunicationCodec.INSTANCE, communicationManager.getCodec());
+            assertNotNull(communicationManager.getAgentId());
+            assertEquals(emulator.getRemotePort(echo.getPort()), communicationManager.getTcpProxy().get(echo.getPort()));
+        } finally {
+            communicationManager.shutdown();
+        }
+    }
+
+    @Test
+    void negotiatesBinaryProtocol() throws Exception {
+        startEmulator(BinaryCommunicationCodec.VERSION);
+        CommunicationManager communicationManager = newCommunicationManager(binaryProperties());
+        communicationManager.start();
+        try {
+            assertSame(BinaryCommunicationCodec.INSTANCE, communicationManager.getCodec());
+            assertEquals(emulator.getRemotePort(echo.getPort()), communicationManager.getTcpProxy().get(echo.getPort()));
+        } finally {
+            communicationManager.shutdown();
+        }
+    }
+
+    /**
+     * 旧服务端不认识协议版本参数时回退到 F-RELAY/1
+     */
+    @Test
+    void fallsBackToTextProtocolForOldServer() throws Exception {
+        startEmulator(TextCommunicationCodec.VERSION);
+        CommunicationManager communicationManager = newCommunicationManager(binaryProperties());
+        communicationManager.start();
+        try {
+            assertSame(TextCommunicationCodec.INSTANCE, communicationManager.getCodec());
+            assertEquals(emulator.getRemotePort(echo.getPort()), communicationManager.getTcpProxy().get(echo.getPort()));
+        } finally {
+            communicationManager.shutdown();
+        }
+    }
+
+    @Test
+    void rejectedCommunicationChannelFailsStart() throws Exception {
+        startEmulator(BinaryCommunicationCodec.VERSION);
+        emulator.getFaults().reject("002");
+        CommunicationManager communicationManager = newCommunicationManager(binaryProperties());
+        assertThrows(CommunicationChannelRegisterFailedException.class, communicationManager::start);
+    }
+
+    @Test
+    void rejectedProxyFailsStart() throws Exception {
+        startEmulator(BinaryCommunicationCodec.VERSION);
+        emulator.getFaults().reject("004");
+        CommunicationManager communicationManager = newCommunicationManager(binaryProperties());
+        assertThrows(ProxyRegisterFailedException.class, communicationManager::start);
+        assertTrue(communicationManager.getTcpProxy().isEmpty());
+    }
+
+    @Test
+    void delayedResponsesStillRegister() throws Exception {
+        startEmulator(BinaryCommunicationCodec.VERSION);
+        emulator.getFaults().delay("002", 300).delay("004", 300);
+        CommunicationManager communicationManager = newCommunicationManager(binaryProperties());
+        long begin = System.currentTimeMillis();
+        communicationManager.start();
+        try {
+            assertTrue(System.currentTimeMillis() - begin >= 600);
+            assertSame(BinaryCommunicationCodec.INSTANCE, communicationManager.getCodec());
+            assertEquals(emulator.getRemotePort(echo.getPort()), communicationManager.getTcpProxy().get(echo.getPort()));
+        } finally {
+            communicationManager.shutdown();
+        }
+    }
+
+    private void startEmulator(int maxProtocolVersion) throws IOException {
+        emulator = new RelayServerEmulator(0, maxProtocolVersion);
+        emulator.start();
+    }
+
+    private CommunicationManager newCommunicationManager(CommunicationProperties communicationProperties) {
+        ProxyServerProperties proxyServerProperties = new ProxyServerProperties("127.0.0.1", emulator.getPort());
+        relayManager = new RelayManager(proxyServerProperties, new RelayProperties());
+        return new CommunicationManager(proxyServerProperties,
+                new AgentProperties(new String[]{String.valueOf(echo.getPort())}, new String[0]),
+                communicationProperties, relayManager);
+    }
+
+    private static CommunicationProperties binaryProperties() {
+        CommunicationProperties communicationProperties = new CommunicationProperties();
+        communicationProperties.setProtocolVersion(BinaryCommunicationCodec.VERSION);
+        return communicationProperties;
+    }
+}
@@ -0,0 +1,80 @@
+package top.fateironist.net_relay.core.metrics;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.common.AsyncIoThreadPool;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+import top.fateironist.net_relay.model.common.enums.AsyncIoModeEnum;
+import top.fateironist.net_relay.model.relay.enums.TransportLayerProtocol;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayMetricsRegistryTest {
+    private static final String[] GLOBAL_TYPES = {"RelaySetup", "UdpReceive", "UdpSend", "RelayCompression", "CommunicationWrite", "BufferPool", "AsyncIo"};
+
+    /**
+     * 全局统计在创建时注册为 MXBean，代理统计在首次出现时注册，close 后全部注销
+     */
+    @Test
+    void registersAndUnregistersMXBeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        AsyncIoThreadPool asyncIoThreadPool = new AsyncIoThreadPool(AsyncIoModeEnum.PLATFORM);
+        RelayMetricsRegistry registry = new RelayMetricsRegistry(true, asyncIoThreadPool);
+        try {
+            for (String type : GLOBAL_TYPES) {
+                assertTrue(server.isRegistered(objectName("type=" + type)), type);
+            }
+            registry.getRelaySetupMetrics().recordAttempt(true);
+            registry.getRelaySetupMetrics().recordSuccess();
+            assertEquals(1L, server.getAttribute(objectName("type=RelaySetup"), "Successes"));
+            assertEquals(1L, server.getAttribute(objectName("type=RelaySetup"), "PooledConnections"));
+
+            registry.getCommunicationWriteMetrics().recordBatch(4, 100);
+            assertEquals(4.0, server.getAttribute(objectName("type=CommunicationWrite"), "AverageBatchSize"));
+
+            ByteBuffer buffer = BufferPool.allocate(BufferPool.MIN_CHUNK_SIZE);
+            try {
+                assertEquals(BufferPool.getLeasedBytes(), server.getAttribute(objectName("type=BufferPool"), "LeasedBytes"));
+                CompositeData[] sizeClasses = (CompositeData[]) server.getAttribute(objectName("type=BufferPool"), "SizeClasses");
+                assertEquals(BufferPool.MIN_CHUNK_SIZE, sizeClasses[0].get("chunkSize"));
+                assertTrue((Long) sizeClasses[0].get("leased") >= 1);
+            } finally {
+                BufferPool.release(buffer);
+            }
+
+            asyncIoThreadPool.shutdown();
+            assertThrows(RejectedExecutionException.class, () -> asyncIoThreadPool.execute(() -> {
+            }));
+            assertEquals(1L, server.getAttribute(objectName("type=AsyncIo"), "Rejected"));
+            assertEquals("PLATFORM", server.getAttribute(objectName("type=AsyncIo"), "Mode"));
+
+            registry.get(TransportLayerProtocol.TCP, 8080).recordRead(true, 10);
+            assertEquals(10L, server.getAttribute(objectName("type=ProxyTraffic,protocol=TCP,port=8080"), "BytesIn"));
+        } finally {
+            registry.close();
+            asyncIoThreadPool.shutdown();
+        }
+        for (String type : GLOBAL_TYPES) {
+            assertFalse(server.isRegistered(objectName("type=" + type)), type);
+        }
+        assertFalse(server.isRegistered(objectName("type=ProxyTraffic,protocol=TCP,port=8080")));
+    }
+
+    @Test
+    void jmxDisabledRegistersNothing() throws Exception {
+        RelayMetricsRegistry registry = new RelayMetricsRegistry(false, new AsyncIoThreadPool(AsyncIoModeEnum.VIRTUAL));
+        registry.get(TransportLayerProtocol.UDP, 53);
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName("type=RelaySetup")));
+        registry.close();
+    }
+
+    private static ObjectName objectName(String properties) throws Exception {
+        return new ObjectName(RelayMetricsRegistry.JMX_DOMAIN + ":" + properties);
+    }
+}
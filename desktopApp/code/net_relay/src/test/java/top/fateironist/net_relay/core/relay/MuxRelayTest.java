@@ -0,0 +1,165 @@
+package top.fateironist.net_relay.core.relay;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.core.communication.CommunicationManager;
+import top.fateironist.net_relay.emulator.LocalEchoServer;
+import top.fateironist.net_relay.emulator.RelayServerEmulator;
+import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 多路复用中转：OPEN 建流、DATA 双向转发、WINDOW 流控、CLOSE 两端关闭
+ */
+class MuxRelayTest {
+    // 小于单次传输量，迫使双方多次归还窗口
+    private static final int STREAM_WINDOW = 64 * 1024;
+
+    private LocalEchoServer echo;
+    private RelayServerEmulator emulator;
+    private CommunicationManager communicationManager;
+    private int remotePort;
+
+    @BeforeEach
+    void start() throws Exception {
+        echo = new LocalEchoServer();
+        emulator = new RelayServerEmulator(0);
+        emulator.start();
+        ProxyServerProperties proxyServerProperties = new ProxyServerProperties("127.0.0.1", emulator.getPort());
+        RelayProperties relayProperties = new RelayProperties();
+        relayProperties.setEventLoopCount(1);
+        relayProperties.setMuxEnabled(true);
+        relayProperties.setMuxStreamWindow(STREAM_WINDOW);
+        communicationManager = new CommunicationManager(proxyServerProperties,
+                new AgentProperties(new String[]{String.valueOf(echo.getPort())}, new String[0]),
+                new CommunicationProperties(), new RelayManager(proxyServerProperties, relayProperties));
+        communicationManager.init();
+        remotePort = emulator.getRemotePort(echo.getPort());
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        communicationManager.shutdown();
+        emulator.close();
+        echo.close();
+    }
+
+    @Test
+    void streamsShareOneMuxConnection() throws Exception {
+        List<Socket> users = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                Socket user = connectUser();
+                users.add(user);
+                assertEcho(user, "stream-" + i);
+            }
+            // 流之间互不干扰
+            for (int i = users.size() - 1; i >= 0; i--) {
+                assertEcho(users.get(i), "again-" + i);
+            }
+            assertEquals(1, emulator.getMuxConnectionCount());
+            assertEquals(users.size(), echo.getConnectionCount());
+        } finally {
+            for (Socket user : users) {
+                user.close();
+            }
+        }
+    }
+
+    /**
+     * 传输量远大于窗口，只有两端持续归还窗口才能完成
+     */
+    @Test
+    void transferBeyondWindowNeedsWindowUpdates() throws Exception {
+        byte[] payload = new byte[STREAM_WINDOW * 16];
+        new Random(11).nextBytes(payload);
+        try (Socket user = connectUser()) {
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                try {
+                    OutputStream out = user.getOutputStream();
+                    for (int offset = 0; offset < payload.length; offset += 8192) {
+                        out.write(payload, offset, Math.min(8192, payload.length - offset));
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            byte[] received = new byte[payload.length];
+            new DataInputStream(user.getInputStream()).readFully(received);
+            writer.get(10, TimeUnit.SECONDS);
+            assertArrayEquals(payload, received);
+        }
+    }
+
+    @Test
+    void userCloseClosesLocalConnection() throws Exception {
+        Socket user = connectUser();
+        assertEcho(user, "bye");
+        assertEquals(1, echo.getConnectionCount());
+
+        user.close();
+        assertTrue(await(() -> echo.getConnectionCount() == 0), "local connection still open");
+        // 关闭一个流不影响之后的新流
+        try (Socket next = connectUser()) {
+            assertEcho(next, "next");
+        }
+        assertEquals(1, emulator.getMuxConnectionCount());
+    }
+
+    @Test
+    void localCloseClosesUserSocket() throws Exception {
+        try (Socket user = connectUser()) {
+            assertEcho(user, "hello");
+
+            echo.closeConnections();
+            assertEquals(-1, user.getInputStream().read());
+        }
+        try (Socket next = connectUser()) {
+            assertEcho(next, "next");
+        }
+    }
+
+    private Socket connectUser() throws IOException {
+        Socket user = new Socket("127.0.0.1", remotePort);
+        user.setSoTimeout(10000);
+        return user;
+    }
+
+    private static void assertEcho(Socket socket, String text) throws IOException {
+        byte[] sent = text.getBytes(StandardCharsets.UTF_8);
+        socket.getOutputStream().write(sent);
+        socket.getOutputStream().flush();
+        byte[] received = new byte[sent.length];
+        new DataInputStream(socket.getInputStream()).readFully(received);
+        assertArrayEquals(sent, received);
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
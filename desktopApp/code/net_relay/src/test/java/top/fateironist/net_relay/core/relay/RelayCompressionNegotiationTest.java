@@ -0,0 +1,98 @@
+package top.fateironist.net_relay.core.relay;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.core.communication.CommunicationManager;
+import top.fateironist.net_relay.core.metrics.RelayCompressionMetrics;
+import top.fateironist.net_relay.emulator.LocalEchoServer;
+import top.fateironist.net_relay.emulator.RelayServerEmulator;
+import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 中转压缩只有在注册时被服务端接受后才启用，否则按原始数据中转
+ */
+class RelayCompressionNegotiationTest {
+    private LocalEchoServer echo;
+    private RelayServerEmulator emulator;
+    private RelayManager relayManager;
+    private CommunicationManager communicationManager;
+
+    @BeforeEach
+    void startServers() throws IOException {
+        echo = new LocalEchoServer();
+        emulator = new RelayServerEmulator(0);
+        emulator.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        if (communicationManager != null) {
+            communicationManager.shutdown();
+        }
+        emulator.close();
+        echo.close();
+    }
+
+    @Test
+    void compressesWhenServerAccepts() throws Exception {
+        start(RelayCompressionEnum.LZ);
+        assertEquals(Set.of(RelayCompressionEnum.LZ), communicationManager.getAcceptedCompressions());
+
+        assertEcho("compressible payload ".repeat(200));
+        RelayCompressionMetrics metrics = relayManager.getMetricsRegistry().getRelayCompressionMetrics();
+        assertTrue(metrics.getCompressedBlocks() > 0);
+        assertTrue(metrics.getWireBytesOut() < metrics.getRawBytesOut());
+    }
+
+    /**
+     * 不认识压缩参数的服务端不应答压缩方式，客户端不得发送压缩帧
+     */
+    @Test
+    void staysUncompressedWhenServerIgnoresCompression() throws Exception {
+        emulator.setCompressionSupported(false);
+        start(RelayCompressionEnum.DEFLATE);
+        assertTrue(communicationManager.getAcceptedCompressions().isEmpty());
+
+        assertEcho("compressible payload ".repeat(200));
+        RelayCompressionMetrics metrics = relayManager.getMetricsRegistry().getRelayCompressionMetrics();
+        assertEquals(0, metrics.getRawBytesOut());
+        assertEquals(0, metrics.getCompressedBlocks() + metrics.getUncompressedBlocks());
+    }
+
+    private void start(RelayCompressionEnum compression) throws Exception {
+        ProxyServerProperties proxyServerProperties = new ProxyServerProperties("127.0.0.1", emulator.getPort());
+        RelayProperties relayProperties = new RelayProperties();
+        relayProperties.setEventLoopCount(1);
+        relayProperties.getTcpCompression().put(echo.getPort(), compression);
+        relayManager = new RelayManager(proxyServerProperties, relayProperties);
+        communicationManager = new CommunicationManager(proxyServerProperties,
+                new AgentProperties(new String[]{String.valueOf(echo.getPort())}, new String[0]),
+                new CommunicationProperties(), relayManager);
+        communicationManager.init();
+    }
+
+    private void assertEcho(String text) throws IOException {
+        try (Socket user = new Socket("127.0.0.1", emulator.getRemotePort(echo.getPort()))) {
+            user.setSoTimeout(5000);
+            byte[] sent = text.getBytes(StandardCharsets.UTF_8);
+            user.getOutputStream().write(sent);
+            user.getOutputStream().flush();
+            byte[] received = new byte[sent.length];
+            new DataInputStream(user.getInputStream()).readFully(received);
+            assertArrayEquals(sent, received);
+        }
+    }
+}
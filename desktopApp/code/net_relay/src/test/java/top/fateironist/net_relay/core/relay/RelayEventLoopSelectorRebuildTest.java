@@ -0,0 +1,86 @@
+package top.fateironist.net_relay.core.relay;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.core.communication.CommunicationManager;
+import top.fateironist.net_relay.emulator.LocalEchoServer;
+import top.fateironist.net_relay.emulator.RelayServerEmulator;
+import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+import top.fateironist.net_relay.model.relay.TcpRelayChannelPairAttachment;
+import top.fateironist.net_relay.model.relay.TcpRelayChannelPairAttachmentWrapper;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 空轮询重建选择器后，已有的中转连接应迁移到新选择器，且附件仍是原有的方向句柄
+ */
+class RelayEventLoopSelectorRebuildTest {
+
+    @Test
+    void rebuildKeepsKeysAndDirectionHandles() throws Exception {
+        try (LocalEchoServer echo = new LocalEchoServer(); RelayServerEmulator emulator = new RelayServerEmulator(0)) {
+            emulator.start();
+            ProxyServerProperties proxyServerProperties = new ProxyServerProperties("127.0.0.1", emulator.getPort());
+            RelayProperties relayProperties = new RelayProperties();
+            relayProperties.setEventLoopCount(1);
+            RelayManager relayManager = new RelayManager(proxyServerProperties, relayProperties);
+            CommunicationManager communicationManager = new CommunicationManager(proxyServerProperties,
+                    new AgentProperties(new String[]{String.valueOf(echo.getPort())}, new String[0]),
+                    new CommunicationProperties(), relayManager);
+            communicationManager.init();
+            try (Socket user = new Socket("127.0.0.1", emulator.getRemotePort(echo.getPort()))) {
+                user.setSoTimeout(5000);
+                assertEcho(user, "before rebuild");
+
+                RelayEventLoop loop = relayManager.eventLoopOf("rebuild");
+                Selector oldSelector = loop.selector();
+                loop.requestSelectorRebuild();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (loop.selector() == oldSelector && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Selector newSelector = loop.selector();
+                assertNotSame(oldSelector, newSelector);
+
+                int handles = 0;
+                for (SelectionKey key : newSelector.keys()) {
+                    if (!(key.attachment() instanceof TcpRelayChannelPairAttachmentWrapper wrapper)) {
+                        continue;
+                    }
+                    TcpRelayChannelPairAttachment attachment = wrapper.getAttachment();
+                    if (wrapper.isIn()) {
+                        assertSame(attachment.getRelayChannelHandle(), wrapper);
+                        assertSame(key, attachment.getRelayChannelSelectionKey());
+                    } else {
+                        assertSame(attachment.getResponseChannelHandle(), wrapper);
+                        assertSame(key, attachment.getResponseChannelSelectionKey());
+                    }
+                    handles++;
+                }
+                assertEquals(2, handles);
+
+                assertEcho(user, "after rebuild");
+            } finally {
+                communicationManager.shutdown();
+            }
+        }
+    }
+
+    private static void assertEcho(Socket socket, String text) throws IOException {
+        byte[] sent = text.getBytes(StandardCharsets.UTF_8);
+        socket.getOutputStream().write(sent);
+        socket.getOutputStream().flush();
+        byte[] received = new byte[sent.length];
+        new DataInputStream(socket.getInputStream()).readFully(received);
+        assertArrayEquals(sent, received);
+    }
+}
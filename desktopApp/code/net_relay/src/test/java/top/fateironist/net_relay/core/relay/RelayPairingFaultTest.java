@@ -0,0 +1,181 @@
+package top.fateironist.net_relay.core.relay;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.core.communication.CommunicationManager;
+import top.fateironist.net_relay.emulator.LocalEchoServer;
+import top.fateironist.net_relay.emulator.RelayServerEmulator;
+import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 基于 RelayServerEmulator 故障脚本的中转配对：007延迟/丢失、中转连接被断开、控制通道被断开
+ */
+class RelayPairingFaultTest {
+    private LocalEchoServer echo;
+    private RelayServerEmulator emulator;
+    private RelayManager relayManager;
+    private CommunicationManager communicationManager;
+    private int remotePort;
+
+    @BeforeEach
+    void start() throws Exception {
+        echo = new LocalEchoServer();
+        emulator = new RelayServerEmulator(0);
+        emulator.start();
+        ProxyServerProperties proxyServerProperties = new ProxyServerProperties("127.0.0.1", emulator.getPort());
+        RelayProperties relayProperties = new RelayProperties();
+        relayProperties.setEventLoopCount(1);
+        relayManager = new RelayManager(proxyServerProperties, relayProperties);
+        communicationManager = new CommunicationManager(proxyServerProperties,
+                new AgentProperties(new String[]{String.valueOf(echo.getPort())}, new String[0]),
+                new CommunicationProperties(), relayManager);
+        communicationManager.init();
+        remotePort = emulator.getRemotePort(echo.getPort());
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        communicationManager.shutdown();
+        emulator.close();
+        echo.close();
+    }
+
+    @Test
+    void pairsRelayConnection() throws Exception {
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "hello");
+            assertEcho(user, "你好");
+        }
+    }
+
+    @Test
+    void delayedOrderStillPairs() throws Exception {
+        emulator.getFaults().delay("007", 500);
+        long begin = System.currentTimeMillis();
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "delayed");
+            assertTrue(System.currentTimeMillis() - begin >= 500);
+        }
+    }
+
+    /**
+     * 007丢失时该外部连接得不到配对，但不影响之后的连接
+     */
+    @Test
+    void droppedOrderOnlyAffectsThatConnection() throws Exception {
+        emulator.getFaults().drop("007", 1);
+        try (Socket lost = connectUser(1000)) {
+            lost.getOutputStream().write(1);
+            assertThrows(SocketTimeoutException.class, () -> lost.getInputStream().read());
+        }
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "after drop");
+        }
+    }
+
+    /**
+     * 服务端在收到008时断开中转连接，该外部连接得不到配对，客户端需释放本地连接并继续服务
+     */
+    @Test
+    void relayRefusedOnPairingIsReleased() throws Exception {
+        emulator.getFaults().disconnectOn("008");
+        try (Socket lost = connectUser(1000)) {
+            lost.getOutputStream().write(1);
+            assertThrows(SocketTimeoutException.class, () -> lost.getInputStream().read());
+        }
+        assertTrue(await(() -> echo.getConnectionCount() == 0), "local connection not released");
+
+        emulator.getFaults().clear();
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "after refused");
+        }
+    }
+
+    @Test
+    void relayCutMidStreamClosesBothSides() throws Exception {
+        emulator.getFaults().cutRelayAfter(64);
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "x".repeat(40));
+            user.getOutputStream().write(new byte[40]);
+            InputStream in = user.getInputStream();
+            // 超出限额的部分被丢弃，随后连接被关闭
+            assertTrue(in.readAllBytes().length <= 24);
+        }
+        assertTrue(await(() -> echo.getConnectionCount() == 0), "local connection not released");
+
+        emulator.getFaults().clear();
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "after cut");
+        }
+    }
+
+    @Test
+    void forcedRelayDisconnectKeepsControlChannel() throws Exception {
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "before");
+            emulator.disconnectRelays();
+            assertEquals(-1, user.getInputStream().read());
+        }
+        assertTrue(await(() -> echo.getConnectionCount() == 0), "local connection not released");
+        assertTrue(relayManager.eventLoopOf("relay").selector().isOpen());
+
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "after");
+        }
+    }
+
+    /**
+     * 控制通道断开时客户端停止工作，已有的中转随之关闭
+     */
+    @Test
+    void controlChannelDisconnectStopsClient() throws Exception {
+        try (Socket user = connectUser(5000)) {
+            assertEcho(user, "before");
+            emulator.disconnectAll();
+            RelayEventLoop loop = relayManager.eventLoopOf("relay");
+            assertTrue(await(() -> !loop.selector().isOpen()), "relay event loop still running");
+            assertEquals(-1, user.getInputStream().read());
+        }
+        assertTrue(await(() -> echo.getConnectionCount() == 0), "local connection not released");
+    }
+
+    private Socket connectUser(int soTimeout) throws IOException {
+        Socket user = new Socket("127.0.0.1", remotePort);
+        user.setSoTimeout(soTimeout);
+        return user;
+    }
+
+    private static void assertEcho(Socket socket, String text) throws IOException {
+        byte[] sent = text.getBytes(StandardCharsets.UTF_8);
+        socket.getOutputStream().write(sent);
+        socket.getOutputStream().flush();
+        byte[] received = new byte[sent.length];
+        new DataInputStream(socket.getInputStream()).readFully(received);
+        assertArrayEquals(sent, received);
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+package top.fateironist.net_relay.emulator;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RelayServerEmulator 的故障脚本，运行中可随时修改，对之后的消息与连接生效
+ * 消息码均指服务端发出的指令/应答（002、004、006、007、009、012），disconnectOn 指客户端发来的请求。
+ * 例：faults.delay("007", 3000).drop("009", 1).disconnectOn("008").cutRelayAfter(1024 * 1024)
+ */
+public class EmulatorFaults {
+    private final Map<String, Long> delays = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> drops = new ConcurrentHashMap<>();
+    private final Set<String> rejects = ConcurrentHashMap.newKeySet();
+    private final Set<String> disconnectCodes = ConcurrentHashMap.newKeySet();
+    // 每条中转连接每个方向最多转发的字节数，<=0表示不限
+    private volatile long relayByteLimit;
+
+    /**
+     * 延迟发出该消息码，不阻塞其它消息
+     */
+    public EmulatorFaults delay(String code, long millis) {
+        delays.put(code, millis);
+        return this;
+    }
+
+    /**
+     * 丢弃接下来 count 条该消息码，count<0 表示一直丢弃
+     */
+    public EmulatorFaults drop(String code, int count) {
+        drops.put(code, new AtomicInteger(count));
+        return this;
+    }
+
+    /**
+     * 注册类应答（002/004/006）的各参数均替换为0，模拟服务端拒绝
+     */
+    public EmulatorFaults reject(String code) {
+        rejects.add(code);
+        return this;
+    }
+
+    /**
+     * 收到该消息码的请求后断开控制通道
+     */
+    public EmulatorFaults disconnectOn(String code) {
+        disconnectCodes.add(code);
+        return this;
+    }
+
+    /**
+     * 中转连接单方向转发超过 bytes 字节后强制断开
+     */
+    public EmulatorFaults cutRelayAfter(long bytes) {
+        relayByteLimit = bytes;
+        return this;
+    }
+
+    public EmulatorFaults clear() {
+        delays.clear();
+        drops.clear();
+        rejects.clear();
+        disconnectCodes.clear();
+        relayByteLimit = 0;
+        return this;
+    }
+
+    long delayOf(String code) {
+        Long delay = delays.get(code);
+        return delay == null ? 0 : delay;
+    }
+
+    boolean shouldDrop(String code) {
+        AtomicInteger remaining = drops.get(code);
+        if (remaining == null) {
+            return false;
+        }
+        // 负数表示不限次数
+        return remaining.getAndUpdate(n -> n > 0 ? n - 1 : n) != 0;
+    }
+
+    boolean shouldReject(String code) {
+        return rejects.contains(code);
+    }
+
+    boolean shouldDisconnectOn(String code) {
+        return disconnectCodes.contains(code);
+    }
+
+    long getRelayByteLimit() {
+        return relayByteLimit;
+    }
+}
@@ -0,0 +1,88 @@
+package top.fateironist.net_relay.emulator;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 测试用被代理服务：TCP回显，每个连接一个线程
+ * 监听回环地址的随机端口，作为AgentProperties中的被代理端口使用
+ */
+@Slf4j
+public class LocalEchoServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    public LocalEchoServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "LocalEchoServer-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 当前未断开的连接数
+     */
+    public int getConnectionCount() {
+        return sockets.size();
+    }
+
+    /**
+     * 主动关闭已接受的连接，继续监听新连接
+     */
+    public void closeConnections() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                Thread worker = new Thread(() -> echo(socket), "LocalEchoServer-echo");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("LocalEchoServer accept error; exception:{}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void echo(Socket socket) {
+        byte[] buffer = new byte[16 * 1024];
+        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException ignored) {
+            // 对端断开
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
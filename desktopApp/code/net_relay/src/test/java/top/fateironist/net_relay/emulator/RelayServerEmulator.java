@@ -0,0 +1,906 @@
+package top.fateironist.net_relay.emulator;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+import top.fateironist.net_relay.model.communication.codec.BinaryCommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.CommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.TextCommunicationCodec;
+
+import top.fateironist.net_relay.common.compression.BlockCompressor;
+import top.fateironist.net_relay.model.relay.MuxProtocol;
+import top.fateironist.net_relay.model.relay.enums.RelayCompressionEnum;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地中转服务端替身
+ * 实现控制通道的服务端一侧（001~006、000、999），可指定支持的最高协议版本，
+ * 用于在没有真实服务端的情况下测试与压测 F-RELAY/1、F-RELAY/2 两种编解码。
+ * TCP代理端口会真实监听，外部连接到达后下发007，再与客户端的008中转连接或多路复用(013)连接中的流配对转发；
+ * 008声明了压缩方式时按压缩帧收发。
+ * UDP代理端口同样真实监听，每个新的外部地址下发一次009，收到客户端的打洞消息(011)后应答012，
+ * 客户端回复010后开始双向转发，期间到达的数据报先缓存。
+ * 同一端口上的每个新连接由第一条 F-RELAY/1 消息区分角色：001 控制通道，008 中转连接，013 多路复用连接。
+ * 可通过 getFaults() 编排故障：延迟/丢弃/拒绝下发的消息、收到指定请求后断开、中转连接转发一定字节后断开，
+ * 也可随时调用 disconnectAll 强制断开。
+ */
+@Slf4j
+public class RelayServerEmulator implements Closeable {
+    private final ServerSocket serverSocket;
+    @Getter
+    private final int maxProtocolVersion;
+
+    private final List<ControlConnection> connections = new CopyOnWriteArrayList<>();
+    // 客户端发来的所有请求（注册完成之后），按到达顺序
+    private final BlockingQueue<CommunicationMsg> receivedRequests = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger agentIdGenerator = new AtomicInteger(1);
+    private final AtomicInteger tempIdGenerator = new AtomicInteger(1);
+    private final AtomicInteger udpChannelIdGenerator = new AtomicInteger(1);
+    // 累计建立的多路复用(013)连接数
+    private final AtomicInteger muxConnectionCounter = new AtomicInteger();
+
+    // TCP代理：被代理端口 -> 对外监听端口；等待客户端中转连接配对的外部连接
+    private final Map<Integer, Integer> tcpRemotePorts = new ConcurrentHashMap<>();
+    private final List<ServerSocket> tcpProxyServers = new CopyOnWriteArrayList<>();
+    private final Map<String, Socket> pendingUserSockets = new ConcurrentHashMap<>();
+    private final List<Socket> relaySockets = new CopyOnWriteArrayList<>();
+
+    // UDP代理：被代理端口 -> 对外监听端口；channelId -> 中转通道
+    private final Map<Integer, Integer> udpRemotePorts = new ConcurrentHashMap<>();
+    private final Map<String, UdpRelayChannel> udpChannels = new ConcurrentHashMap<>();
+    private final List<DatagramSocket> udpSockets = new CopyOnWriteArrayList<>();
+
+    @Getter
+    private final EmulatorFaults faults = new EmulatorFaults();
+    // 延迟发出的消息
+    private final ScheduledExecutorService delayScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "RelayServerEmulator-Delay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running;
+    // 为false时模拟不认识压缩参数的服务端：002中不应答压缩方式
+    private volatile boolean compressionSupported = true;
+
+    public RelayServerEmulator(int port) throws IOException {
+        this(port, BinaryCommunicationCodec.VERSION);
+    }
+
+    /**
+     * @param port 监听端口，0表示随机端口
+     * @param maxProtocolVersion 服务端支持的最高协议版本，为1时模拟旧服务端
+     */
+    public RelayServerEmulator(int port, int maxProtocolVersion) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.maxProtocolVersion = maxProtocolVersion;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void start() {
+        running = true;
+        Thread acceptThread = new Thread(this::accept, "RelayServerEmulator-Accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * 向所有已注册的客户端下发指令，如 007/009
+     */
+    public void sendOrder(String name, String... args) {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method(name, args.length == 0 ? null : args));
+        for (ControlConnection connection : connections) {
+            if (connection.registered) {
+                connection.send(msg);
+            }
+        }
+    }
+
+    public CommunicationMsg pollRequest(long timeout, TimeUnit unit) throws InterruptedException {
+        return receivedRequests.poll(timeout, unit);
+    }
+
+    public void setCompressionSupported(boolean compressionSupported) {
+        this.compressionSupported = compressionSupported;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public int getMuxConnectionCount() {
+        return muxConnectionCounter.get();
+    }
+
+    /**
+     * 被代理端口对应的对外TCP端口，外部程序连接该端口即可访问被代理服务
+     */
+    public Integer getRemotePort(int proxiedPort) {
+        return tcpRemotePorts.get(proxiedPort);
+    }
+
+    /**
+     * 被代理端口对应的对外UDP端口
+     */
+    public Integer getUdpRemotePort(int proxiedPort) {
+        return udpRemotePorts.get(proxiedPort);
+    }
+
+    /**
+     * 强制断开所有控制通道与中转连接，监听端口保持打开，客户端可以重新注册
+     */
+    public void disconnectAll() {
+        for (ControlConnection connection : connections) {
+            connection.close();
+        }
+        disconnectRelays();
+    }
+
+    /**
+     * 强制断开所有TCP中转连接（含多路复用连接）及对应的外部连接
+     */
+    public void disconnectRelays() {
+        relaySockets.forEach(RelayServerEmulator::closeQuietly);
+        relaySockets.clear();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        delayScheduler.shutdownNow();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+        }
+        for (ControlConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+        tcpProxyServers.forEach(RelayServerEmulator::closeQuietly);
+        tcpProxyServers.clear();
+        pendingUserSockets.values().forEach(RelayServerEmulator::closeQuietly);
+        pendingUserSockets.clear();
+        relaySockets.forEach(RelayServerEmulator::closeQuietly);
+        relaySockets.clear();
+        udpSockets.forEach(DatagramSocket::close);
+        udpSockets.clear();
+        udpChannels.clear();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                startDaemon(() -> dispatch(socket), "RelayServerEmulator-" + socket.getPort());
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("RelayServerEmulator accept error; exception:{}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    // 读出第一条 F-RELAY/1 消息，按消息码决定连接的角色
+    private void dispatch(Socket socket) {
+        byte[] buffer = new byte[BinaryCommunicationCodec.MAX_FRAME_SIZE];
+        int length = 0;
+        int frameLength = -1;
+        try {
+            InputStream in = socket.getInputStream();
+            while (frameLength < 0) {
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0 || length + read == buffer.length) {
+                    closeQuietly(socket);
+                    return;
+                }
+                length += read;
+                frameLength = TextCommunicationCodec.INSTANCE.frameLength(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return;
+        }
+
+        CommunicationMsg msg = TextCommunicationCodec.INSTANCE.decode(buffer, 0, frameLength);
+        String name = msg == null || msg.getRequest() == null ? null : msg.getRequest().getName();
+        if (name != null && faults.shouldDisconnectOn(name)) {
+            closeQuietly(socket);
+            return;
+        }
+        if (CommunicationProtocol.BODY_REGISTER_COMMUNICATION_CHANNEL_MSG.equals(name)) {
+            ControlConnection connection = new ControlConnection(socket);
+            connections.add(connection);
+            connection.handle(buffer, length);
+        } else if (CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_RESPONSE_MSG.equals(name)) {
+            String[] args = msg.getRequest().getArgs();
+            pairRelayConnection(socket, args[1], args.length > 2 ? RelayCompressionEnum.of(args[2]) : null, Arrays.copyOfRange(buffer, frameLength, length));
+        } else if (CommunicationProtocol.BODY_REQUIRE_MUX_RELAY_CHANNEL_MSG.equals(name)) {
+            relaySockets.add(socket);
+            muxConnectionCounter.incrementAndGet();
+            new MuxSession(socket).handle(Arrays.copyOfRange(buffer, frameLength, length));
+        } else {
+            log.warn("RelayServerEmulator receive unexpected first msg:{}", name);
+            closeQuietly(socket);
+        }
+    }
+
+    // 008：客户端的独立中转连接，与等待中的外部连接双向转发；声明了压缩方式时中转侧按压缩帧收发
+    private void pairRelayConnection(Socket relaySocket, String tempId, RelayCompressionEnum compression, byte[] leftover) {
+        Socket userSocket = pendingUserSockets.remove(tempId);
+        if (userSocket == null) {
+            log.warn("RelayServerEmulator unknown tempId:{}", tempId);
+            closeQuietly(relaySocket);
+            return;
+        }
+        relaySockets.add(relaySocket);
+        relaySockets.add(userSocket);
+        if (compression != null) {
+            startDaemon(() -> compressTo(userSocket, relaySocket, compression), "RelayServerEmulator-Pipe-" + tempId);
+            decompressTo(relaySocket, leftover, userSocket, compression);
+            return;
+        }
+        try {
+            if (leftover.length > 0) {
+                userSocket.getOutputStream().write(leftover);
+            }
+        } catch (IOException e) {
+            closeQuietly(userSocket);
+            closeQuietly(relaySocket);
+            return;
+        }
+        startDaemon(() -> copy(userSocket, relaySocket), "RelayServerEmulator-Pipe-" + tempId);
+        copy(relaySocket, userSocket);
+    }
+
+    private void copy(Socket from, Socket to) {
+        byte[] buffer = new byte[16 * 1024];
+        long copied = 0;
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                int allowed = relayAllowance(copied, read);
+                out.write(buffer, 0, allowed);
+                copied += allowed;
+                if (allowed < read) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private void compressTo(Socket from, Socket to, RelayCompressionEnum compression) {
+        BlockCompressor compressor = new BlockCompressor();
+        byte[] buffer = new byte[BlockCompressor.MAX_BLOCK_SIZE];
+        ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.MAX_FRAME_SIZE);
+        long copied = 0;
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                int allowed = relayAllowance(copied, read);
+                if (allowed > 0) {
+                    frame.clear();
+                    compressor.encode(ByteBuffer.wrap(buffer, 0, allowed), allowed, compression, true, frame);
+                    out.write(frame.array(), 0, frame.position());
+                    copied += allowed;
+                }
+                if (allowed < read) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+        } finally {
+            compressor.close();
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private void decompressTo(Socket from, byte[] leftover, Socket to, RelayCompressionEnum compression) {
+        BlockCompressor compressor = new BlockCompressor();
+        ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.MAX_FRAME_SIZE);
+        ByteBuffer plain = ByteBuffer.allocate(BlockCompressor.MAX_BLOCK_SIZE);
+        long copied = 0;
+        try {
+            DataInputStream in = new DataInputStream(new SequenceInputStream(new ByteArrayInputStream(leftover), from.getInputStream()));
+            OutputStream out = to.getOutputStream();
+            byte[] header = new byte[BlockCompressor.HEADER_SIZE];
+            while (true) {
+                in.readFully(header);
+                int wireLength = ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                frame.clear();
+                frame.put(header);
+                in.readFully(frame.array(), BlockCompressor.HEADER_SIZE, Math.min(wireLength, BlockCompressor.MAX_BLOCK_SIZE));
+                frame.position(BlockCompressor.HEADER_SIZE + wireLength).flip();
+                plain.clear();
+                int rawLength = compressor.decode(frame, compression, plain);
+                int allowed = relayAllowance(copied, rawLength);
+                out.write(plain.array(), 0, allowed);
+                copied += allowed;
+                if (allowed < rawLength) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+        } finally {
+            compressor.close();
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    // 在随机端口上真实监听，外部连接到达后通过控制通道下发007
+    private int openTcpProxy(ControlConnection connection, int proxiedPort) throws IOException {
+        ServerSocket proxyServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        tcpProxyServers.add(proxyServer);
+        tcpRemotePorts.put(proxiedPort, proxyServer.getLocalPort());
+        startDaemon(() -> {
+            while (running && !proxyServer.isClosed()) {
+                try {
+                    Socket userSocket = proxyServer.accept();
+                    userSocket.setTcpNoDelay(true);
+                    String tempId = String.valueOf(tempIdGenerator.getAndIncrement());
+                    pendingUserSockets.put(tempId, userSocket);
+                    connection.reply(CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_MSG, new String[]{String.valueOf(proxiedPort), tempId});
+                } catch (IOException e) {
+                    if (running && !proxyServer.isClosed()) {
+                        log.warn("RelayServerEmulator proxy accept error; exception:{}", e.getMessage());
+                    }
+                }
+            }
+        }, "RelayServerEmulator-Proxy-" + proxiedPort);
+        return proxyServer.getLocalPort();
+    }
+
+    // 在随机端口上真实监听UDP，每个新的外部地址建立一个中转通道并下发009
+    private int openUdpProxy(ControlConnection connection, int proxiedPort) throws IOException {
+        DatagramSocket proxySocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        udpSockets.add(proxySocket);
+        udpRemotePorts.put(proxiedPort, proxySocket.getLocalPort());
+        Map<SocketAddress, UdpRelayChannel> userChannels = new ConcurrentHashMap<>();
+        startDaemon(() -> {
+            DatagramPacket packet = new DatagramPacket(new byte[64 * 1024], 64 * 1024);
+            while (running && !proxySocket.isClosed()) {
+                try {
+                    proxySocket.receive(packet);
+                    SocketAddress userAddress = packet.getSocketAddress();
+                    UdpRelayChannel channel = userChannels.get(userAddress);
+                    if (channel == null) {
+                        channel = new UdpRelayChannel(String.valueOf(udpChannelIdGenerator.getAndIncrement()), proxySocket, userAddress);
+                        userChannels.put(userAddress, channel);
+                        udpChannels.put(channel.channelId, channel);
+                        startDaemon(channel::pump, "RelayServerEmulator-Udp-" + channel.channelId);
+                        connection.reply(CommunicationProtocol.BODY_REQUIRE_UDP_RELAY_CHANNEL_MSG,
+                                new String[]{String.valueOf(proxiedPort), String.valueOf(channel.relaySocket.getLocalPort()), channel.channelId});
+                    }
+                    channel.fromUser(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+                } catch (IOException e) {
+                    if (running && !proxySocket.isClosed()) {
+                        log.warn("RelayServerEmulator udp proxy receive error; exception:{}", e.getMessage());
+                    }
+                }
+            }
+        }, "RelayServerEmulator-UdpProxy-" + proxiedPort);
+        return proxySocket.getLocalPort();
+    }
+
+    // cutRelayAfter：已转发 copied 字节时本次最多还能转发多少，小于 length 时转发后断开
+    private int relayAllowance(long copied, int length) {
+        long limit = faults.getRelayByteLimit();
+        return limit <= 0 ? length : (int) Math.max(0, Math.min(length, limit - copied));
+    }
+
+    private static void startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private class ControlConnection {
+        private final Socket socket;
+        private volatile CommunicationCodec codec = TextCommunicationCodec.INSTANCE;
+        private volatile boolean registered;
+
+        private ControlConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void handle(byte[] buffer, int length) {
+            try {
+                InputStream in = socket.getInputStream();
+                boolean first = true;
+                while (running) {
+                    // 首次进入时先处理分派阶段已读到的数据
+                    if (!first) {
+                        int read = in.read(buffer, length, buffer.length - length);
+                        if (read < 0) {
+                            break;
+                        }
+                        length += read;
+                    }
+                    first = false;
+
+                    // 累积读取，逐帧解码，剩余的半帧留到下次
+                    int offset = 0;
+                    int frameLength;
+                    while (offset < length && (frameLength = codec.frameLength(buffer, offset, length - offset)) > 0) {
+                        CommunicationMsg msg = codec.decode(buffer, offset, frameLength);
+                        offset += frameLength;
+                        if (msg == null || msg.getRequest() == null) {
+                            log.warn("RelayServerEmulator receive invalid msg");
+                            continue;
+                        }
+                        if (!onRequest(msg)) {
+                            return;
+                        }
+                    }
+                    System.arraycopy(buffer, offset, buffer, 0, length - offset);
+                    length -= offset;
+                    if (length == buffer.length) {
+                        log.warn("RelayServerEmulator frame too large");
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    log.warn("RelayServerEmulator connection error; exception:{}", e.getMessage());
+                }
+            } finally {
+                close();
+                connections.remove(this);
+            }
+        }
+
+        private boolean onRequest(CommunicationMsg msg) {
+            String[] args = msg.getRequest().getArgs();
+            if (faults.shouldDisconnectOn(msg.getRequest().getName())) {
+                receivedRequests.offer(msg);
+                return false;
+            }
+            switch (msg.getRequest().getName()) {
+                case CommunicationProtocol.BODY_REGISTER_COMMUNICATION_CHANNEL_MSG: {
+                    int offered = args != null && args.length > 0 ? Integer.parseInt(args[0]) : TextCommunicationCodec.VERSION;
+                    int version = Math.min(offered, maxProtocolVersion);
+                    String agentId = String.valueOf(agentIdGenerator.getAndIncrement());
+                    // 模拟的服务端支持全部压缩方式，客户端声明了哪些就接受哪些
+                    Set<RelayCompressionEnum> compressions = compressionSupported && args != null && args.length > 1
+                            ? RelayCompressionEnum.parseCodes(args[1]) : Set.of();
+                    String[] replyArgs;
+                    if (!compressions.isEmpty()) {
+                        replyArgs = new String[]{"1", agentId, String.valueOf(version), RelayCompressionEnum.joinCodes(compressions)};
+                    } else if (version > TextCommunicationCodec.VERSION) {
+                        replyArgs = new String[]{"1", agentId, String.valueOf(version)};
+                    } else {
+                        replyArgs = new String[]{"1", agentId};
+                    }
+                    // 应答仍按 F-RELAY/1 编码，之后切换到协商的版本
+                    reply(CommunicationProtocol.BODY_REGISTER_COMMUNICATION_CHANNEL_RESPONSE_MSG, replyArgs);
+                    codec = CommunicationCodec.of(version);
+                    registered = true;
+                    break;
+                }
+                case CommunicationProtocol.BODY_REGISTER_TCP_PROXY_MSG:
+                    reply(CommunicationProtocol.BODY_REGISTER_TCP_PROXY_RESPONSE_MSG, openTcpProxies(args));
+                    break;
+                case CommunicationProtocol.BODY_REGISTER_UDP_PROXY_MSG:
+                    reply(CommunicationProtocol.BODY_REGISTER_UDP_PROXY_RESPONSE_MSG, openUdpProxies(args));
+                    break;
+                case CommunicationProtocol.BODY_REQUIRE_UDP_RELAY_CHANNEL_RESPONSE_MSG: {
+                    UdpRelayChannel channel = args != null && args.length > 1 ? udpChannels.get(args[1]) : null;
+                    if (channel != null) {
+                        channel.ready();
+                    }
+                    receivedRequests.offer(msg);
+                    break;
+                }
+                case CommunicationProtocol.BODY_SHUTDOWN_MSG:
+                    receivedRequests.offer(msg);
+                    return false;
+                default:
+                    receivedRequests.offer(msg);
+            }
+            return true;
+        }
+
+        private String[] openTcpProxies(String[] proxiedPorts) {
+            if (proxiedPorts == null) {
+                return new String[]{"0"};
+            }
+            String[] remotePorts = new String[proxiedPorts.length];
+            for (int i = 0; i < proxiedPorts.length; i++) {
+                try {
+                    remotePorts[i] = String.valueOf(openTcpProxy(this, Integer.parseInt(proxiedPorts[i])));
+                } catch (IOException e) {
+                    log.warn("RelayServerEmulator open tcp proxy error; exception:{}", e.getMessage());
+                    remotePorts[i] = "0";
+                }
+            }
+            return remotePorts;
+        }
+
+        private String[] openUdpProxies(String[] proxiedPorts) {
+            if (proxiedPorts == null) {
+                return new String[]{"0"};
+            }
+            String[] remotePorts = new String[proxiedPorts.length];
+            for (int i = 0; i < proxiedPorts.length; i++) {
+                try {
+                    remotePorts[i] = String.valueOf(openUdpProxy(this, Integer.parseInt(proxiedPorts[i])));
+                } catch (IOException e) {
+                    log.warn("RelayServerEmulator open udp proxy error; exception:{}", e.getMessage());
+                    remotePorts[i] = "0";
+                }
+            }
+            return remotePorts;
+        }
+
+        private void reply(String name, String[] args) {
+            CommunicationMsg msg = new CommunicationMsg();
+            msg.setOrder(new CommunicationMsg.Method(name, args));
+            send(msg);
+        }
+
+        // 按故障脚本丢弃、拒绝或延迟；按当前的编解码立即编码，延迟期间切换协议版本不影响已排队的消息
+        private void send(CommunicationMsg msg) {
+            String code = msg.getOrder() != null ? msg.getOrder().getName() : null;
+            if (code != null && faults.shouldDrop(code)) {
+                log.info("RelayServerEmulator drop msg:{}", code);
+                return;
+            }
+            if (code != null && faults.shouldReject(code) && msg.getOrder().getArgs() != null) {
+                String[] rejected = new String[msg.getOrder().getArgs().length];
+                Arrays.fill(rejected, "0");
+                msg.setOrder(new CommunicationMsg.Method(code, rejected));
+            }
+            byte[] bytes = codec.encode(msg);
+            long delay = code == null ? 0 : faults.delayOf(code);
+            if (delay > 0) {
+                delayScheduler.schedule(() -> write(bytes), delay, TimeUnit.MILLISECONDS);
+            } else {
+                write(bytes);
+            }
+        }
+
+        private synchronized void write(byte[] bytes) {
+            try {
+                OutputStream out = socket.getOutputStream();
+                out.write(bytes);
+                out.flush();
+            } catch (IOException e) {
+                log.warn("RelayServerEmulator send error; exception:{}", e.getMessage());
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * 多路复用连接的服务端一侧：OPEN 与等待中的外部连接配对，
+     * 外部连接读到的数据在客户端开放的窗口内以DATA发出，收到的DATA写给外部连接后立即归还窗口。
+     */
+    private class MuxSession {
+        private final Socket socket;
+        private final Map<Integer, MuxStream> streams = new ConcurrentHashMap<>();
+        private DataOutputStream out;
+
+        private MuxSession(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void handle(byte[] leftover) {
+            try {
+                out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(new SequenceInputStream(new ByteArrayInputStream(leftover), socket.getInputStream()));
+                while (running) {
+                    byte type = in.readByte();
+                    int streamId = in.readInt();
+                    int length = in.readInt();
+                    if (length < 0 || length > MuxProtocol.MAX_DATA_PAYLOAD) {
+                        log.warn("RelayServerEmulator invalid mux frame length:{}", length);
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    onFrame(type, streamId, payload);
+                }
+            } catch (IOException e) {
+            } finally {
+                closeQuietly(socket);
+                streams.values().forEach(MuxStream::close);
+                streams.clear();
+            }
+        }
+
+        private void onFrame(byte type, int streamId, byte[] payload) throws IOException {
+            MuxStream stream = streams.get(streamId);
+            switch (type) {
+                case MuxProtocol.TYPE_OPEN: {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                    int window = in.readInt();
+                    in.readInt();
+                    String tempId = new String(payload, 8, payload.length - 8, StandardCharsets.UTF_8);
+                    Socket userSocket = pendingUserSockets.remove(tempId);
+                    if (userSocket == null) {
+                        log.warn("RelayServerEmulator unknown tempId:{}", tempId);
+                        sendFrame(MuxProtocol.TYPE_CLOSE, streamId, null, 0, 0);
+                        return;
+                    }
+                    MuxStream opened = new MuxStream(streamId, userSocket, window);
+                    streams.put(streamId, opened);
+                    startDaemon(opened::pump, "RelayServerEmulator-Mux-" + tempId);
+                    break;
+                }
+                case MuxProtocol.TYPE_DATA:
+                    if (stream != null) {
+                        int allowed = relayAllowance(stream.received, payload.length);
+                        stream.received += allowed;
+                        try {
+                            stream.userSocket.getOutputStream().write(payload, 0, allowed);
+                            if (allowed < payload.length) {
+                                stream.closeAndNotify();
+                                return;
+                            }
+                        } catch (IOException e) {
+                            stream.closeAndNotify();
+                            return;
+                        }
+                        sendFrame(MuxProtocol.TYPE_WINDOW, streamId, intBytes(payload.length), 0, 4);
+                    }
+                    break;
+                case MuxProtocol.TYPE_WINDOW:
+                    if (stream != null) {
+                        stream.addWindow(new DataInputStream(new ByteArrayInputStream(payload)).readInt());
+                    }
+                    break;
+                case MuxProtocol.TYPE_CLOSE:
+                    if (stream != null) {
+                        streams.remove(streamId);
+                        stream.close();
+                    }
+                    break;
+            }
+        }
+
+        private synchronized void sendFrame(byte type, int streamId, byte[] payload, int offset, int length) throws IOException {
+            out.writeByte(type);
+            out.writeInt(streamId);
+            out.writeInt(length);
+            if (length > 0) {
+                out.write(payload, offset, length);
+            }
+            out.flush();
+        }
+
+        private byte[] intBytes(int value) {
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        private class MuxStream {
+            private final int streamId;
+            private final Socket userSocket;
+            private int sendWindow;
+            private volatile boolean closed;
+            // 两个方向已转发的字节数，用于 cutRelayAfter
+            private long received;
+            private long sent;
+
+            private MuxStream(int streamId, Socket userSocket, int sendWindow) {
+                this.streamId = streamId;
+                this.userSocket = userSocket;
+                this.sendWindow = sendWindow;
+            }
+
+            private synchronized void addWindow(int increment) {
+                sendWindow += increment;
+                notifyAll();
+            }
+
+            private synchronized int acquireWindow(int wanted) throws InterruptedException {
+                while (sendWindow == 0 && !closed) {
+                    wait();
+                }
+                int granted = Math.min(wanted, sendWindow);
+                sendWindow -= granted;
+                return granted;
+            }
+
+            // 外部连接 -> 客户端
+            private void pump() {
+                byte[] buffer = new byte[MuxProtocol.MAX_DATA_PAYLOAD];
+                try {
+                    InputStream in = userSocket.getInputStream();
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        int allowed = relayAllowance(sent, read);
+                        sent += allowed;
+                        int offset = 0;
+                        while (offset < allowed) {
+                            int granted = acquireWindow(allowed - offset);
+                            if (closed) {
+                                return;
+                            }
+                            sendFrame(MuxProtocol.TYPE_DATA, streamId, buffer, offset, granted);
+                            offset += granted;
+                        }
+                        if (allowed < read) {
+                            break;
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                } finally {
+                    closeAndNotify();
+                }
+            }
+
+            private void closeAndNotify() {
+                if (streams.remove(streamId) != null) {
+                    try {
+                        sendFrame(MuxProtocol.TYPE_CLOSE, streamId, null, 0, 0);
+                    } catch (IOException e) {
+                    }
+                }
+                close();
+            }
+
+            private synchronized void close() {
+                closed = true;
+                notifyAll();
+                closeQuietly(userSocket);
+            }
+        }
+    }
+
+    /**
+     * UDP中转通道的服务端一侧：relaySocket 即009中的 udpRelayBindPort，
+     * 收到011后记下客户端地址并应答012，此后与外部地址双向转发。
+     */
+    private class UdpRelayChannel {
+        private final String channelId;
+        private final DatagramSocket proxySocket;
+        private final SocketAddress userAddress;
+        private final DatagramSocket relaySocket;
+        private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+        private volatile SocketAddress clientAddress;
+        private volatile boolean ready;
+
+        private UdpRelayChannel(String channelId, DatagramSocket proxySocket, SocketAddress userAddress) throws IOException {
+            this.channelId = channelId;
+            this.proxySocket = proxySocket;
+            this.userAddress = userAddress;
+            this.relaySocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            udpSockets.add(relaySocket);
+        }
+
+        // 外部 -> 客户端，010之前先缓存
+        private void fromUser(byte[] data) throws IOException {
+            if (!ready) {
+                synchronized (this) {
+                    if (!ready) {
+                        pending.add(data);
+                        return;
+                    }
+                }
+            }
+            relaySocket.send(new DatagramPacket(data, data.length, clientAddress));
+        }
+
+        private synchronized void ready() {
+            if (clientAddress == null) {
+                log.warn("RelayServerEmulator udp channel {} ready before penetration", channelId);
+                return;
+            }
+            try {
+                byte[] data;
+                while ((data = pending.poll()) != null) {
+                    relaySocket.send(new DatagramPacket(data, data.length, clientAddress));
+                }
+            } catch (IOException e) {
+                log.warn("RelayServerEmulator udp send error; exception:{}", e.getMessage());
+            }
+            ready = true;
+        }
+
+        private void sendPenetrationResponse(byte[] bytes) throws IOException {
+            String code = CommunicationProtocol.BODY_UDP_PENETRATION_RESPONSE_MSG;
+            if (faults.shouldDrop(code)) {
+                log.info("RelayServerEmulator drop msg:{}", code);
+                return;
+            }
+            DatagramPacket packet = new DatagramPacket(bytes, bytes.length, clientAddress);
+            long delay = faults.delayOf(code);
+            if (delay > 0) {
+                delayScheduler.schedule(() -> {
+                    try {
+                        relaySocket.send(packet);
+                    } catch (IOException e) {
+                        log.warn("RelayServerEmulator udp send error; exception:{}", e.getMessage());
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                relaySocket.send(packet);
+            }
+        }
+
+        // 客户端 -> 外部；第一个数据报为打洞消息
+        private void pump() {
+            DatagramPacket packet = new DatagramPacket(new byte[64 * 1024], 64 * 1024);
+            try {
+                while (running && !relaySocket.isClosed()) {
+                    relaySocket.receive(packet);
+                    if (clientAddress == null) {
+                        CommunicationMsg msg = TextCommunicationCodec.INSTANCE.decode(packet.getData(), packet.getOffset(), packet.getLength());
+                        if (msg != null && msg.getRequest() != null && CommunicationProtocol.BODY_UDP_PENETRATION_MEG.equals(msg.getRequest().getName())) {
+                            clientAddress = packet.getSocketAddress();
+                            CommunicationMsg response = new CommunicationMsg();
+                            response.setOrder(new CommunicationMsg.Method(CommunicationProtocol.BODY_UDP_PENETRATION_RESPONSE_MSG, null));
+                            sendPenetrationResponse(TextCommunicationCodec.INSTANCE.encode(response));
+                        }
+                        continue;
+                    }
+                    if (packet.getSocketAddress().equals(clientAddress)) {
+                        proxySocket.send(new DatagramPacket(packet.getData(), packet.getOffset(), packet.getLength(), userAddress));
+                    }
+                }
+            } catch (IOException e) {
+                if (running && !relaySocket.isClosed()) {
+                    log.warn("RelayServerEmulator udp relay error; exception:{}", e.getMessage());
+                }
+            }
+        }
+    }
+}
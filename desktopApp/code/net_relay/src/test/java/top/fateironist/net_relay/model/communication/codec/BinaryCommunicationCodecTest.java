@@ -0,0 +1,162 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCommunicationCodecTest {
+    private final BinaryCommunicationCodec codec = BinaryCommunicationCodec.INSTANCE;
+
+    /**
+     * argc 超过剩余字节所能容纳的参数个数时直接判为非法帧，不按 argc 分配数组
+     */
+    @Test
+    void rejectsArgcLargerThanFrame() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("007", null));
+        byte[] encoded = codec.encode(msg);
+        // 无参数时帧以 argc=0 结尾，替换为伪造的 argc 并补两个字节的参数数据
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(encoded, 0, encoded.length - 1);
+        writeVarLong(out, Integer.MAX_VALUE);
+        out.write(0);
+        out.write(1);
+        byte[] forged = withLength(out.toByteArray());
+
+        assertEquals(forged.length, codec.frameLength(forged, 0, forged.length));
+        assertNull(codec.decode(forged, 0, forged.length));
+    }
+
+    /**
+     * 伪造的字符串长度接近 int 上限或超出 int 范围时判为非法帧，不因下标溢出抛出异常
+     */
+    @Test
+    void rejectsStringLengthLargerThanFrame() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("007", null));
+        byte[] encoded = codec.encode(msg);
+        for (long forgedLength : new long[]{Integer.MAX_VALUE, Integer.MAX_VALUE + 1L, (1L << 32) + 2, Long.MAX_VALUE}) {
+            // 把 argc 改为1，补一个长度伪造的字符串参数
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(encoded, 0, encoded.length - 1);
+            out.write(1);
+            out.write(1);
+            writeVarLong(out, forgedLength);
+            out.write('a');
+            out.write('b');
+            byte[] forged = withLength(out.toByteArray());
+
+            assertNull(codec.decode(forged, 0, forged.length), Long.toString(forgedLength));
+        }
+    }
+
+    @Test
+    void acceptsArgcThatFitsFrame() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("007", new String[]{"1", "2"}));
+        byte[] encoded = codec.encode(msg);
+
+        CommunicationMsg decoded = codec.decode(encoded, 0, encoded.length);
+        assertNotNull(decoded);
+        assertArrayEquals(new String[]{"1", "2"}, decoded.getOrder().getArgs());
+    }
+
+    /**
+     * 只有规范的十进制数字按数字编码，前导0、负号、超长数字与非ASCII字符串都应原样往返
+     */
+    @Test
+    void roundTripsRequestArgs() {
+        String[] args = {"0", "8080", "007", "-1", "123456789012345678", "1234567890123456789", "", "临时-1"};
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setAgentId("agent-中");
+        msg.setRequest(new CommunicationMsg.Method("008", args));
+        byte[] encoded = codec.encode(msg);
+
+        assertEquals(encoded.length, codec.frameLength(encoded, 0, encoded.length));
+        CommunicationMsg decoded = codec.decode(encoded, 0, encoded.length);
+        assertNotNull(decoded);
+        assertEquals("agent-中", decoded.getAgentId());
+        assertEquals("008", decoded.getRequest().getName());
+        assertArrayEquals(args, decoded.getRequest().getArgs());
+        assertNull(decoded.getOrder());
+    }
+
+    @Test
+    void roundTripsOrderWithoutArgs() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("000", null));
+        byte[] encoded = codec.encode(msg);
+
+        CommunicationMsg decoded = codec.decode(encoded, 0, encoded.length);
+        assertNotNull(decoded);
+        assertEquals("000", decoded.getOrder().getName());
+        assertFalse(decoded.getOrder().hasArgs());
+        assertNull(decoded.getAgentId());
+        assertNull(decoded.getRequest());
+    }
+
+    @Test
+    void frameLengthWaitsForWholeFrame() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("007", new String[]{"8080", "tmp"}));
+        byte[] encoded = codec.encode(msg);
+
+        for (int length = 0; length < encoded.length; length++) {
+            assertEquals(-1, codec.frameLength(encoded, 0, length));
+        }
+        assertEquals(encoded.length, codec.frameLength(Arrays.copyOf(encoded, encoded.length + 10), 0, encoded.length + 10));
+    }
+
+    @Test
+    void frameLengthRejectsOversizedFrame() {
+        byte[] header = {0x7F, 0, 0, 0};
+        assertThrows(IllegalArgumentException.class, () -> codec.frameLength(header, 0, header.length));
+    }
+
+    @Test
+    void decodeRejectsBadMagicAndTruncatedFrame() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("007", new String[]{"8080", "tmp"}));
+        byte[] encoded = codec.encode(msg);
+
+        byte[] badMagic = Arrays.copyOf(encoded, encoded.length);
+        badMagic[BinaryCommunicationCodec.LENGTH_FIELD_SIZE] = 'X';
+        assertNull(codec.decode(badMagic, 0, badMagic.length));
+
+        // 长度字段与实际数据不符
+        assertNull(codec.decode(encoded, 0, encoded.length - 1));
+        // 长度字段自洽但参数被截断
+        byte[] truncated = withLength(Arrays.copyOf(encoded, encoded.length - 2));
+        assertNull(codec.decode(truncated, 0, truncated.length));
+    }
+
+    @Test
+    void codecOfSelectsByVersion() {
+        assertSame(TextCommunicationCodec.INSTANCE, CommunicationCodec.of(0));
+        assertSame(TextCommunicationCodec.INSTANCE, CommunicationCodec.of(TextCommunicationCodec.VERSION));
+        assertSame(BinaryCommunicationCodec.INSTANCE, CommunicationCodec.of(BinaryCommunicationCodec.VERSION));
+        assertSame(BinaryCommunicationCodec.INSTANCE, CommunicationCodec.of(BinaryCommunicationCodec.VERSION + 1));
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static byte[] withLength(byte[] frame) {
+        byte[] bytes = Arrays.copyOf(frame, frame.length);
+        int length = bytes.length - BinaryCommunicationCodec.LENGTH_FIELD_SIZE;
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+        return bytes;
+    }
+}
@@ -0,0 +1,107 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 零分配编码的输出必须与 CommunicationMsg.buildBytes* 逐字节一致
+ */
+class CommunicationMsgWriterTest {
+    private static final String[] TEXTS = {"", "tmp-1", "lz", "临时", "😀", "a\uD800b", "é~"};
+    private static final int[] INTS = {0, 7, 8080, 65535, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    @Test
+    void requestWithoutArgsMatches() {
+        for (String agentId : new String[]{"agent-1", "代理", null}) {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            int length = CommunicationMsgWriter.putRequest(buffer, agentId, "000");
+            assertWritten(request(agentId, "000", null), buffer, length);
+        }
+    }
+
+    @Test
+    void requestWithOneArgMatches() {
+        for (String arg : TEXTS) {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            int length = CommunicationMsgWriter.putRequest(buffer, "agent-1", "001", arg);
+            assertWritten(request("agent-1", "001", new String[]{arg}), buffer, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = CommunicationMsgWriter.putRequest(buffer, "agent-1", "001", null);
+        assertWritten(request("agent-1", "001", new String[]{"null"}), buffer, length);
+    }
+
+    @Test
+    void requestWithIntAndOneArgMatches() {
+        for (int port : INTS) {
+            for (String arg : TEXTS) {
+                ByteBuffer buffer = ByteBuffer.allocate(256);
+                int length = CommunicationMsgWriter.putRequest(buffer, "agent-1", "008", port, arg);
+                assertWritten(request("agent-1", "008", new String[]{String.valueOf(port), arg}), buffer, length);
+            }
+        }
+    }
+
+    @Test
+    void requestWithIntAndTwoArgsMatches() {
+        for (int port : INTS) {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            int length = CommunicationMsgWriter.putRequest(buffer, "agent-1", "008", port, "临时-1", "deflate");
+            assertWritten(request("agent-1", "008", new String[]{String.valueOf(port), "临时-1", "deflate"}), buffer, length);
+        }
+    }
+
+    @Test
+    void orderMatches() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int length = CommunicationMsgWriter.putOrder(buffer, "000");
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("000", null));
+        assertWritten(msg.buildBytesOrderMessage(), buffer, length);
+    }
+
+    @Test
+    void appendsAfterExistingData() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put((byte) 1).put((byte) 2);
+        int length = CommunicationMsgWriter.putRequest(buffer, "agent-1", "008", 8080, "tmp-1");
+        byte[] expected = request("agent-1", "008", new String[]{"8080", "tmp-1"});
+        assertEquals(expected.length, length);
+        assertEquals(2 + expected.length, buffer.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 2, 2 + length));
+    }
+
+    @Test
+    void overflowKeepsPosition() {
+        byte[] expected = request("agent-1", "008", new String[]{"8080", "tmp-1", "lz"});
+        for (int capacity = 0; capacity < expected.length; capacity++) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity + 3);
+            buffer.position(3);
+            assertThrows(BufferOverflowException.class,
+                    () -> CommunicationMsgWriter.putRequest(buffer, "agent-1", "008", 8080, "tmp-1", "lz"));
+            assertEquals(3, buffer.position());
+        }
+        ByteBuffer exact = ByteBuffer.allocate(expected.length);
+        assertEquals(expected.length, CommunicationMsgWriter.putRequest(exact, "agent-1", "008", 8080, "tmp-1", "lz"));
+        assertFalse(exact.hasRemaining());
+    }
+
+    private static byte[] request(String agentId, String code, String[] args) {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setAgentId(agentId);
+        msg.setRequest(new CommunicationMsg.Method(code, args));
+        return msg.buildBytesRequestMessage();
+    }
+
+    private static void assertWritten(byte[] expected, ByteBuffer buffer, int length) {
+        assertEquals(expected.length, length);
+        assertEquals(expected.length, buffer.position());
+        assertArrayEquals(expected, Arrays.copyOf(buffer.array(), length));
+    }
+}
@@ -0,0 +1,72 @@
+package top.fateironist.net_relay.model.communication.codec;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextCommunicationCodecTest {
+    private final TextCommunicationCodec codec = TextCommunicationCodec.INSTANCE;
+
+    @Test
+    void roundTripsRequestWithArgs() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setAgentId("agent-1");
+        msg.setRequest(new CommunicationMsg.Method("008", new String[]{"8080", "tmp-1", "lz"}));
+        byte[] encoded = codec.encode(msg);
+
+        assertArrayEquals(msg.buildBytesRequestMessage(), encoded);
+        assertEquals(encoded.length, codec.frameLength(encoded, 0, encoded.length));
+        CommunicationMsg decoded = codec.decode(encoded, 0, encoded.length);
+        assertNotNull(decoded);
+        assertEquals("agent-1", decoded.getAgentId());
+        assertEquals("008", decoded.getRequest().getName());
+        assertArrayEquals(new String[]{"8080", "tmp-1", "lz"}, decoded.getRequest().getArgs());
+        assertNull(decoded.getOrder());
+    }
+
+    @Test
+    void roundTripsOrderWithAndWithoutArgs() {
+        CommunicationMsg withArgs = new CommunicationMsg();
+        withArgs.setOrder(new CommunicationMsg.Method("007", new String[]{"8080", "tmp-1"}));
+        byte[] encoded = codec.encode(withArgs);
+        assertArrayEquals(withArgs.buildBytesOrderMessage(), encoded);
+        CommunicationMsg decoded = codec.decode(encoded, 0, encoded.length);
+        assertEquals("007", decoded.getOrder().getName());
+        assertArrayEquals(new String[]{"8080", "tmp-1"}, decoded.getOrder().getArgs());
+
+        CommunicationMsg withoutArgs = new CommunicationMsg();
+        withoutArgs.setOrder(new CommunicationMsg.Method("000", null));
+        encoded = codec.encode(withoutArgs);
+        decoded = codec.decode(encoded, 0, encoded.length);
+        assertEquals("000", decoded.getOrder().getName());
+        assertFalse(decoded.getOrder().hasArgs());
+    }
+
+    @Test
+    void frameLengthWaitsForEndMarker() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("000", null));
+        byte[] encoded = codec.encode(msg);
+
+        for (int length = 0; length < encoded.length; length++) {
+            assertEquals(-1, codec.frameLength(encoded, 0, length));
+        }
+        // 帧之后紧跟下一帧的部分数据时只返回第一帧的长度
+        byte[] twoFrames = new byte[encoded.length * 2 - 3];
+        System.arraycopy(encoded, 0, twoFrames, 0, encoded.length);
+        System.arraycopy(encoded, 0, twoFrames, encoded.length, encoded.length - 3);
+        assertEquals(encoded.length, codec.frameLength(twoFrames, 0, twoFrames.length));
+        assertEquals(-1, codec.frameLength(twoFrames, encoded.length, encoded.length - 3));
+    }
+
+    @Test
+    void decodeRejectsUnknownHeader() {
+        CommunicationMsg msg = new CommunicationMsg();
+        msg.setOrder(new CommunicationMsg.Method("000", null));
+        byte[] encoded = codec.encode(msg);
+        encoded[8] = '9';
+
+        assertNull(codec.decode(encoded, 0, encoded.length));
+    }
+}
@@ -0,0 +1,39 @@
+package top.fateironist.net_relay.model.relay;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MuxProtocolTest {
+
+    @Test
+    void encodesHeaderAsTypeStreamIdLength() {
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        MuxProtocol.putHeader(buffer, MuxProtocol.TYPE_DATA, 0x01020304, 0x0A0B);
+        assertEquals(MuxProtocol.HEADER_SIZE, buffer.position());
+        assertArrayEquals(new byte[]{2, 1, 2, 3, 4, 0, 0, 0x0A, 0x0B}, Arrays.copyOf(buffer.array(), MuxProtocol.HEADER_SIZE));
+        assertEquals(MuxProtocol.HEADER_SIZE + 0x0A0B, MuxProtocol.frameLength(buffer, 0));
+    }
+
+    @Test
+    void encodesWindowAndClose() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 0x7F);
+        MuxProtocol.putWindow(buffer, 3, MuxProtocol.DEFAULT_STREAM_WINDOW);
+        MuxProtocol.putClose(buffer, 3);
+
+        assertEquals(1 + MuxProtocol.HEADER_SIZE + 4 + MuxProtocol.HEADER_SIZE, buffer.position());
+        assertEquals(MuxProtocol.TYPE_WINDOW, buffer.get(1));
+        assertEquals(3, buffer.getInt(2));
+        assertEquals(MuxProtocol.HEADER_SIZE + 4, MuxProtocol.frameLength(buffer, 1));
+        assertEquals(MuxProtocol.DEFAULT_STREAM_WINDOW, buffer.getInt(1 + MuxProtocol.HEADER_SIZE));
+
+        int close = 1 + MuxProtocol.HEADER_SIZE + 4;
+        assertEquals(MuxProtocol.TYPE_CLOSE, buffer.get(close));
+        assertEquals(3, buffer.getInt(close + 1));
+        assertEquals(MuxProtocol.HEADER_SIZE, MuxProtocol.frameLength(buffer, close));
+    }
+}
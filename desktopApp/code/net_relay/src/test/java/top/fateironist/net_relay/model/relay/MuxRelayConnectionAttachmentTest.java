@@ -0,0 +1,34 @@
+package top.fateironist.net_relay.model.relay;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MuxRelayConnectionAttachmentTest {
+
+    /**
+     * 写缓冲区扩容后保留已写入的帧，扩容前后的缓冲区都经过缓冲池，关闭后租出字节数回到原值
+     */
+    @Test
+    void ensureWritableGrowsThroughPool() {
+        long leasedBefore = BufferPool.getLeasedBytes();
+        MuxRelayConnectionAttachment mux = new MuxRelayConnectionAttachment();
+        mux.allocateBuffers();
+        for (int i = 0; i < MuxRelayConnectionAttachment.BUFFER_SIZE - 8; i++) {
+            mux.getWriteBuffer().put((byte) i);
+        }
+
+        mux.ensureWritable(MuxProtocol.HEADER_SIZE * 4);
+        assertTrue(mux.getWriteBuffer().capacity() > MuxRelayConnectionAttachment.BUFFER_SIZE);
+        assertTrue(mux.getWriteBuffer().remaining() >= MuxProtocol.HEADER_SIZE * 4);
+        assertEquals(MuxRelayConnectionAttachment.BUFFER_SIZE - 8, mux.getWriteBuffer().position());
+        for (int i = 0; i < MuxRelayConnectionAttachment.BUFFER_SIZE - 8; i++) {
+            assertEquals((byte) i, mux.getWriteBuffer().get(i));
+        }
+        assertEquals(leasedBefore + MuxRelayConnectionAttachment.BUFFER_SIZE + mux.getWriteBuffer().capacity(), BufferPool.getLeasedBytes());
+
+        mux.close();
+        assertEquals(leasedBefore, BufferPool.getLeasedBytes());
+    }
+}
@@ -0,0 +1,57 @@
+package top.fateironist.net_relay.model.relay;
+
+import org.junit.jupiter.api.Test;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TcpRelayChannelPairAttachmentTest {
+    private static final int MIN = 4 * 1024;
+    private static final int MAX = 256 * 1024;
+
+    /**
+     * 空闲方向的缓冲区缩回最小尺寸并归还缓冲池，仍有数据或仍在活动的方向保持不变
+     */
+    @Test
+    void shrinkIdleBuffersReturnsLargeBuffersToPool() {
+        long leasedBefore = BufferPool.getLeasedBytes();
+        TcpRelayChannelPairAttachment attachment = new TcpRelayChannelPairAttachment("agent", "temp", 1, 2);
+        attachment.allocateBuffers(MIN, MAX);
+        grow(attachment);
+        int grown = attachment.getInBuffer().capacity();
+        assertTrue(grown > MIN);
+        assertEquals(leasedBefore + 2L * grown, BufferPool.getLeasedBytes());
+
+        long now = System.currentTimeMillis();
+        attachment.setInBufferLastWriteTime(now - 10_000);
+        attachment.setOutBufferLastWriteTime(now - 10_000);
+        attachment.getOutBuffer().put((byte) 1);
+        attachment.shrinkIdleBuffers(now, 5_000);
+
+        assertEquals(MIN, attachment.getInBuffer().capacity());
+        assertEquals(MIN, attachment.getInBufferSizer().size());
+        assertEquals(grown, attachment.getOutBuffer().capacity());
+        assertEquals(leasedBefore + MIN + grown, BufferPool.getLeasedBytes());
+
+        // 写空后仍在活动期内，不收缩
+        attachment.getOutBuffer().clear();
+        attachment.setOutBufferLastWriteTime(now);
+        attachment.shrinkIdleBuffers(now + 1_000, 5_000);
+        assertEquals(grown, attachment.getOutBuffer().capacity());
+
+        attachment.shrinkIdleBuffers(now + 5_000, 5_000);
+        assertEquals(MIN, attachment.getOutBuffer().capacity());
+
+        attachment.close();
+        assertEquals(leasedBefore, BufferPool.getLeasedBytes());
+    }
+
+    private static void grow(TcpRelayChannelPairAttachment attachment) {
+        for (int i = 0; i < 3; i++) {
+            attachment.getInBufferSizer().recordFull();
+            attachment.getOutBufferSizer().recordFull();
+        }
+        attachment.adjustInBuffer();
+        attachment.adjustOutBuffer();
+    }
+}
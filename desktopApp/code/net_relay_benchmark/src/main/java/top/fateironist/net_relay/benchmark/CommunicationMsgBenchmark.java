@@ -0,0 +1,108 @@
+package top.fateironist.net_relay.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.fateironist.net_relay.model.communication.CommunicationMsg;
+import top.fateironist.net_relay.model.communication.CommunicationProtocol;
+import top.fateironist.net_relay.model.communication.codec.BinaryCommunicationCodec;
+import top.fateironist.net_relay.model.communication.codec.CommunicationMsgView;
+import top.fateironist.net_relay.model.communication.codec.CommunicationMsgWriter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 控制协议编解码：F-RELAY/1 文本协议的 parse/build/findMsgEnd，
+ * 以及 CommunicationMsgView/CommunicationMsgWriter、F-RELAY/2 二进制协议作为对照。
+ * 消息取最常见的 007 指令与 008 请求。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CommunicationMsgBenchmark {
+    private static final String AGENT_ID = "c0a8010a-5f3e-4b7a-9d2e-1a2b3c4d5e6f";
+    private static final String TEMP_ID = "8f14e45fceea167a5a36dedd4bea2543";
+
+    private CommunicationMsg requestMsg;
+    private byte[] orderBytes;
+    // 粘包场景：两条完整消息后跟半条消息
+    private byte[] streamBytes;
+    private ByteBuffer orderBuffer;
+    private ByteBuffer writeBuffer;
+    private CommunicationMsgView view;
+    private byte[] binaryOrderBytes;
+
+    @Setup
+    public void setup() {
+        requestMsg = new CommunicationMsg();
+        requestMsg.setAgentId(AGENT_ID);
+        requestMsg.setRequest(new CommunicationMsg.Method(CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_RESPONSE_MSG, new String[]{"25565", TEMP_ID}));
+
+        CommunicationMsg orderMsg = new CommunicationMsg();
+        orderMsg.setOrder(new CommunicationMsg.Method(CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_MSG, new String[]{"25565", TEMP_ID}));
+        orderBytes = orderMsg.buildBytesOrderMessage();
+
+        streamBytes = new byte[orderBytes.length * 2 + orderBytes.length / 2];
+        System.arraycopy(orderBytes, 0, streamBytes, 0, orderBytes.length);
+        System.arraycopy(orderBytes, 0, streamBytes, orderBytes.length, orderBytes.length);
+        System.arraycopy(orderBytes, 0, streamBytes, orderBytes.length * 2, orderBytes.length / 2);
+
+        orderBuffer = ByteBuffer.wrap(orderBytes);
+        writeBuffer = ByteBuffer.allocateDirect(CommunicationProtocol.MAX_MSG_SIZE);
+        view = new CommunicationMsgView();
+        binaryOrderBytes = BinaryCommunicationCodec.INSTANCE.encode(orderMsg);
+    }
+
+    @Benchmark
+    public CommunicationMsg parse() {
+        return CommunicationMsg.parse(orderBytes);
+    }
+
+    @Benchmark
+    public byte[] buildBytesRequestMessage() {
+        return requestMsg.buildBytesRequestMessage();
+    }
+
+    @Benchmark
+    public int findMsgEnd() {
+        int offset = 0;
+        int end;
+        while ((end = CommunicationMsg.findMsgEnd(streamBytes, offset, streamBytes.length - offset)) >= 0) {
+            offset = end + 1;
+        }
+        return offset;
+    }
+
+    @Benchmark
+    public boolean viewWrap() {
+        orderBuffer.clear();
+        return view.wrap(orderBuffer).codeEquals(CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_MSG);
+    }
+
+    @Benchmark
+    public int writerPutRequest() {
+        writeBuffer.clear();
+        return CommunicationMsgWriter.putRequest(writeBuffer, AGENT_ID, CommunicationProtocol.BODY_REQUIRE_TCP_RELAY_CHANNEL_RESPONSE_MSG, 25565, TEMP_ID);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return BinaryCommunicationCodec.INSTANCE.encode(requestMsg);
+    }
+
+    @Benchmark
+    public CommunicationMsg binaryDecode() {
+        return BinaryCommunicationCodec.INSTANCE.decode(binaryOrderBytes, 0, binaryOrderBytes.length);
+    }
+}
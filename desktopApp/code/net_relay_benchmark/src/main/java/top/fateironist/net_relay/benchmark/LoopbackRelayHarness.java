@@ -0,0 +1,374 @@
+package top.fateironist.net_relay.benchmark;
+
+import top.fateironist.net_relay.core.communication.CommunicationManager;
+import top.fateironist.net_relay.core.metrics.HistogramSnapshot;
+import top.fateironist.net_relay.core.metrics.LatencyHistogram;
+import top.fateironist.net_relay.core.relay.RelayManager;
+import top.fateironist.net_relay.emulator.RelayServerEmulator;
+import top.fateironist.net_relay.model.common.properties.AgentProperties;
+import top.fateironist.net_relay.model.common.properties.CommunicationProperties;
+import top.fateironist.net_relay.model.common.properties.ProxyServerProperties;
+import top.fateironist.net_relay.model.common.properties.RelayProperties;
+import top.fateironist.net_relay.model.relay.RelayChannelAttachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 本机端到端压测：RelayServerEmulator 充当中转服务端，LoopbackServices 充当被代理服务，
+ * 驱动真实的 CommunicationManager/RelayManager，按协议、连接数、载荷大小输出吞吐、建连速率与 p99 RTT，
+ * 以及每中转 1MB 的CPU时间与分配量（client 只统计 RelayManager-*、CommunicationManager 线程，process 为整个进程，含服务端替身与压测线程）。
+ * 场景：stream 单向灌入收集服务；echo 一问一答测 RTT；connect 每次新建连接收发1字节后关闭。
+ * 用法：java -cp target/benchmarks.jar top.fateironist.net_relay.benchmark.LoopbackRelayHarness
+ *      [--duration 5] [--warmup 2] [--connections 1,8,64] [--payloads 64,1460,16384] [--protocols tcp,udp] [--mux]
+ */
+public class LoopbackRelayHarness {
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+    private static final int SOCKET_TIMEOUT = 2000; // ms
+    private static final double MB = 1024 * 1024;
+
+    private final LoopbackServices services;
+    private final RelayServerEmulator emulator;
+    private final long warmupMillis;
+    private final long durationMillis;
+
+    private LoopbackRelayHarness(LoopbackServices services, RelayServerEmulator emulator, long warmupMillis, long durationMillis) {
+        this.services = services;
+        this.emulator = emulator;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long duration = 5;
+        long warmup = 2;
+        int[] connections = {1, 8, 64};
+        int[] payloads = {64, 1460, 16384};
+        List<String> protocols = List.of("tcp", "udp");
+        boolean mux = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--duration" -> duration = Long.parseLong(args[++i]);
+                case "--warmup" -> warmup = Long.parseLong(args[++i]);
+                case "--connections" -> connections = parseInts(args[++i]);
+                case "--payloads" -> payloads = parseInts(args[++i]);
+                case "--protocols" -> protocols = Arrays.asList(args[++i].toLowerCase().split(","));
+                case "--mux" -> mux = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        try (LoopbackServices services = new LoopbackServices();
+             RelayServerEmulator emulator = new RelayServerEmulator(0)) {
+            emulator.start();
+            ProxyServerProperties proxyServerProperties = new ProxyServerProperties("127.0.0.1", emulator.getPort());
+            RelayProperties relayProperties = new RelayProperties();
+            relayProperties.setMuxEnabled(mux);
+            relayProperties.setJmxEnabled(false);
+            RelayManager relayManager = new RelayManager(proxyServerProperties, relayProperties);
+            AgentProperties agentProperties = new AgentProperties(
+                    new String[]{String.valueOf(services.getTcpEchoPort()), String.valueOf(services.getTcpSinkPort())},
+                    new String[]{String.valueOf(services.getUdpEchoPort()), String.valueOf(services.getUdpSinkPort())});
+            CommunicationManager communicationManager = new CommunicationManager(proxyServerProperties, agentProperties, new CommunicationProperties(), relayManager);
+            communicationManager.init();
+
+            System.out.printf("# java %s, cpus %d, eventLoops %d, mux %s, warmup %ds, duration %ds%n",
+                    System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(),
+                    relayProperties.getEventLoopCount(), mux, warmup, duration);
+            System.out.printf("%-5s %-8s %6s %8s %10s %10s %10s %8s %14s %15s %15s%n",
+                    "proto", "scenario", "conns", "payload", "MB/s", "conn/s", "p99(us)", "loss%",
+                    "clientCpu/MB", "clientAlloc/MB", "processCpu/MB");
+
+            LoopbackRelayHarness harness = new LoopbackRelayHarness(services, emulator, warmup * 1000, duration * 1000);
+            try {
+                for (String protocol : protocols) {
+                    for (int connectionCount : connections) {
+                        for (int payload : payloads) {
+                            if (protocol.equals("tcp")) {
+                                harness.tcpStream(connectionCount, payload).print();
+                                harness.tcpEcho(connectionCount, payload).print();
+                            } else if (payload <= RelayChannelAttachment.DEFAULT_UDP_BUFFER_SIZE) {
+                                harness.udpStream(connectionCount, payload).print();
+                                harness.udpEcho(connectionCount, payload).print();
+                            }
+                        }
+                        if (protocol.equals("tcp")) {
+                            harness.tcpConnect(connectionCount).print();
+                        }
+                    }
+                }
+            } finally {
+                communicationManager.shutdown();
+            }
+        }
+        System.exit(0);
+    }
+
+    private Row tcpStream(int connections, int payload) throws InterruptedException {
+        int remotePort = emulator.getRemotePort(services.getTcpSinkPort());
+        Run run = new Run();
+        return measure("tcp", "stream", connections, payload, run, services::getTcpSinkBytes, index -> {
+            try (Socket socket = new Socket(LOOPBACK, remotePort)) {
+                socket.setTcpNoDelay(true);
+                OutputStream out = socket.getOutputStream();
+                byte[] data = new byte[payload];
+                while (!run.stopped) {
+                    out.write(data);
+                }
+            }
+        });
+    }
+
+    private Row tcpEcho(int connections, int payload) throws InterruptedException {
+        int remotePort = emulator.getRemotePort(services.getTcpEchoPort());
+        Run run = new Run();
+        return measure("tcp", "echo", connections, payload, run, run.bytes::sum, index -> {
+            try (Socket socket = new Socket(LOOPBACK, remotePort)) {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = socket.getInputStream();
+                byte[] data = new byte[payload];
+                byte[] received = new byte[payload];
+                while (!run.stopped) {
+                    long start = System.nanoTime();
+                    out.write(data);
+                    if (in.readNBytes(received, 0, payload) < payload) {
+                        return;
+                    }
+                    run.record(payload, System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    // 建连速率：包含建立中转通道（007/008）与首字节往返
+    private Row tcpConnect(int connections) throws InterruptedException {
+        int remotePort = emulator.getRemotePort(services.getTcpEchoPort());
+        Run run = new Run();
+        return measure("tcp", "connect", connections, 1, run, run.bytes::sum, index -> {
+            while (!run.stopped) {
+                long start = System.nanoTime();
+                try (Socket socket = new Socket(LOOPBACK, remotePort)) {
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(SOCKET_TIMEOUT);
+                    socket.getOutputStream().write(1);
+                    if (socket.getInputStream().read() < 0) {
+                        continue;
+                    }
+                }
+                run.record(1, System.nanoTime() - start);
+            }
+        });
+    }
+
+    private Row udpStream(int connections, int payload) throws InterruptedException {
+        int remotePort = emulator.getUdpRemotePort(services.getUdpSinkPort());
+        Run run = new Run();
+        long sinkPackets = services.getUdpSinkPackets();
+        Row row = measure("udp", "stream", connections, payload, run, services::getUdpSinkBytes, index -> {
+            try (DatagramSocket socket = new DatagramSocket(0, LOOPBACK)) {
+                DatagramPacket packet = new DatagramPacket(new byte[payload], payload, new InetSocketAddress(LOOPBACK, remotePort));
+                while (!run.stopped) {
+                    socket.send(packet);
+                    run.sent();
+                }
+            }
+        });
+        // 收集服务按包计数，与发送数之差即丢包（包含预热阶段）
+        long sent = run.sentTotal.sum();
+        row.lossPercent = sent == 0 ? 0 : Math.max(0, 100.0 * (sent - (services.getUdpSinkPackets() - sinkPackets)) / sent);
+        return row;
+    }
+
+    private Row udpEcho(int connections, int payload) throws InterruptedException {
+        int remotePort = emulator.getUdpRemotePort(services.getUdpEchoPort());
+        Run run = new Run();
+        Row row = measure("udp", "echo", connections, payload, run, run.bytes::sum, index -> {
+            try (DatagramSocket socket = new DatagramSocket(0, LOOPBACK)) {
+                socket.setSoTimeout(SOCKET_TIMEOUT / 2);
+                byte[] data = new byte[Math.max(payload, Long.BYTES)];
+                DatagramPacket request = new DatagramPacket(data, payload, new InetSocketAddress(LOOPBACK, remotePort));
+                DatagramPacket response = new DatagramPacket(new byte[data.length], data.length);
+                long sequence = 0;
+                while (!run.stopped) {
+                    // 载荷不小于8字节时带序号，丢弃超时后迟到的应答
+                    ByteBuffer.wrap(data).putLong(0, ++sequence);
+                    long start = System.nanoTime();
+                    socket.send(request);
+                    run.sent();
+                    try {
+                        do {
+                            response.setLength(data.length);
+                            socket.receive(response);
+                        } while (payload >= Long.BYTES && ByteBuffer.wrap(response.getData()).getLong(0) != sequence);
+                        run.record(payload, System.nanoTime() - start);
+                    } catch (SocketTimeoutException e) {
+                        // 计入丢包
+                    }
+                }
+            }
+        });
+        long sent = run.sentTotal.sum();
+        row.lossPercent = sent == 0 ? 0 : 100.0 * (sent - run.receivedTotal.sum()) / sent;
+        return row;
+    }
+
+    /**
+     * 启动 connections 个压测线程，预热后在测量窗口内统计，之后停止并等待线程退出
+     */
+    private Row measure(String protocol, String scenario, int connections, int payload, Run run, LongSupplier relayedBytes, Worker worker) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.run(index);
+                } catch (IOException e) {
+                    if (!run.stopped) {
+                        run.errors.increment();
+                    }
+                }
+            }, "Harness-" + scenario + "-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(warmupMillis);
+        long bytesStart = relayedBytes.getAsLong();
+        ResourceProbe probeStart = ResourceProbe.take();
+        long start = System.nanoTime();
+        run.measuring = true;
+        Thread.sleep(durationMillis);
+        run.measuring = false;
+        long elapsed = System.nanoTime() - start;
+        ResourceProbe probeEnd = ResourceProbe.take();
+        long bytes = relayedBytes.getAsLong() - bytesStart;
+
+        run.stopped = true;
+        for (Thread thread : threads) {
+            thread.join(SOCKET_TIMEOUT * 2L);
+        }
+        // 等待中转通道随连接关闭
+        Thread.sleep(200);
+
+        Row row = new Row(protocol, scenario, connections, payload);
+        double seconds = elapsed / 1e9;
+        double relayedMb = bytes / MB;
+        row.mbPerSecond = relayedMb / seconds;
+        row.opsPerSecond = run.ops.sum() / seconds;
+        row.rtt = run.rtt.snapshot();
+        row.errors = run.errors.sum();
+        if (relayedMb > 0) {
+            row.clientCpuMillisPerMb = (probeEnd.clientCpu - probeStart.clientCpu) / 1e6 / relayedMb;
+            row.clientAllocKbPerMb = (probeEnd.clientAlloc - probeStart.clientAlloc) / 1024.0 / relayedMb;
+            row.processCpuMillisPerMb = (probeEnd.processCpu - probeStart.processCpu) / 1e6 / relayedMb;
+        }
+        return row;
+    }
+
+    private static int[] parseInts(String csv) {
+        return Arrays.stream(csv.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private interface Worker {
+        void run(int index) throws IOException;
+    }
+
+    private static class Run {
+        private volatile boolean measuring;
+        private volatile boolean stopped;
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder ops = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder sentTotal = new LongAdder();
+        private final LongAdder receivedTotal = new LongAdder();
+        private final LatencyHistogram rtt = new LatencyHistogram();
+
+        private void record(int bytes, long rttNanos) {
+            receivedTotal.increment();
+            if (measuring) {
+                this.bytes.add(bytes);
+                ops.increment();
+                rtt.recordNanos(rttNanos);
+            }
+        }
+
+        private void sent() {
+            sentTotal.increment();
+        }
+    }
+
+    private static class Row {
+        private final String protocol;
+        private final String scenario;
+        private final int connections;
+        private final int payload;
+        private double mbPerSecond;
+        private double opsPerSecond;
+        private HistogramSnapshot rtt;
+        private double lossPercent;
+        private long errors;
+        private double clientCpuMillisPerMb;
+        private double clientAllocKbPerMb;
+        private double processCpuMillisPerMb;
+
+        private Row(String protocol, String scenario, int connections, int payload) {
+            this.protocol = protocol;
+            this.scenario = scenario;
+            this.connections = connections;
+            this.payload = payload;
+        }
+
+        private void print() {
+            boolean connect = scenario.equals("connect");
+            boolean stream = scenario.equals("stream");
+            // 建连场景只收发1字节，按MB折算没有意义
+            System.out.printf("%-5s %-8s %6d %8s %10.2f %10s %10s %8s %14s %15s %15s%s%n",
+                    protocol, scenario, connections, connect ? "-" : String.valueOf(payload), mbPerSecond,
+                    connect ? String.format("%.0f", opsPerSecond) : "-",
+                    stream ? "-" : String.valueOf(rtt.getP99()),
+                    protocol.equals("udp") ? String.format("%.2f", lossPercent) : "-",
+                    connect ? "-" : String.format("%.2fms", clientCpuMillisPerMb),
+                    connect ? "-" : String.format("%.1fKB", clientAllocKbPerMb),
+                    connect ? "-" : String.format("%.2fms", processCpuMillisPerMb),
+                    errors > 0 ? "  errors:" + errors : "");
+        }
+    }
+
+    // 线程CPU时间与分配量；client 为中转客户端自身的线程
+    private static class ResourceProbe {
+        private long clientCpu;
+        private long clientAlloc;
+        private long processCpu;
+
+        private static ResourceProbe take() {
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            ResourceProbe probe = new ResourceProbe();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                String name = thread.getName();
+                if (name.startsWith("RelayManager-") || name.equals("CommunicationManager")) {
+                    probe.clientCpu += Math.max(0, threadMXBean.getThreadCpuTime(thread.threadId()));
+                    probe.clientAlloc += Math.max(0, threadMXBean.getThreadAllocatedBytes(thread.threadId()));
+                }
+            }
+            probe.processCpu = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+            return probe;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package top.fateironist.net_relay.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本机被代理服务：TCP/UDP 回显与 TCP/UDP 收集（只计数不应答），均监听回环随机端口
+ */
+public class LoopbackServices implements Closeable {
+    private final ServerSocket tcpEcho;
+    private final ServerSocket tcpSink;
+    private final DatagramSocket udpEcho;
+    private final DatagramSocket udpSink;
+    private final List<Closeable> accepted = new CopyOnWriteArrayList<>();
+
+    private final LongAdder tcpSinkBytes = new LongAdder();
+    private final LongAdder udpSinkBytes = new LongAdder();
+    private final LongAdder udpSinkPackets = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public LoopbackServices() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        tcpEcho = new ServerSocket(0, 1024, loopback);
+        tcpSink = new ServerSocket(0, 1024, loopback);
+        udpEcho = new DatagramSocket(0, loopback);
+        udpSink = new DatagramSocket(0, loopback);
+        udpEcho.setReceiveBufferSize(4 * 1024 * 1024);
+        udpSink.setReceiveBufferSize(4 * 1024 * 1024);
+
+        startDaemon(() -> accept(tcpEcho, true), "Loopback-TcpEcho");
+        startDaemon(() -> accept(tcpSink, false), "Loopback-TcpSink");
+        startDaemon(this::udpEcho, "Loopback-UdpEcho");
+        startDaemon(this::udpSink, "Loopback-UdpSink");
+    }
+
+    public int getTcpEchoPort() {
+        return tcpEcho.getLocalPort();
+    }
+
+    public int getTcpSinkPort() {
+        return tcpSink.getLocalPort();
+    }
+
+    public int getUdpEchoPort() {
+        return udpEcho.getLocalPort();
+    }
+
+    public int getUdpSinkPort() {
+        return udpSink.getLocalPort();
+    }
+
+    public long getTcpSinkBytes() {
+        return tcpSinkBytes.sum();
+    }
+
+    public long getUdpSinkBytes() {
+        return udpSinkBytes.sum();
+    }
+
+    public long getUdpSinkPackets() {
+        return udpSinkPackets.sum();
+    }
+
+    private void accept(ServerSocket server, boolean echo) {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                accepted.add(socket);
+                startDaemon(() -> serve(socket, echo), server == tcpEcho ? "Loopback-TcpEcho-Conn" : "Loopback-TcpSink-Conn");
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket, boolean echo) {
+        byte[] buffer = new byte[64 * 1024];
+        try (socket) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (echo) {
+                    out.write(buffer, 0, read);
+                } else {
+                    tcpSinkBytes.add(read);
+                }
+            }
+        } catch (IOException e) {
+        } finally {
+            accepted.remove(socket);
+        }
+    }
+
+    private void udpEcho() {
+        DatagramPacket packet = new DatagramPacket(new byte[64 * 1024], 64 * 1024);
+        while (running) {
+            try {
+                packet.setLength(64 * 1024);
+                udpEcho.receive(packet);
+                udpEcho.send(packet);
+            } catch (IOException e) {
+                if (udpEcho.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void udpSink() {
+        DatagramPacket packet = new DatagramPacket(new byte[64 * 1024], 64 * 1024);
+        while (running) {
+            try {
+                packet.setLength(64 * 1024);
+                udpSink.receive(packet);
+                udpSinkBytes.add(packet.getLength());
+                udpSinkPackets.increment();
+            } catch (IOException e) {
+                if (udpSink.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Closeable closeable : new Closeable[]{tcpEcho, tcpSink, udpEcho, udpSink}) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+            }
+        }
+        for (Closeable closeable : accepted) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package top.fateironist.net_relay.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import top.fateironist.net_relay.common.buffer.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP中转的缓冲区周期：从一端 read 进池化缓冲区，flip，write 到另一端，compact。
+ * 与 RelayEventLoop 中一次读事件加一次写事件的处理相同，两端均为本机回环连接；
+ * 每次调用先由生产端写入 payloadSize 字节，最后由消费端读走，以保证两侧内核缓冲区不会堆积。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TcpRelayCycleBenchmark {
+    @Param({"512", "1460", "16384"})
+    private int payloadSize;
+
+    @Param({"1460", "65536"})
+    private int bufferSize;
+
+    private ServerSocketChannel server;
+    // producer -> source 为被代理端一侧，sink -> consumer 为中转服务端一侧
+    private SocketChannel producer;
+    private SocketChannel source;
+    private SocketChannel sink;
+    private SocketChannel consumer;
+
+    private ByteBuffer payload;
+    private ByteBuffer drain;
+    private ByteBuffer relayBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        producer = SocketChannel.open(server.getLocalAddress());
+        source = server.accept();
+        sink = SocketChannel.open(server.getLocalAddress());
+        consumer = server.accept();
+        for (SocketChannel channel : new SocketChannel[]{producer, source, sink, consumer}) {
+            channel.socket().setTcpNoDelay(true);
+        }
+
+        payload = ByteBuffer.allocateDirect(payloadSize);
+        drain = ByteBuffer.allocateDirect(payloadSize);
+        relayBuffer = BufferPool.allocate(bufferSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BufferPool.release(relayBuffer);
+        producer.close();
+        source.close();
+        sink.close();
+        consumer.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int relay() throws IOException {
+        payload.clear();
+        while (payload.hasRemaining()) {
+            producer.write(payload);
+        }
+
+        int relayed = 0;
+        while (relayed < payloadSize) {
+            relayed += source.read(relayBuffer);
+            relayBuffer.flip();
+            sink.write(relayBuffer);
+            relayBuffer.compact();
+        }
+        // 写不完的部分留在缓冲区，与事件循环等待下一次写事件一致
+        while (relayBuffer.position() > 0) {
+            relayBuffer.flip();
+            sink.write(relayBuffer);
+            relayBuffer.compact();
+        }
+
+        drain.clear();
+        while (drain.hasRemaining()) {
+            consumer.read(drain);
+        }
+        return relayed;
+    }
+}
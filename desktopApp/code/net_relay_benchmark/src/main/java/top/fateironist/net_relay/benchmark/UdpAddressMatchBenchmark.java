@@ -0,0 +1,57 @@
+package top.fateironist.net_relay.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import top.fateironist.net_relay.model.relay.UdpRelayChannelAttachment;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP读事件中判断数据报来源的地址匹配（RelayEventLoop 中每个数据报都会执行一次）。
+ * receive 每次返回新的地址对象，这里同样为每次调用准备独立的地址实例。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UdpAddressMatchBenchmark {
+    private static final String REMOTE_HOST = "111.111.111.111";
+    private static final int REMOTE_PORT = 40001;
+    private static final int LOCAL_PORT = 25565;
+
+    private UdpRelayChannelAttachment attachment;
+
+    @Setup
+    public void setup() {
+        attachment = new UdpRelayChannelAttachment("agent", LOCAL_PORT, 30001, REMOTE_HOST, REMOTE_PORT, "channel");
+    }
+
+    @Benchmark
+    public boolean fromRemote() {
+        return attachment.isFromRemote(new InetSocketAddress(REMOTE_HOST, REMOTE_PORT));
+    }
+
+    // 先与中转服务端地址比较失败，再判断是否来自被代理端
+    @Benchmark
+    public boolean fromLocal() {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", LOCAL_PORT);
+        return !attachment.isFromRemote(address) && attachment.isFromLocal(address);
+    }
+
+    @Benchmark
+    public boolean unknownSource() {
+        InetSocketAddress address = new InetSocketAddress("10.0.0.8", 50000);
+        return attachment.isFromRemote(address) || attachment.isFromLocal(address);
+    }
+}